@@ -0,0 +1,126 @@
+package com.example.batterystats;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import androidx.core.app.NotificationCompat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Stores the user's {@link AlertRule}s and posts them as they fire, on a
+ * channel of their own so they can be silenced or made louder apart from the
+ * ongoing monitoring notification. Which rules have fired is kept across
+ * restarts, so a rule that is still past its threshold does not fire again
+ * every time the process comes back.
+ */
+public class AlertNotifier implements AlertEngine.Listener {
+    private static final String PREFS_NAME = "BatteryStats";
+    private static final String KEY_RULES = "alert_rules";
+    private static final String KEY_FIRED = "alert_fired";
+    private static final String CHANNEL_ID = "BatteryAlertsChannel";
+    private static final int NOTIFICATION_ID_BASE = 2000;
+
+    private final Context context;
+    private final NotificationManager manager;
+    private final SharedPreferences prefs;
+    private final Set<String> fired;
+
+    private AlertNotifier(Context context) {
+        this.context = context;
+        manager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        fired = new HashSet<>(prefs.getStringSet(KEY_FIRED, Collections.<String>emptySet()));
+        createNotificationChannel();
+    }
+
+    public static String getRules(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).getString(KEY_RULES, "");
+    }
+
+    /** Stores rules already checked with {@link AlertRule#parseAll}. */
+    public static void setRules(Context context, String rules) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+            .putString(KEY_RULES, rules)
+            .apply();
+    }
+
+    /** Compiles the stored rules, or returns null if there are none. */
+    public static AlertEngine createEngine(Context context) {
+        List<AlertRule> rules;
+        try {
+            rules = AlertRule.parseAll(getRules(context));
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            return null;
+        }
+        if (rules.isEmpty()) {
+            return null;
+        }
+        AlertNotifier notifier = new AlertNotifier(context);
+        boolean[] disarmed = new boolean[rules.size()];
+        List<String> kept = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            String key = rules.get(i).toString();
+            disarmed[i] = notifier.fired.contains(key);
+            if (disarmed[i]) {
+                kept.add(key);
+            }
+        }
+        // Forget rules that were removed or edited
+        notifier.fired.retainAll(kept);
+        notifier.saveFired();
+        return new AlertEngine(rules, disarmed, notifier);
+    }
+
+    @Override
+    public void onAlert(int index, AlertRule rule, float value) {
+        fired.add(rule.toString());
+        saveFired();
+
+        Intent intent = new Intent(context, MainActivity.class);
+        PendingIntent pendingIntent = PendingIntent.getActivity(context, 0, intent, PendingIntent.FLAG_IMMUTABLE);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+            .setSmallIcon(android.R.drawable.stat_sys_warning)
+            .setContentTitle("Battery " + rule.getMetricName() + " " + rule.formatValue(value))
+            .setContentText("Alert: " + rule)
+            .setContentIntent(pendingIntent)
+            .setPriority(NotificationCompat.PRIORITY_HIGH)
+            .setAutoCancel(true);
+        if (manager != null) {
+            manager.notify(NOTIFICATION_ID_BASE + index, builder.build());
+        }
+    }
+
+    @Override
+    public void onRearm(int index, AlertRule rule) {
+        fired.remove(rule.toString());
+        saveFired();
+    }
+
+    private void saveFired() {
+        prefs.edit().putStringSet(KEY_FIRED, new HashSet<>(fired)).apply();
+    }
+
+    private void createNotificationChannel() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(
+                CHANNEL_ID,
+                "Battery Alerts",
+                NotificationManager.IMPORTANCE_HIGH
+            );
+            channel.setDescription("Alerts for the battery rules you set up");
+
+            if (manager != null) {
+                manager.createNotificationChannel(channel);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.batterystats;
+
+import android.net.Uri;
+
+/**
+ * The tables {@link BatteryDataProvider} exports, for device-management
+ * agents and other readers holding {@link #PERMISSION_READ}.
+ *
+ * Every table takes the optional query parameters {@link #PARAM_FROM} and
+ * {@link #PARAM_TO} (wall clock millis, {@code from <= time < to}),
+ * {@link #PARAM_OFFSET} and {@link #PARAM_LIMIT}. Rows are oldest first.
+ * For example, the first thousand samples of a day:
+ *
+ * <pre>
+ *   content://com.example.batterystats.data/samples?from=1700000000000&amp;to=1700086400000&amp;limit=1000
+ * </pre>
+ *
+ * Samples are found by binary search on their wall clock time, so after the
+ * user sets the clock back a window can start or end at the wrong sample. To
+ * read every sample regardless, page through the table with offset and
+ * limit and no time window, using {@code _id} to spot rows already read.
+ *
+ * All columns are integers; sample readings the device did not report are null.
+ */
+public final class BatteryDataContract {
+    public static final String AUTHORITY = "com.example.batterystats.data";
+    public static final String PERMISSION_READ = "com.example.batterystats.permission.READ_BATTERY_DATA";
+
+    public static final String PARAM_FROM = "from";
+    public static final String PARAM_TO = "to";
+    public static final String PARAM_OFFSET = "offset";
+    public static final String PARAM_LIMIT = "limit";
+    /** Aggregates only: {@link Aggregates#TIER_MINUTE}, {@link Aggregates#TIER_HOUR} (default) or {@link Aggregates#TIER_DAY}. */
+    public static final String PARAM_TIER = "tier";
+
+    public static final String COLUMN_ID = "_id";
+
+    private BatteryDataContract() {
+    }
+
+    /** Charge cycles, one row per cycle. {@code _id} is the full charge timestamp. */
+    public static final class Cycles {
+        public static final String PATH = "cycles";
+        public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + PATH);
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd." + AUTHORITY + ".cycle";
+
+        public static final String FULL_CHARGE_TIMESTAMP = "full_charge_timestamp";
+        public static final String START_LEVEL = "start_level";
+        public static final String END_LEVEL = "end_level";
+        public static final String DURATION_MILLIS = "duration_millis";
+
+        static final String[] COLUMNS = {COLUMN_ID, FULL_CHARGE_TIMESTAMP, START_LEVEL, END_LEVEL, DURATION_MILLIS};
+
+        private Cycles() {
+        }
+    }
+
+    /** Raw battery samples. {@code _id} is the sample's sequence number and stays stable across queries. */
+    public static final class Samples {
+        public static final String PATH = "samples";
+        public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + PATH);
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd." + AUTHORITY + ".sample";
+
+        public static final String TIMESTAMP = "timestamp";
+        public static final String LEVEL = "level";
+        public static final String STATUS = "status";
+        public static final String PLUGGED = "plugged";
+        public static final String HEALTH = "health";
+        /** Millivolts. */
+        public static final String VOLTAGE = "voltage";
+        /** Tenths of a degree Celsius. */
+        public static final String TEMPERATURE = "temperature";
+        /** Microamps, negative while discharging. */
+        public static final String CURRENT_NOW = "current_now";
+        /** Microamp hours. */
+        public static final String CHARGE_COUNTER = "charge_counter";
+
+        static final String[] COLUMNS = {COLUMN_ID, TIMESTAMP, LEVEL, STATUS, PLUGGED, HEALTH,
+            VOLTAGE, TEMPERATURE, CURRENT_NOW, CHARGE_COUNTER};
+
+        private Samples() {
+        }
+    }
+
+    /**
+     * Minute, hour or day buckets of the samples, selected by bucket start.
+     * Minute buckets are kept for a week, hour buckets for 90 days.
+     * {@code _id} is the bucket start.
+     */
+    public static final class Aggregates {
+        public static final String PATH = "aggregates";
+        public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + PATH);
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd." + AUTHORITY + ".aggregate";
+
+        public static final String TIER_MINUTE = "minute";
+        public static final String TIER_HOUR = "hour";
+        public static final String TIER_DAY = "day";
+
+        public static final String BUCKET_START = "bucket_start";
+        public static final String MIN_LEVEL = "min_level";
+        public static final String MAX_LEVEL = "max_level";
+        public static final String SAMPLES = "samples";
+        public static final String DRAIN_PERCENT = "drain_percent";
+        public static final String CHARGE_PERCENT = "charge_percent";
+        public static final String DISCHARGE_MILLIS = "discharge_millis";
+        public static final String CYCLES_STARTED = "cycles_started";
+
+        static final String[] COLUMNS = {COLUMN_ID, BUCKET_START, MIN_LEVEL, MAX_LEVEL, SAMPLES,
+            DRAIN_PERCENT, CHARGE_PERCENT, DISCHARGE_MILLIS, CYCLES_STARTED};
+
+        private Aggregates() {
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.example.batterystats;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.net.Uri;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Read-only export of cycles, samples and aggregates, described in
+ * {@link BatteryDataContract} and guarded by its read permission.
+ *
+ * Queries return {@link StoreCursor}s that read the stores in place: the
+ * cycle list is an immutable snapshot, samples come out of the memory-mapped
+ * ring and aggregates out of the rollup tiers, so a query over months of
+ * data allocates a few objects, and paging through it costs what the client
+ * actually reads. Queries run on binder threads, never the main thread.
+ */
+public class BatteryDataProvider extends ContentProvider {
+    private static final int CYCLES = 1;
+    private static final int SAMPLES = 2;
+    private static final int AGGREGATES = 3;
+
+    private static final UriMatcher MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        MATCHER.addURI(BatteryDataContract.AUTHORITY, BatteryDataContract.Cycles.PATH, CYCLES);
+        MATCHER.addURI(BatteryDataContract.AUTHORITY, BatteryDataContract.Samples.PATH, SAMPLES);
+        MATCHER.addURI(BatteryDataContract.AUTHORITY, BatteryDataContract.Aggregates.PATH, AGGREGATES);
+    }
+
+    @Override
+    public boolean onCreate() {
+        // Runs on the main thread during app start; the stores open on the first query
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        if (selection != null || sortOrder != null) {
+            throw new IllegalArgumentException("Select with the from, to, offset and limit parameters");
+        }
+        long from = longParameter(uri, BatteryDataContract.PARAM_FROM, Long.MIN_VALUE);
+        long to = longParameter(uri, BatteryDataContract.PARAM_TO, Long.MAX_VALUE);
+        int offset = (int) Math.min(Integer.MAX_VALUE, Math.max(0, longParameter(uri, BatteryDataContract.PARAM_OFFSET, 0)));
+        int limit = (int) Math.min(Integer.MAX_VALUE, Math.max(0, longParameter(uri, BatteryDataContract.PARAM_LIMIT, Integer.MAX_VALUE)));
+
+        switch (MATCHER.match(uri)) {
+            case CYCLES:
+                return new CyclesCursor(BatteryStores.cycles(getContext()).getCycles(),
+                    projection, from, to, offset, limit);
+            case SAMPLES:
+                try {
+                    return new SamplesCursor(BatteryStores.samples(getContext()), projection, from, to, offset, limit);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            case AGGREGATES:
+                return new AggregatesCursor(BatteryStores.rollups(getContext()),
+                    tierParameter(uri), projection, from, to, offset, limit);
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        switch (MATCHER.match(uri)) {
+            case CYCLES:
+                return BatteryDataContract.Cycles.CONTENT_TYPE;
+            case SAMPLES:
+                return BatteryDataContract.Samples.CONTENT_TYPE;
+            case AGGREGATES:
+                return BatteryDataContract.Aggregates.CONTENT_TYPE;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Battery data is read-only");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Battery data is read-only");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Battery data is read-only");
+    }
+
+    private static long longParameter(Uri uri, String name, long defaultValue) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " is not a number: " + value);
+        }
+    }
+
+    private static int tierParameter(Uri uri) {
+        String tier = uri.getQueryParameter(BatteryDataContract.PARAM_TIER);
+        if (tier == null || BatteryDataContract.Aggregates.TIER_HOUR.equals(tier)) {
+            return RollupStore.TIER_HOUR;
+        } else if (BatteryDataContract.Aggregates.TIER_MINUTE.equals(tier)) {
+            return RollupStore.TIER_MINUTE;
+        } else if (BatteryDataContract.Aggregates.TIER_DAY.equals(tier)) {
+            return RollupStore.TIER_DAY;
+        }
+        throw new IllegalArgumentException("Unknown tier " + tier);
+    }
+
+    /** Rows left of {@code [first, end)} after skipping {@code offset}, at most {@code limit}. */
+    private static int window(int first, int end, int offset, int limit) {
+        return (int) Math.max(0, Math.min((long) end - first - offset, limit));
+    }
+
+    private static final class CyclesCursor extends StoreCursor {
+        private final List<ChargeCycle> cycles;
+        private final int first;
+        private ChargeCycle row;
+
+        CyclesCursor(CycleSnapshot cycles, String[] projection, long from, long to, int offset, int limit) {
+            this(cycles, projection, lowerBound(cycles, from), lowerBound(cycles, to), offset, limit);
+        }
+
+        private CyclesCursor(CycleSnapshot cycles, String[] projection, int first, int end, int offset, int limit) {
+            super(BatteryDataContract.Cycles.COLUMNS, projection, window(first, end, offset, limit));
+            this.cycles = cycles;
+            this.first = first + offset;
+        }
+
+        private static int lowerBound(List<ChargeCycle> cycles, long time) {
+            int low = 0;
+            int high = cycles.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cycles.get(mid).fullChargeTimestamp < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        @Override
+        boolean loadRow(int position) {
+            row = cycles.get(first + position);
+            return true;
+        }
+
+        @Override
+        long value(int column) {
+            switch (column) {
+                case 0:
+                case 1:
+                    return row.fullChargeTimestamp;
+                case 2:
+                    return row.startLevel;
+                case 3:
+                    return row.endLevel;
+                default:
+                    return row.durationMillis;
+            }
+        }
+    }
+
+    /** Rows are addressed by sequence number, so samples appended during a read do not shift them. */
+    private static final class SamplesCursor extends StoreCursor {
+        private final SampleRing ring;
+        private final long firstSequence;
+        private int slot;
+
+        SamplesCursor(SampleRing ring, String[] projection, long from, long to, int offset, int limit) {
+            this(ring, ring.getTotalCount(), ring.size(), projection, from, to, offset, limit);
+        }
+
+        private SamplesCursor(SampleRing ring, long total, int size, String[] projection,
+                              long from, long to, int offset, int limit) {
+            this(ring, total - size, ring.lowerBound(from, size), ring.lowerBound(to, size),
+                projection, offset, limit);
+        }
+
+        private SamplesCursor(SampleRing ring, long oldest, int first, int end,
+                              String[] projection, int offset, int limit) {
+            super(BatteryDataContract.Samples.COLUMNS, projection, window(first, end, offset, limit));
+            this.ring = ring;
+            this.firstSequence = oldest + first + offset;
+        }
+
+        @Override
+        boolean loadRow(int position) {
+            long sequence = firstSequence + position;
+            // A read slower than the ring wraps loses its oldest rows
+            if (sequence < ring.getTotalCount() - ring.getCapacity()) {
+                return false;
+            }
+            slot = (int) (sequence % ring.getCapacity());
+            return true;
+        }
+
+        @Override
+        boolean isMissing(int column) {
+            return column >= 6 && value(column) == SampleRing.UNKNOWN;
+        }
+
+        @Override
+        long value(int column) {
+            switch (column) {
+                case 0:
+                    return firstSequence + getPosition();
+                case 1:
+                    return ring.timestamp(slot);
+                case 2:
+                    return ring.level(slot);
+                case 3:
+                    return ring.status(slot);
+                case 4:
+                    return ring.plugged(slot);
+                case 5:
+                    return ring.health(slot);
+                case 6:
+                    return ring.voltage(slot);
+                case 7:
+                    return ring.temperature(slot);
+                case 8:
+                    return ring.currentNow(slot);
+                default:
+                    return ring.chargeCounter(slot);
+            }
+        }
+    }
+
+    /** Rows are addressed from the first bucket's start, so buckets expiring during a read do not shift them. */
+    private static final class AggregatesCursor extends StoreCursor {
+        private final RollupStore rollups;
+        private final int tier;
+        private final long firstStart;
+        private final RollupStore.Bucket row = new RollupStore.Bucket();
+
+        AggregatesCursor(RollupStore rollups, int tier, String[] projection,
+                         long from, long to, int offset, int limit) {
+            this(rollups, tier, projection, rollups.bucketsBefore(tier, from), rollups.bucketsBefore(tier, to),
+                offset, limit);
+        }
+
+        private AggregatesCursor(RollupStore rollups, int tier, String[] projection,
+                                 int first, int end, int offset, int limit) {
+            super(BatteryDataContract.Aggregates.COLUMNS, projection, window(first, end, offset, limit));
+            this.rollups = rollups;
+            this.tier = tier;
+            RollupStore.Bucket bucket = new RollupStore.Bucket();
+            this.firstStart = rollups.readBucket(tier, first + offset, bucket) ? bucket.start : Long.MAX_VALUE;
+        }
+
+        @Override
+        boolean loadRow(int position) {
+            return rollups.readBucket(tier, rollups.bucketsBefore(tier, firstStart) + position, row);
+        }
+
+        @Override
+        long value(int column) {
+            switch (column) {
+                case 0:
+                case 1:
+                    return row.start;
+                case 2:
+                    return row.minLevel;
+                case 3:
+                    return row.maxLevel;
+                case 4:
+                    return row.samples;
+                case 5:
+                    return row.drainPercent;
+                case 6:
+                    return row.chargePercent;
+                case 7:
+                    return row.dischargeMillis;
+                default:
+                    return row.cyclesStarted;
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.batterystats;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.BatteryManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.Settings;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds battery broadcasts into the {@link BatteryPipeline} and delivers what
+ * comes out: snapshots to subscribers, the display snapshot file, the widget
+ * and the tile. It is shared by everything that observes the battery, the
+ * always-on {@link BatteryMonitorService} as well as {@link SamplingJobService},
+ * so both modes track cycles the same way.
+ *
+ * Main thread only; disk work is posted to the {@link BackgroundWriter}.
+ */
+public class BatteryEngine {
+    private static final String PREFS_NAME = "BatteryStats";
+    // Charge flags of earlier versions, imported once into the charge state file
+    private static final String KEY_LAST_FULL_CHARGE = "last_full_charge";
+    private static final String KEY_CHARGE_START_LEVEL = "charge_start_level";
+    private static final String KEY_WAS_FULL = "was_full";
+    private static final long SNAPSHOT_SAVE_DELAY_MS = 2000;
+    private static final long USAGE_INGEST_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final BatteryPipeline.Clock SYSTEM_CLOCK = new BatteryPipeline.Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+    };
+
+    private final Context context;
+    private final BatteryPipeline pipeline;
+    private final ChargeCycleRepository repository;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable applyPendingState = this::applyPending;
+    private final SnapshotPublisher snapshots = new SnapshotPublisher();
+    private final File snapshotFile;
+    private final GlanceViews glanceViews;
+    private final CoalescingTask ingestUsageTask = new CoalescingTask(
+        BackgroundWriter.executor(), this::ingestUsage, USAGE_INGEST_DELAY_MS);
+    private final CoalescingTask saveSnapshotTask = new CoalescingTask(
+        BackgroundWriter.executor(), this::saveDisplaySnapshot, SNAPSHOT_SAVE_DELAY_MS);
+
+    BatteryEngine(Context context) {
+        this.context = context.getApplicationContext();
+        repository = BatteryStores.cycles(this.context);
+        RollupStore rollups = BatteryStores.rollups(this.context);
+        SampleRing sampleRing = null;
+        try {
+            sampleRing = BatteryStores.samples(this.context);
+            final SampleRing ring = sampleRing;
+            // Runs after the repository's load, which was queued first
+            BackgroundWriter.executor().execute(() -> rollups.backfill(ring, repository.getCycles()));
+        } catch (IOException e) {
+            // Keep monitoring cycles even if the sample file is unavailable
+            e.printStackTrace();
+        }
+        int bootCount = Settings.Global.getInt(this.context.getContentResolver(),
+            Settings.Global.BOOT_COUNT, ChargeStateMachine.BOOT_UNKNOWN);
+        BatteryPropertySource properties = new BatteryManagerPropertySource(
+            (BatteryManager) this.context.getSystemService(Context.BATTERY_SERVICE));
+
+        pipeline = new BatteryPipeline(this.context.getFilesDir(), BackgroundWriter.executor(), SYSTEM_CLOCK,
+            bootCount, properties, repository, rollups, sampleRing, this::onSnapshot);
+        if (!pipeline.getChargeState().isRestored()) {
+            importLegacyChargeState();
+        }
+        pipeline.setAlerts(AlertNotifier.createEngine(this.context));
+        snapshotFile = new File(this.context.getFilesDir(), SnapshotFile.FILENAME);
+        glanceViews = new GlanceViews(this.context);
+    }
+
+    public SnapshotPublisher getSnapshots() {
+        return snapshots;
+    }
+
+    /** The raw sample log, or null if its file could not be opened. */
+    public SampleRing getSampleRing() {
+        return pipeline.getSampleRing();
+    }
+
+    /** Recompiles the alert rules after the user edited them. */
+    public void reloadAlertRules() {
+        pipeline.setAlerts(AlertNotifier.createEngine(context));
+    }
+
+    public boolean hasState() {
+        return pipeline.hasState();
+    }
+
+    /**
+     * Records a BATTERY_CHANGED intent and schedules the resulting state
+     * transition after {@code coalesceDelayMillis}, merging whatever else
+     * arrives in between.
+     */
+    public void onBatteryChanged(Intent intent, long coalesceDelayMillis) {
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        float batteryPct = (level / (float) scale) * 100;
+        boolean pending = pipeline.onBatteryChanged(
+            (int) batteryPct,
+            intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1),
+            intent.getIntExtra(BatteryManager.EXTRA_HEALTH, BatteryManager.BATTERY_HEALTH_UNKNOWN),
+            intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0),
+            intent.getIntExtra(BatteryManager.EXTRA_VOLTAGE, SampleRing.UNKNOWN),
+            intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, SampleRing.UNKNOWN));
+        if (pending) {
+            handler.postDelayed(applyPendingState, coalesceDelayMillis);
+        }
+    }
+
+    /** Applies a pending transition now instead of after the coalescing delay. */
+    public void applyPending() {
+        handler.removeCallbacks(applyPendingState);
+        if (pipeline.applyPending()) {
+            ingestUsageTask.request();
+        }
+    }
+
+    public void onScreenChanged(boolean on) {
+        pipeline.onScreenChanged(on);
+    }
+
+    public void onIdleModeChanged(boolean idle) {
+        pipeline.onIdleModeChanged(idle);
+    }
+
+    /** Applies pending state and queues every pending write ahead of anything posted after this. */
+    public void flush() {
+        applyPending();
+        pipeline.flush();
+        BackgroundWriter.executor().execute(saveSnapshotTask::runNowIfPending);
+    }
+
+    public void publishSnapshot() {
+        pipeline.publishSnapshot(false);
+    }
+
+    public void dump(PrintWriter writer) {
+        pipeline.dump(writer);
+        Metrics.dump(writer);
+        CycleSnapshot cycles = repository.getCycles();
+        if (!cycles.isEmpty()) {
+            writer.println("App usage in the current cycle:");
+            for (AppUsageStore.AppShare share : BatteryStores.usage(context).getAttribution(cycles.get(cycles.size() - 1))) {
+                writer.println(String.format(Locale.US, "  %-40s %s  %.1f%%",
+                    share.packageName, BatteryFormat.formatTimeDuration(share.foregroundMillis), share.drainPercent));
+            }
+        }
+    }
+
+    private void onSnapshot(BatterySnapshot snapshot, boolean changed) {
+        snapshots.publish(snapshot);
+        if (changed) {
+            saveSnapshotTask.request();
+        }
+    }
+
+    /** Folds new app usage events into the per-cycle attribution. Runs on the writer thread. */
+    private void ingestUsage() {
+        BatteryStores.usage(context).ingest(System.currentTimeMillis(), repository.getCycles());
+    }
+
+    /**
+     * Keeps the newest snapshot on disk for the activity's first frame, the
+     * widget and the tile, then lets those two know. Runs on the writer thread.
+     */
+    private void saveDisplaySnapshot() {
+        BatterySnapshot snapshot = snapshots.getLatest();
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            SnapshotFile.write(snapshotFile, snapshot);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        glanceViews.onSnapshotSaved(snapshot);
+    }
+
+    private void importLegacyChargeState() {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (!prefs.contains(KEY_LAST_FULL_CHARGE) && !prefs.contains(KEY_WAS_FULL)) {
+            return;
+        }
+        pipeline.getChargeState().importLegacy(
+            prefs.getBoolean(KEY_WAS_FULL, false),
+            prefs.getLong(KEY_LAST_FULL_CHARGE, 0),
+            prefs.getInt(KEY_CHARGE_START_LEVEL, 100),
+            System.currentTimeMillis(), SystemClock.elapsedRealtime(), pipeline.getBootCount());
+        prefs.edit()
+            .remove(KEY_WAS_FULL)
+            .remove(KEY_LAST_FULL_CHARGE)
+            .remove(KEY_CHARGE_START_LEVEL)
+            .apply();
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.batterystats;
+
+import android.os.BatteryManager;
+
+/**
+ * Reads battery properties from {@link BatteryManager}. Older devices
+ * report 0 instead of Integer.MIN_VALUE for a property they lack, which is
+ * mapped to {@link #UNKNOWN} for the charge counter where 0 is never real.
+ */
+public class BatteryManagerPropertySource implements BatteryPropertySource {
+    private final BatteryManager batteryManager;
+
+    public BatteryManagerPropertySource(BatteryManager batteryManager) {
+        this.batteryManager = batteryManager;
+    }
+
+    @Override
+    public int getChargeCounter() {
+        if (batteryManager == null) {
+            return UNKNOWN;
+        }
+        int value = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CHARGE_COUNTER);
+        return value == 0 ? UNKNOWN : value;
+    }
+
+    @Override
+    public int getCurrentNow() {
+        if (batteryManager == null) {
+            return UNKNOWN;
+        }
+        return batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CURRENT_NOW);
+    }
+
+    @Override
+    public int getDesignCapacityMah() {
+        // Only available through hidden framework APIs
+        return UNKNOWN;
+    }
+}
@@ -9,57 +9,136 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.SharedPreferences;
-import android.os.BatteryManager;
+import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * The always-on monitoring mode: a foreground service that feeds every
+ * battery and screen broadcast to the {@link BatteryEngine}. While the
+ * activity is visible it is also bound, in either mode, to stream snapshots.
+ */
 public class BatteryMonitorService extends Service {
 
-    private static final String PREFS_NAME = "BatteryStats";
-    private static final String KEY_LAST_FULL_CHARGE = "last_full_charge";
-    private static final String KEY_CHARGE_START_LEVEL = "charge_start_level";
-    private static final String KEY_WAS_FULL = "was_full"; // Track if battery reached 100%
+    /** Leaves the foreground and stops, when the user switches to scheduled sampling. */
+    public static final String ACTION_STOP = "com.example.batterystats.action.STOP_MONITORING";
+
     private static final String CHANNEL_ID = "BatteryMonitorChannel";
     private static final int NOTIFICATION_ID = 1;
+    private static final String METRICS_FILENAME = "metrics.txt";
+    private static final long COALESCE_DELAY_MS = 1000;
+    private static final long SNAPSHOT_TICK_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long NOTIFICATION_MIN_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
     
-    private SharedPreferences prefs;
-    private BatteryDataManager dataManager;
+    private BatteryEngine engine;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final IBinder binder = new LocalBinder();
+    private NotificationRenderer notificationRenderer;
+    private boolean foreground;
+    private int snapshotListeners;
+    private final Runnable snapshotTick = new Runnable() {
+        @Override
+        public void run() {
+            if (snapshotListeners > 0) {
+                engine.publishSnapshot();
+                handler.postDelayed(this, SNAPSHOT_TICK_MS);
+            }
+        }
+    };
+    
+    /** In-process binder; clients in this app talk to the service directly. */
+    public class LocalBinder extends Binder {
+        public BatteryMonitorService getService() {
+            return BatteryMonitorService.this;
+        }
+    }
     
     private BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            checkBatteryStatus(intent);
+            engine.onBatteryChanged(intent, COALESCE_DELAY_MS);
+        }
+    };
+    
+    private BroadcastReceiver screenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            engine.onScreenChanged(Intent.ACTION_SCREEN_ON.equals(intent.getAction()));
+        }
+    };
+    
+    private BroadcastReceiver idleReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+            if (powerManager != null) {
+                engine.onIdleModeChanged(powerManager.isDeviceIdleMode());
+            }
         }
     };
 
     @Override
     public void onCreate() {
         super.onCreate();
-        prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
-        dataManager = new BatteryDataManager(this);
-        
-        // Create notification channel for Android 8.0+
-        createNotificationChannel();
+        engine = BatteryStores.engine(this);
         
-        // Start as foreground service
-        startForeground(NOTIFICATION_ID, createNotification());
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        if (powerManager != null) {
+            engine.onScreenChanged(powerManager.isInteractive());
+            engine.onIdleModeChanged(powerManager.isDeviceIdleMode());
+        }
         
         // Register battery receiver
         IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
         registerReceiver(batteryReceiver, filter);
+        
+        // Screen state splits discharge into screen-on and screen-off segments
+        IntentFilter screenFilter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        screenFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(screenReceiver, screenFilter);
+        
+        // Doze transitions, for the idle drain profile
+        registerReceiver(idleReceiver, new IntentFilter(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED));
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP.equals(intent.getAction())) {
+            if (foreground) {
+                stopForeground(true);
+                foreground = false;
+                engine.getSnapshots().unsubscribe(notificationRenderer);
+                notificationRenderer.cancel();
+            }
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        
+        if (!foreground) {
+            // Create notification channel for Android 8.0+
+            createNotificationChannel();
+            
+            // Start as foreground service
+            startForeground(NOTIFICATION_ID, createNotification());
+            foreground = true;
+            engine.getSnapshots().subscribe(notificationRenderer, handler);
+        }
+        
         // Check battery status immediately
         IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
         Intent batteryStatus = registerReceiver(null, filter);
         if (batteryStatus != null) {
-            checkBatteryStatus(batteryStatus);
+            engine.onBatteryChanged(batteryStatus, 0);
         }
         
         // Service will restart if killed by system
@@ -69,8 +148,21 @@ public class BatteryMonitorService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        unregister(batteryReceiver);
+        unregister(screenReceiver);
+        unregister(idleReceiver);
+        handler.removeCallbacks(snapshotTick);
+        if (notificationRenderer != null) {
+            engine.getSnapshots().unsubscribe(notificationRenderer);
+            notificationRenderer.cancel();
+        }
+        engine.flush();
+    }
+
+    /** Unregisters one receiver, so a failure does not leave the others registered. */
+    private void unregister(BroadcastReceiver receiver) {
         try {
-            unregisterReceiver(batteryReceiver);
+            unregisterReceiver(receiver);
         } catch (Exception e) {
             // Receiver might not be registered
         }
@@ -79,7 +171,56 @@ public class BatteryMonitorService extends Service {
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return binder;
+    }
+    
+    /**
+     * Delivers the newest snapshot on the handler's thread, now if one exists
+     * and then after each battery event. Deliveries are conflated.
+     */
+    public void addSnapshotListener(SnapshotPublisher.Listener listener, Handler listenerHandler) {
+        engine.getSnapshots().subscribe(listener, listenerHandler);
+        snapshotListeners++;
+        // Keep "time since full charge" moving while someone is watching
+        handler.removeCallbacks(snapshotTick);
+        handler.postDelayed(snapshotTick, SNAPSHOT_TICK_MS);
+        if (!engine.hasState()) {
+            // Bound without being started, as in scheduled mode: take a sample now
+            Intent batteryStatus = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (batteryStatus != null) {
+                engine.onBatteryChanged(batteryStatus, 0);
+            }
+        }
+    }
+    
+    public void removeSnapshotListener(SnapshotPublisher.Listener listener) {
+        engine.getSnapshots().unsubscribe(listener);
+        snapshotListeners = Math.max(0, snapshotListeners - 1);
+    }
+
+    /**
+     * {@code adb shell dumpsys activity service .BatteryMonitorService [export|reset]}
+     * prints the metrics. {@code export} also writes them to files/metrics.txt
+     * and {@code reset} clears them afterwards.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Mode: " + (MonitoringMode.isScheduled(this) ? "scheduled" : "always on"));
+        engine.dump(writer);
+        for (String arg : args) {
+            if ("export".equals(arg)) {
+                File file = new File(getFilesDir(), METRICS_FILENAME);
+                try {
+                    Metrics.export(file);
+                    writer.println("Exported to " + file);
+                } catch (IOException e) {
+                    writer.println("Export failed: " + e);
+                }
+            } else if ("reset".equals(arg)) {
+                Metrics.reset();
+                writer.println("Metrics reset");
+            }
+        }
     }
     
     private void createNotificationChannel() {
@@ -108,49 +249,17 @@ public class BatteryMonitorService extends Service {
             PendingIntent.FLAG_IMMUTABLE
         );
         
-        return new NotificationCompat.Builder(this, CHANNEL_ID)
-            .setContentTitle("HeyBattery")
-            .setContentText("Monitoring battery status")
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
             .setSmallIcon(android.R.drawable.ic_lock_idle_charging)
             .setContentIntent(pendingIntent)
             .setPriority(NotificationCompat.PRIORITY_LOW)
             .setOngoing(true)
-            .build();
-    }
-
-    private void checkBatteryStatus(Intent intent) {
-        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-        float batteryPct = (level / (float) scale) * 100;
-        
-        int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
-        boolean isCharging = status == BatteryManager.BATTERY_STATUS_CHARGING ||
-                           status == BatteryManager.BATTERY_STATUS_FULL;
-        
-        boolean wasFull = prefs.getBoolean(KEY_WAS_FULL, false);
-        
-        // Step 1: Mark that battery reached 100% while charging
-        if (batteryPct >= 99 && isCharging) {
-            prefs.edit().putBoolean(KEY_WAS_FULL, true).apply();
-        }
-        
-        // Step 2: When unplugged after being full, start the timer
-        if (wasFull && !isCharging) {
-            long currentTime = System.currentTimeMillis();
-            long lastFullCharge = prefs.getLong(KEY_LAST_FULL_CHARGE, 0);
-            
-            // Only update if it's been more than 1 hour since last cycle started
-            if (currentTime - lastFullCharge > TimeUnit.HOURS.toMillis(1)) {
-                prefs.edit().putLong(KEY_LAST_FULL_CHARGE, currentTime).apply();
-                prefs.edit().putInt(KEY_CHARGE_START_LEVEL, (int) batteryPct).apply();
-                
-                // Create and save new charge cycle
-                ChargeCycle newCycle = new ChargeCycle(currentTime, (int) batteryPct);
-                dataManager.addChargeCycle(newCycle);
-            }
-            
-            // Reset the flag
-            prefs.edit().putBoolean(KEY_WAS_FULL, false).apply();
-        }
+            .setOnlyAlertOnce(true)
+            .setShowWhen(false);
+        // Live updates reuse this builder and only change its text
+        notificationRenderer = new NotificationRenderer(
+            (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE),
+            NOTIFICATION_ID, builder, handler, NOTIFICATION_MIN_INTERVAL_MS);
+        return notificationRenderer.buildInitial("HeyBattery", "Monitoring battery status");
     }
 }
@@ -0,0 +1,69 @@
+package com.example.batterystats;
+
+import android.content.Context;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Process-wide instances of the stores in the core module, bound to this
+ * app's files directory and the shared {@link BackgroundWriter} thread.
+ */
+public final class BatteryStores {
+    private static final String USAGE_FILENAME = "app_usage.bin";
+
+    private static ChargeCycleRepository cycles;
+    private static RollupStore rollups;
+    private static SampleRing samples;
+    private static UsageIngestor usage;
+    private static BatteryEngine engine;
+
+    private BatteryStores() {
+    }
+
+    public static synchronized ChargeCycleRepository cycles(Context context) {
+        if (cycles == null) {
+            BatteryDataManager storage = new BatteryDataManager(
+                context.getApplicationContext().getFilesDir(), new JsonLegacyCycleReader());
+            cycles = new ChargeCycleRepository(
+                storage, BackgroundWriter.executor(), ChargeCycleRepository.DEFAULT_MAX_CYCLES);
+        }
+        return cycles;
+    }
+
+    public static synchronized RollupStore rollups(Context context) {
+        if (rollups == null) {
+            File file = new File(context.getApplicationContext().getFilesDir(), RollupStore.FILENAME);
+            rollups = new RollupStore(file, BackgroundWriter.executor());
+        }
+        return rollups;
+    }
+
+    /** The shared battery pipeline. Main thread only. */
+    public static synchronized BatteryEngine engine(Context context) {
+        if (engine == null) {
+            engine = new BatteryEngine(context);
+        }
+        return engine;
+    }
+
+    /** The shared battery pipeline if something has already created it, otherwise null. */
+    public static synchronized BatteryEngine existingEngine() {
+        return engine;
+    }
+
+    public static synchronized UsageIngestor usage(Context context) {
+        if (usage == null) {
+            File file = new File(context.getApplicationContext().getFilesDir(), USAGE_FILENAME);
+            usage = new UsageIngestor(new UsageStatsEventSource(context), file);
+        }
+        return usage;
+    }
+
+    public static synchronized SampleRing samples(Context context) throws IOException {
+        if (samples == null) {
+            File file = new File(context.getApplicationContext().getFilesDir(), SampleRing.FILENAME);
+            samples = new SampleRing(file, SampleRing.DEFAULT_CAPACITY);
+        }
+        return samples;
+    }
+}
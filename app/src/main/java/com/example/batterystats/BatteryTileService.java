@@ -0,0 +1,53 @@
+package com.example.batterystats;
+
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.os.Build;
+import android.service.quicksettings.Tile;
+import android.service.quicksettings.TileService;
+import java.io.File;
+
+/**
+ * Quick Settings tile showing the level, the remaining time and when the
+ * battery was last full, rendered from the 64-byte display snapshot. It is an active tile: the system binds
+ * it only when {@link GlanceViews} requests listening because the shown
+ * values changed, and when the panel opens.
+ */
+public class BatteryTileService extends TileService {
+    @Override
+    public void onStartListening() {
+        Tile tile = getQsTile();
+        if (tile == null) {
+            return;
+        }
+        BatterySnapshot snapshot = SnapshotFile.read(
+            new File(getFilesDir(), SnapshotFile.FILENAME), System.currentTimeMillis());
+        if (snapshot == null) {
+            tile.setState(Tile.STATE_UNAVAILABLE);
+            tile.updateTile();
+            return;
+        }
+        // Same wording as the widget's line
+        String sinceFull = GlanceViews.sinceFullText(this, snapshot);
+        tile.setLabel(snapshot.getLevelText());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            tile.setSubtitle(snapshot.getRemainingText());
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            tile.setStateDescription(sinceFull);
+        }
+        tile.setContentDescription(snapshot.getLevelText() + ", " + sinceFull + ", " + snapshot.getRemainingText());
+        tile.setState(snapshot.charging ? Tile.STATE_ACTIVE : Tile.STATE_INACTIVE);
+        tile.updateTile();
+    }
+
+    @Override
+    public void onClick() {
+        Intent intent = new Intent(this, MainActivity.class).addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+            startActivityAndCollapse(PendingIntent.getActivity(this, 0, intent, PendingIntent.FLAG_IMMUTABLE));
+        } else {
+            startActivityAndCollapse(intent);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.batterystats;
+
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.Context;
+import java.io.File;
+
+/**
+ * Home screen widget. The system only asks for a render when a widget is
+ * added or the launcher restarts; everything else is pushed by
+ * {@link GlanceViews}. A render reads the 64-byte display snapshot and
+ * nothing else.
+ */
+public class BatteryWidgetProvider extends AppWidgetProvider {
+    @Override
+    public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        BatterySnapshot snapshot = SnapshotFile.read(
+            new File(context.getFilesDir(), SnapshotFile.FILENAME), System.currentTimeMillis());
+        appWidgetManager.updateAppWidget(appWidgetIds, GlanceViews.buildWidget(
+            context, snapshot, GlanceViews.sinceFullText(context, snapshot)));
+    }
+}
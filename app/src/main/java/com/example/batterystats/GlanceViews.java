@@ -0,0 +1,75 @@
+package com.example.batterystats;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.service.quicksettings.TileService;
+import android.text.format.DateUtils;
+import android.widget.RemoteViews;
+import java.text.DateFormat;
+
+/**
+ * Pushes the latest {@link BatterySnapshot} to the home screen widget and the
+ * Quick Settings tile.
+ *
+ * The engine calls {@link #onSnapshotSaved} right after writing the display
+ * snapshot. Nothing is sent unless the text the widget would show differs
+ * from what it already shows. The widget names the time of the full charge
+ * rather than counting the time since it, so that line only changes once a
+ * cycle and nothing has to tick.
+ *
+ * Called on the writer thread only.
+ */
+public class GlanceViews {
+    private final Context context;
+    private final ComponentName widgetComponent;
+    private final ComponentName tileComponent;
+    private String shownKey;
+
+    public GlanceViews(Context context) {
+        this.context = context.getApplicationContext();
+        widgetComponent = new ComponentName(this.context, BatteryWidgetProvider.class);
+        tileComponent = new ComponentName(this.context, BatteryTileService.class);
+    }
+
+    public void onSnapshotSaved(BatterySnapshot snapshot) {
+        String sinceFull = sinceFullText(context, snapshot);
+        String key = snapshot.getLevelText() + '\n' + sinceFull + '\n' + snapshot.getRemainingText();
+        if (key.equals(shownKey)) {
+            return;
+        }
+        shownKey = key;
+        AppWidgetManager widgets = AppWidgetManager.getInstance(context);
+        int[] ids = widgets.getAppWidgetIds(widgetComponent);
+        if (ids != null && ids.length > 0) {
+            widgets.updateAppWidget(ids, buildWidget(context, snapshot, sinceFull));
+        }
+        // An active tile, so it is only bound on request; it reads the file itself
+        TileService.requestListeningState(context, tileComponent);
+    }
+
+    static RemoteViews buildWidget(Context context, BatterySnapshot snapshot, String sinceFull) {
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_battery);
+        if (snapshot != null) {
+            views.setTextViewText(R.id.widgetLevel, snapshot.charging
+                ? snapshot.getLevelText() + " \u00b7 Charging"
+                : snapshot.getLevelText());
+            views.setTextViewText(R.id.widgetSinceFull, sinceFull);
+            views.setTextViewText(R.id.widgetRemaining, snapshot.getRemainingText());
+        }
+        Intent open = new Intent(context, MainActivity.class);
+        views.setOnClickPendingIntent(R.id.widgetRoot, PendingIntent.getActivity(
+            context, 0, open, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE));
+        return views;
+    }
+
+    static String sinceFullText(Context context, BatterySnapshot snapshot) {
+        if (snapshot == null || snapshot.lastFullCharge <= 0) {
+            return "Waiting for a full charge";
+        }
+        return "Full at " + DateUtils.formatSameDayTime(snapshot.lastFullCharge, snapshot.timestamp,
+            DateFormat.SHORT, DateFormat.SHORT);
+    }
+}
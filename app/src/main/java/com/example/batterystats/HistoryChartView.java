@@ -0,0 +1,245 @@
+package com.example.batterystats;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Battery level over time, with a marker at the start of every cycle.
+ * Opens on the current cycle; pinch to zoom, drag to pan back through past
+ * cycles, double tap to return.
+ *
+ * The data is a {@link LevelHistory} built off the main thread. A frame
+ * picks the pyramid level with about a point per pixel for the visible span
+ * and draws it through a reused {@link Path} and reused coordinate arrays,
+ * so {@code onDraw} neither downsamples nor allocates.
+ */
+public class HistoryChartView extends View {
+    private static final long MIN_SPAN_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long DEFAULT_SPAN_MS = TimeUnit.DAYS.toMillis(1);
+    private static final int[] GRID_LEVELS = {25, 50, 75};
+
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint gridPaint = new Paint();
+    private final Paint markerPaint = new Paint();
+    private final Path path = new Path();
+    private final float[] gridLines = new float[GRID_LEVELS.length * 4];
+    private float[] markerLines = new float[0];
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+
+    private LevelHistory history;
+    private long currentCycleStart;
+    private long viewStart;
+    private long viewEnd;
+
+    public HistoryChartView(Context context) {
+        this(context, null);
+    }
+
+    public HistoryChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = getResources().getDisplayMetrics().density;
+        int color = getResources().getColor(R.color.text_color, context.getTheme());
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(2 * density);
+        linePaint.setStrokeJoin(Paint.Join.ROUND);
+        linePaint.setColor(color);
+        gridPaint.setStrokeWidth(density);
+        gridPaint.setColor(color);
+        gridPaint.setAlpha(40);
+        markerPaint.setStrokeWidth(density);
+        markerPaint.setColor(color);
+        markerPaint.setAlpha(100);
+
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoom(detector.getScaleFactor(), detector.getFocusX());
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                if (Math.abs(distanceX) > Math.abs(distanceY)) {
+                    // Keep the enclosing ScrollView from taking over a horizontal drag
+                    getParent().requestDisallowInterceptTouchEvent(true);
+                }
+                pan(distanceX);
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                showCurrentCycle();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Replaces the data. A view that was showing the newest samples keeps
+     * following them; otherwise the visible span stays where it was.
+     */
+    public void setHistory(LevelHistory history, long currentCycleStart) {
+        LevelHistory previous = this.history;
+        this.history = history;
+        this.currentCycleStart = currentCycleStart;
+        if (history == null) {
+            invalidate();
+            return;
+        }
+        if (markerLines.length < history.getCycleStarts().length * 4) {
+            markerLines = new float[history.getCycleStarts().length * 4];
+        }
+        if (previous == null) {
+            showCurrentCycle();
+        } else {
+            if (viewEnd >= previous.getEnd()) {
+                long span = viewEnd - viewStart;
+                viewEnd = history.getEnd();
+                viewStart = viewEnd - span;
+            }
+            clampView(viewEnd - viewStart);
+            invalidate();
+        }
+    }
+
+    private void showCurrentCycle() {
+        if (history == null) {
+            return;
+        }
+        viewEnd = history.getEnd();
+        viewStart = currentCycleStart > 0 && currentCycleStart < viewEnd - MIN_SPAN_MS
+            ? currentCycleStart : viewEnd - DEFAULT_SPAN_MS;
+        clampView(viewEnd - viewStart);
+        invalidate();
+    }
+
+    private void zoom(float factor, float focusX) {
+        if (history == null || factor <= 0) {
+            return;
+        }
+        float width = getChartWidth();
+        long span = viewEnd - viewStart;
+        double focusFraction = Math.max(0, Math.min(1, (focusX - getPaddingLeft()) / width));
+        long focusTime = viewStart + (long) (focusFraction * span);
+        long newSpan = (long) (span / factor);
+        viewStart = focusTime - (long) (focusFraction * newSpan);
+        viewEnd = viewStart + newSpan;
+        clampView(newSpan);
+        invalidate();
+    }
+
+    private void pan(float distanceX) {
+        if (history == null) {
+            return;
+        }
+        long span = viewEnd - viewStart;
+        long shift = (long) (distanceX / getChartWidth() * span);
+        viewStart += shift;
+        viewEnd += shift;
+        clampView(span);
+        invalidate();
+    }
+
+    /** Keeps the span between an hour and all the data, and inside the data. */
+    private void clampView(long span) {
+        long start = history.getStart();
+        long end = history.getEnd();
+        span = Math.max(Math.min(MIN_SPAN_MS, end - start), Math.min(span, end - start));
+        if (viewStart < start) {
+            viewStart = start;
+        }
+        if (viewStart + span > end) {
+            viewStart = end - span;
+        }
+        viewEnd = viewStart + span;
+    }
+
+    private float getChartWidth() {
+        return Math.max(1, getWidth() - getPaddingLeft() - getPaddingRight());
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        scaleDetector.onTouchEvent(event);
+        gestureDetector.onTouchEvent(event);
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        float left = getPaddingLeft();
+        float right = getWidth() - getPaddingRight();
+        float top = getPaddingTop();
+        float bottom = getHeight() - getPaddingBottom();
+        float height = bottom - top;
+
+        for (int i = 0; i < GRID_LEVELS.length; i++) {
+            float y = bottom - GRID_LEVELS[i] / 100f * height;
+            gridLines[i * 4] = left;
+            gridLines[i * 4 + 1] = y;
+            gridLines[i * 4 + 2] = right;
+            gridLines[i * 4 + 3] = y;
+        }
+        canvas.drawLines(gridLines, 0, gridLines.length, gridPaint);
+
+        LevelHistory history = this.history;
+        if (history == null || viewEnd <= viewStart) {
+            return;
+        }
+        float width = right - left;
+        float scaleX = width / (viewEnd - viewStart);
+
+        long[] starts = history.getCycleStarts();
+        int marker = LevelHistory.lowerBound(starts, starts.length, viewStart);
+        int markerEnd = LevelHistory.lowerBound(starts, starts.length, viewEnd + 1);
+        int markerFloats = 0;
+        for (; marker < markerEnd; marker++) {
+            float x = left + (starts[marker] - viewStart) * scaleX;
+            markerLines[markerFloats++] = x;
+            markerLines[markerFloats++] = top;
+            markerLines[markerFloats++] = x;
+            markerLines[markerFloats++] = bottom;
+        }
+        if (markerFloats > 0) {
+            canvas.drawLines(markerLines, 0, markerFloats, markerPaint);
+        }
+
+        int lod = history.levelFor(viewStart, viewEnd, (int) width);
+        long[] times = history.times(lod);
+        float[] levels = history.levels(lod);
+        int size = history.size(lod);
+        // One point beyond each edge so the line runs to the border
+        int from = Math.max(0, LevelHistory.lowerBound(times, size, viewStart) - 1);
+        int to = Math.min(size, LevelHistory.lowerBound(times, size, viewEnd) + 1);
+        if (to - from < 2) {
+            return;
+        }
+        path.rewind();
+        for (int i = from; i < to; i++) {
+            float x = left + (times[i] - viewStart) * scaleX;
+            float y = bottom - levels[i] / 100f * height;
+            if (i == from) {
+                path.moveTo(x, y);
+            } else {
+                path.lineTo(x, y);
+            }
+        }
+        canvas.drawPath(path, linePaint);
+    }
+}
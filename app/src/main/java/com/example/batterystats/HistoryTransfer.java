@@ -0,0 +1,194 @@
+package com.example.batterystats;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+
+/**
+ * Exports the cycle history to, and imports it from, a document the user
+ * picked through the Storage Access Framework, as CSV or JSON.
+ *
+ * Both directions stream one record at a time through a buffered channel
+ * on the document's file descriptor. An import runs on the writer thread in
+ * chunks and checkpoints after each, so an interrupted import of the same
+ * document resumes where it stopped; cycles already present are skipped.
+ */
+public final class HistoryTransfer {
+    public static final String MIME_CSV = "text/csv";
+    public static final String MIME_JSON = "application/json";
+
+    private static final String PREFS_NAME = "BatteryStats";
+    private static final String KEY_IMPORT_URI = "import_uri";
+    private static final String KEY_IMPORT_RECORDS = "import_records";
+    private static final int IMPORT_CHUNK = 256;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Receives a message for the user on the main thread. */
+    public interface Callback {
+        void onDone(String message);
+    }
+
+    private HistoryTransfer() {
+    }
+
+    public static void export(Context context, Uri uri, boolean json, Callback callback) {
+        final Context app = context.getApplicationContext();
+        final Handler main = new Handler(Looper.getMainLooper());
+        BackgroundWriter.executor().execute(() -> {
+            String message;
+            try {
+                int count = writeDocument(app, uri, json);
+                message = "Exported " + count + (count == 1 ? " cycle" : " cycles");
+            } catch (IOException e) {
+                e.printStackTrace();
+                message = "Export failed: " + e.getMessage();
+            }
+            final String result = message;
+            main.post(() -> callback.onDone(result));
+        });
+    }
+
+    public static void startImport(Context context, Uri uri, Callback callback) {
+        final Context app = context.getApplicationContext();
+        BackgroundWriter.executor().execute(() -> {
+            SharedPreferences prefs = app.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            long resumeAfter = uri.toString().equals(prefs.getString(KEY_IMPORT_URI, null))
+                ? prefs.getLong(KEY_IMPORT_RECORDS, 0) : 0;
+            ImportTask task = new ImportTask(app, uri, resumeAfter, callback);
+            task.open();
+            task.run();
+        });
+    }
+
+    private static int writeDocument(Context context, Uri uri, boolean json) throws IOException {
+        ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, "wt");
+        if (descriptor == null) {
+            throw new IOException("Unable to open " + uri);
+        }
+        try {
+            FileOutputStream stream = new FileOutputStream(descriptor.getFileDescriptor());
+            Writer out = new BufferedWriter(Channels.newWriter(stream.getChannel(), "UTF-8"), BUFFER_SIZE);
+            try {
+                CycleSink sink = json ? new JsonCycleFormat.Sink(out) : new CsvCycleFormat.Sink(out);
+                int count = 0;
+                for (ChargeCycle cycle : BatteryStores.cycles(context).getCycles()) {
+                    sink.write(cycle);
+                    count++;
+                }
+                sink.finish();
+                return count;
+            } finally {
+                out.close();
+            }
+        } finally {
+            descriptor.close();
+        }
+    }
+
+    /** One import, advanced a chunk per run on the writer thread. */
+    private static final class ImportTask implements Runnable {
+        private final Context context;
+        private final Uri uri;
+        private final long resumeAfter;
+        private final Callback callback;
+        private final Handler main = new Handler(Looper.getMainLooper());
+
+        private ParcelFileDescriptor descriptor;
+        private BufferedReader in;
+        private CycleImport cycleImport;
+
+        ImportTask(Context context, Uri uri, long resumeAfter, Callback callback) {
+            this.context = context;
+            this.uri = uri;
+            this.resumeAfter = resumeAfter;
+            this.callback = callback;
+        }
+
+        void open() {
+            try {
+                descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+                if (descriptor == null) {
+                    throw new IOException("Unable to open " + uri);
+                }
+                FileInputStream stream = new FileInputStream(descriptor.getFileDescriptor());
+                in = new BufferedReader(Channels.newReader(stream.getChannel(), "UTF-8"), BUFFER_SIZE);
+                cycleImport = new CycleImport(BatteryStores.cycles(context), openSource(in), resumeAfter);
+            } catch (IOException e) {
+                e.printStackTrace();
+                finish("Import failed: " + e.getMessage());
+            }
+        }
+
+        /** Tells the formats apart by the first character: a JSON export is an array. */
+        private static CycleSource openSource(BufferedReader in) throws IOException {
+            int c;
+            do {
+                in.mark(1);
+                c = in.read();
+            } while (c != -1 && Character.isWhitespace(c));
+            in.reset();
+            return c == '[' ? new JsonCycleFormat.Source(in) : new CsvCycleFormat.Source(in);
+        }
+
+        @Override
+        public void run() {
+            if (cycleImport == null) {
+                return;
+            }
+            try {
+                boolean more = cycleImport.step(IMPORT_CHUNK);
+                checkpoint();
+                if (more) {
+                    // Let other writes in between chunks
+                    BackgroundWriter.executor().execute(this);
+                    return;
+                }
+                clearCheckpoint();
+                finish("Imported " + cycleImport.getImported() + " cycles, skipped " + cycleImport.getSkipped());
+            } catch (IOException e) {
+                e.printStackTrace();
+                finish("Import stopped after " + cycleImport.getRecordsRead()
+                    + " records: " + e.getMessage() + ". Import the same file again to resume.");
+            }
+        }
+
+        private void checkpoint() {
+            context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(KEY_IMPORT_URI, uri.toString())
+                .putLong(KEY_IMPORT_RECORDS, cycleImport.getRecordsRead())
+                .apply();
+        }
+
+        private void clearCheckpoint() {
+            context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .remove(KEY_IMPORT_URI)
+                .remove(KEY_IMPORT_RECORDS)
+                .apply();
+        }
+
+        private void finish(String message) {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+                if (descriptor != null) {
+                    descriptor.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            cycleImport = null;
+            main.post(() -> callback.onDone(message));
+        }
+    }
+}
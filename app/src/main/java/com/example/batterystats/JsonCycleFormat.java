@@ -0,0 +1,116 @@
+package com.example.batterystats;
+
+import android.util.JsonReader;
+import android.util.JsonWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Cycles as a JSON array of objects, the layout of the old
+ * {@code charge_cycles.json}:
+ *
+ * <pre>
+ *   [{"fullChargeTimestamp":1700000000000,"startLevel":100,"durationMillis":52200000,"endLevel":35}]
+ * </pre>
+ *
+ * Both directions stream one object at a time through the platform's
+ * {@link JsonReader} and {@link JsonWriter}, so memory does not grow with
+ * the document. Unknown fields are skipped.
+ */
+public final class JsonCycleFormat {
+    private static final String FULL_CHARGE_TIMESTAMP = "fullChargeTimestamp";
+    private static final String START_LEVEL = "startLevel";
+    private static final String DURATION_MILLIS = "durationMillis";
+    private static final String END_LEVEL = "endLevel";
+
+    private JsonCycleFormat() {
+    }
+
+    public static final class Sink implements CycleSink {
+        private final JsonWriter out;
+        private boolean started;
+
+        public Sink(Writer out) {
+            this.out = new JsonWriter(out);
+        }
+
+        @Override
+        public void write(ChargeCycle cycle) throws IOException {
+            if (!started) {
+                out.beginArray();
+                started = true;
+            }
+            out.beginObject();
+            out.name(FULL_CHARGE_TIMESTAMP).value(cycle.fullChargeTimestamp);
+            out.name(START_LEVEL).value(cycle.startLevel);
+            out.name(DURATION_MILLIS).value(cycle.durationMillis);
+            out.name(END_LEVEL).value(cycle.endLevel);
+            out.endObject();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (!started) {
+                out.beginArray();
+                started = true;
+            }
+            out.endArray();
+            out.flush();
+        }
+    }
+
+    public static final class Source implements CycleSource {
+        private final JsonReader in;
+        private boolean started;
+        private boolean ended;
+
+        public Source(Reader in) {
+            this.in = new JsonReader(in);
+        }
+
+        @Override
+        public ChargeCycle next() throws IOException {
+            if (ended) {
+                return null;
+            }
+            try {
+                if (!started) {
+                    in.beginArray();
+                    started = true;
+                }
+                if (!in.hasNext()) {
+                    in.endArray();
+                    ended = true;
+                    return null;
+                }
+                ChargeCycle cycle = new ChargeCycle();
+                in.beginObject();
+                while (in.hasNext()) {
+                    switch (in.nextName()) {
+                        case FULL_CHARGE_TIMESTAMP:
+                            cycle.fullChargeTimestamp = in.nextLong();
+                            break;
+                        case START_LEVEL:
+                            cycle.startLevel = in.nextInt();
+                            break;
+                        case DURATION_MILLIS:
+                            cycle.durationMillis = in.nextLong();
+                            break;
+                        case END_LEVEL:
+                            cycle.endLevel = in.nextInt();
+                            break;
+                        default:
+                            in.skipValue();
+                            break;
+                    }
+                }
+                in.endObject();
+                return cycle;
+            } catch (IllegalStateException | NumberFormatException e) {
+                // JsonReader reports unexpected tokens as runtime exceptions
+                throw new IOException("Not a cycle array: " + e.getMessage(), e);
+            }
+        }
+    }
+}
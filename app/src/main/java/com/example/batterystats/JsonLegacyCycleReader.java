@@ -0,0 +1,40 @@
+package com.example.batterystats;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the old {@code charge_cycles.json}, whose layout is the one
+ * {@link JsonCycleFormat} exports.
+ */
+public class JsonLegacyCycleReader implements LegacyCycleReader {
+
+    /**
+     * Streams the old JSON array one element at a time, so memory holds the
+     * cycles rather than the file, and a file cut off by a crash still
+     * yields every cycle written before the damage.
+     */
+    @Override
+    public List<ChargeCycle> read(File file) throws IOException {
+        List<ChargeCycle> cycles = new ArrayList<>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            CycleSource source = new JsonCycleFormat.Source(in);
+            ChargeCycle cycle;
+            while ((cycle = source.next()) != null) {
+                CycleJournal.upsert(cycles, cycle);
+            }
+        } catch (IOException e) {
+            // Damaged tail, keep everything parsed so far
+            e.printStackTrace();
+        } finally {
+            in.close();
+        }
+        return cycles;
+    }
+}
@@ -1,21 +1,39 @@
 package com.example.batterystats;
 
+import android.Manifest;
 import android.app.AppOpsManager;
-import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
 import android.net.Uri;
-import android.os.BatteryManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
 import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.provider.Settings;
+import android.text.InputType;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -24,6 +42,15 @@ public class MainActivity extends AppCompatActivity {
     private TextView remainingTime;
     private TextView batteryHealth;
     private TextView greetingText;
+    private HistoryChartView historyChart;
+    
+    // What each view shows, so a redraw only touches views whose text changed
+    private final SnapshotText snapshotText = new SnapshotText();
+    private final TextView[] snapshotViews = new TextView[4];
+    // setText(char[], ...) keeps the array rather than copying it. That is safe here: the array is
+    // only rewritten inside a later render, which sets it on the same view again before the next draw
+    private final SnapshotText.Views snapshotViewSetter =
+        (line, text, length) -> snapshotViews[line].setText(text, 0, length);
     
     // Easter egg variables
     private int tapCount = 0;
@@ -32,19 +59,51 @@ public class MainActivity extends AppCompatActivity {
     private static final long TAP_TIMEOUT = 2000; // 2 seconds
     
     private SharedPreferences prefs;
-    private BatteryDataManager dataManager;
     private static final String PREFS_NAME = "BatteryStats";
-    private static final String KEY_LAST_FULL_CHARGE = "last_full_charge";
-    private static final String KEY_CHARGE_START_LEVEL = "charge_start_level";
     private static final String KEY_ASKED_BATTERY_OPT = "asked_battery_opt";
     private static final String KEY_ASKED_USAGE_STATS = "asked_usage_stats";
     private static final int REQUEST_BATTERY_OPTIMIZATION = 1001;
     private static final int REQUEST_USAGE_STATS = 1002;
+    private static final int REQUEST_EXPORT_CSV = 1003;
+    private static final int REQUEST_EXPORT_JSON = 1004;
+    private static final int REQUEST_IMPORT = 1005;
+    private static final int REQUEST_POST_NOTIFICATIONS = 1006;
     
-    private BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+    private BatteryMonitorService monitorService;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final SnapshotPublisher.Listener snapshotListener = this::renderLive;
+    private boolean firstFrameDrawn;
+    private boolean started;
+    private boolean bound;
+    private boolean reportedFullyDrawn;
+    // The chart is rebuilt from the sample ring off the main thread, once per delay while started
+    private static final long CHART_RELOAD_DELAY_MS = TimeUnit.SECONDS.toMillis(10);
+    // Chart loads get their own low-priority thread so they never delay a save on the writer thread
+    private static final ExecutorService CHART_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "HeyBattery-chart");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private ChartLoader chartLoader;
+    private final Runnable chartTick = new Runnable() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            updateBatteryInfo(intent);
+        public void run() {
+            chartLoader.request();
+            handler.postDelayed(this, CHART_RELOAD_DELAY_MS);
+        }
+    };
+    
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            monitorService = ((BatteryMonitorService.LocalBinder) service).getService();
+            monitorService.addSnapshotListener(snapshotListener, handler);
+        }
+        
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            monitorService = null;
         }
     };
 
@@ -64,44 +123,120 @@ public class MainActivity extends AppCompatActivity {
         remainingTime = findViewById(R.id.remainingTime);
         batteryHealth = findViewById(R.id.batteryHealth);
         greetingText = findViewById(R.id.greetingText);
-        
-        dataManager = new BatteryDataManager(this);
+        historyChart = findViewById(R.id.historyChart);
+        snapshotViews[SnapshotText.LEVEL] = batteryPercentage;
+        snapshotViews[SnapshotText.SINCE_FULL] = timeSinceCharge;
+        snapshotViews[SnapshotText.REMAINING] = remainingTime;
+        snapshotViews[SnapshotText.HEALTH] = batteryHealth;
+        chartLoader = new ChartLoader(this, handler);
         
         // Set up easter egg tap listener
         greetingText.setOnClickListener(v -> handleGreetingTap());
+        greetingText.setOnLongClickListener(v -> {
+            showMonitoringModeDialog();
+            return true;
+        });
+        timeSinceCharge.setOnLongClickListener(v -> {
+            showHistoryTransferDialog();
+            return true;
+        });
+        batteryPercentage.setOnLongClickListener(v -> {
+            showAlertRulesDialog();
+            return true;
+        });
+        findViewById(R.id.monitoringButton).setOnClickListener(v -> showMonitoringModeDialog());
+        findViewById(R.id.historyButton).setOnClickListener(v -> showHistoryTransferDialog());
+        findViewById(R.id.alertsButton).setOnClickListener(v -> showAlertRulesDialog());
+        
+        // Draw the first frame from the last saved snapshot; its size does not depend on the history
+        BatterySnapshot saved = SnapshotFile.read(
+            new File(getFilesDir(), SnapshotFile.FILENAME), System.currentTimeMillis());
+        if (saved != null) {
+            render(saved);
+        }
         
+        // Everything else waits until that frame is on screen
+        final View content = findViewById(android.R.id.content);
+        content.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            @Override
+            public void onDraw() {
+                if (firstFrameDrawn) {
+                    return;
+                }
+                firstFrameDrawn = true;
+                Metrics.record(Metrics.TIMER_FIRST_FRAME, sinceProcessStartNanos());
+                final ViewTreeObserver.OnDrawListener listener = this;
+                // Listeners cannot be removed from inside onDraw
+                handler.post(() -> {
+                    content.getViewTreeObserver().removeOnDrawListener(listener);
+                    onFirstFrameDrawn();
+                });
+            }
+        });
+    }
+    
+    @Override
+    protected void onStart() {
+        super.onStart();
+        started = true;
+        if (firstFrameDrawn) {
+            bindMonitorService();
+            startChartReloads();
+        }
+    }
+    
+    @Override
+    protected void onStop() {
+        super.onStop();
+        started = false;
+        handler.removeCallbacks(chartTick);
+        if (monitorService != null) {
+            monitorService.removeSnapshotListener(snapshotListener);
+            monitorService = null;
+        }
+        if (bound) {
+            unbindService(serviceConnection);
+            bound = false;
+        }
+    }
+    
+    private void onFirstFrameDrawn() {
+        if (isFinishing()) {
+            return;
+        }
         // Start the background battery monitoring service
         startBatteryMonitorService();
         
         // Check and request permissions
         checkPermissions();
         
-        // Register battery receiver
-        IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
-        registerReceiver(batteryReceiver, filter);
-        
-        // Initial update
-        Intent batteryStatus = registerReceiver(null, filter);
-        if (batteryStatus != null) {
-            updateBatteryInfo(batteryStatus);
+        if (started) {
+            bindMonitorService();
+            startChartReloads();
         }
     }
+
+    /** Loads the chart now and then every delay, until onStop. */
+    private void startChartReloads() {
+        handler.removeCallbacks(chartTick);
+        chartTick.run();
+    }
     
-    private void startBatteryMonitorService() {
-        Intent serviceIntent = new Intent(this, BatteryMonitorService.class);
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
-            startForegroundService(serviceIntent);
-        } else {
-            startService(serviceIntent);
+    private void bindMonitorService() {
+        // The service pushes precomputed snapshots while we are visible
+        if (!bound) {
+            bound = bindService(new Intent(this, BatteryMonitorService.class), serviceConnection, Context.BIND_AUTO_CREATE);
         }
     }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        unregisterReceiver(batteryReceiver);
+    
+    private static long sinceProcessStartNanos() {
+        return (SystemClock.uptimeMillis() - Process.getStartUptimeMillis()) * 1_000_000L;
     }
     
+    private void startBatteryMonitorService() {
+        MonitoringMode.start(this);
+    }
+
     private void checkPermissions() {
         // First check battery optimization
         PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
@@ -202,6 +337,14 @@ public class MainActivity extends AppCompatActivity {
             }
             // After battery opt, check usage stats
             checkUsageStatsPermission();
+        } else if (requestCode == REQUEST_EXPORT_CSV || requestCode == REQUEST_EXPORT_JSON) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                HistoryTransfer.export(this, data.getData(), requestCode == REQUEST_EXPORT_JSON, this::showTransferResult);
+            }
+        } else if (requestCode == REQUEST_IMPORT) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                HistoryTransfer.startImport(this, data.getData(), this::showTransferResult);
+            }
         } else if (requestCode == REQUEST_USAGE_STATS) {
             if (hasUsageStatsPermission()) {
                 Toast.makeText(this, "Usage statistics access granted!", Toast.LENGTH_SHORT).show();
@@ -211,116 +354,74 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private void updateBatteryInfo(Intent intent) {
-        // Get battery level
-        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-        float batteryPct = (level / (float) scale) * 100;
-        
-        // Update battery percentage
-        batteryPercentage.setText(String.format("%.0f%%", batteryPct));
-        
-        // Update time since last full charge
-        long lastFullCharge = prefs.getLong(KEY_LAST_FULL_CHARGE, 0);
-        if (lastFullCharge > 0) {
-            long timeDiff = System.currentTimeMillis() - lastFullCharge;
-            String timeString = formatTimeDuration(timeDiff);
-            timeSinceCharge.setText(timeString);
-            
-            // Update current cycle data
-            dataManager.updateCurrentCycle(System.currentTimeMillis(), (int) batteryPct);
-        } else {
-            timeSinceCharge.setText("No data yet");
-        }
-        
-        // Calculate and update remaining time estimate using average drain rate
-        if (lastFullCharge > 0 && batteryPct < 100) {
-            double avgDrainRate = dataManager.getAverageDrainRate();
-            
-            if (avgDrainRate > 0) {
-                double hoursRemaining = batteryPct / avgDrainRate;
-                long millisRemaining = (long) (hoursRemaining * 3600000);
-                String remainingString = formatTimeDuration(millisRemaining);
-                remainingTime.setText(remainingString);
-            } else {
-                // Fallback to current cycle calculation if no historical data
-                long timeDiff = System.currentTimeMillis() - lastFullCharge;
-                int startLevel = prefs.getInt(KEY_CHARGE_START_LEVEL, 100);
-                float percentUsed = startLevel - batteryPct;
-                
-                if (percentUsed > 0 && timeDiff > 0) {
-                    double drainRatePerHour = (percentUsed / (timeDiff / 3600000.0));
-                    
-                    if (drainRatePerHour > 0) {
-                        double hoursRemaining = batteryPct / drainRatePerHour;
-                        long millisRemaining = (long) (hoursRemaining * 3600000);
-                        String remainingString = formatTimeDuration(millisRemaining);
-                        remainingTime.setText(remainingString);
-                    } else {
-                        remainingTime.setText("Calculating...");
-                    }
-                } else {
-                    remainingTime.setText("Calculating...");
-                }
-            }
-        } else {
-            remainingTime.setText("Not available");
+    private void renderLive(BatterySnapshot snapshot) {
+        render(snapshot);
+        if (!reportedFullyDrawn) {
+            // The service's numbers, computed from the full history, are on screen
+            reportedFullyDrawn = true;
+            reportFullyDrawn();
+            Metrics.record(Metrics.TIMER_FULLY_DRAWN, sinceProcessStartNanos());
         }
-        
-        // Update battery health
-        int health = intent.getIntExtra(BatteryManager.EXTRA_HEALTH, -1);
-        String healthString = getBatteryHealthString(health);
-        batteryHealth.setText(healthString + ".");
+    }
+
+    private void render(BatterySnapshot snapshot) {
+        long start = Metrics.start();
+        snapshotText.render(snapshot, snapshotViewSetter);
+        Metrics.stop(Metrics.TIMER_UI_UPDATE, start);
     }
     
-    private String formatTimeDuration(long millis) {
-        long hours = TimeUnit.MILLISECONDS.toHours(millis);
-        long minutes = TimeUnit.MILLISECONDS.toMinutes(millis) % 60;
-        
-        // If less than 1 hour, show only minutes
-        if (hours == 0) {
-            if (minutes == 1) {
-                return "1 minute";
-            } else {
-                return String.format("%d minutes", minutes);
-            }
+    /**
+     * Reads the sample ring into a chart history if it has grown. Runs on the
+     * chart thread, so it holds the activity only weakly and reads the
+     * stores through the application context.
+     */
+    private static final class ChartLoader implements Runnable {
+        private final Context context;
+        private final Handler handler;
+        private final WeakReference<MainActivity> activity;
+        private final AtomicBoolean queued = new AtomicBoolean();
+        private long sampleCount = -1;
+
+        ChartLoader(MainActivity activity, Handler handler) {
+            this.context = activity.getApplicationContext();
+            this.handler = handler;
+            this.activity = new WeakReference<>(activity);
         }
-        // If 1 hour or more, show hours and minutes
-        else {
-            if (minutes == 0) {
-                // Exactly X hours
-                if (hours == 1) {
-                    return "1 hour";
-                } else {
-                    return String.format("%d hours", hours);
-                }
-            } else {
-                // X hours and Y minutes
-                String hourPart = (hours == 1) ? "1 hour" : String.format("%d hours", hours);
-                String minutePart = (minutes == 1) ? "1 minute" : String.format("%d minutes", minutes);
-                return String.format("%s and %s", hourPart, minutePart);
+
+        // A slow load must not let ticks pile up behind it
+        void request() {
+            if (queued.compareAndSet(false, true)) {
+                CHART_EXECUTOR.execute(this);
             }
         }
-    }
-    
-    private String getBatteryHealthString(int health) {
-        switch (health) {
-            case BatteryManager.BATTERY_HEALTH_GOOD:
-                return "Good";
-            case BatteryManager.BATTERY_HEALTH_OVERHEAT:
-                return "Overheating";
-            case BatteryManager.BATTERY_HEALTH_DEAD:
-                return "Dead";
-            case BatteryManager.BATTERY_HEALTH_OVER_VOLTAGE:
-                return "Over Voltage";
-            case BatteryManager.BATTERY_HEALTH_COLD:
-                return "Cold";
-            case BatteryManager.BATTERY_HEALTH_UNSPECIFIED_FAILURE:
-                return "Unspecified Failure";
-            case BatteryManager.BATTERY_HEALTH_UNKNOWN:
-                return "Unknown";
-            default:
-                return "Unknown (" + health + ")";
+
+        @Override
+        public void run() {
+            queued.set(false);
+            if (activity.get() == null) {
+                return;
+            }
+            SampleRing ring;
+            try {
+                ring = BatteryStores.samples(context);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            long count = ring.getTotalCount();
+            if (count == sampleCount) {
+                return;
+            }
+            sampleCount = count;
+            CycleSnapshot cycles = BatteryStores.cycles(context).getCycles();
+            final long currentCycleStart = cycles.isEmpty() ? 0 : cycles.get(cycles.size() - 1).fullChargeTimestamp;
+            final LevelHistory history = LevelHistory.load(ring, cycles);
+            handler.post(() -> {
+                MainActivity shown = activity.get();
+                if (shown != null && !shown.isDestroyed()) {
+                    shown.historyChart.setHistory(history, currentCycleStart);
+                }
+            });
         }
     }
     
@@ -343,6 +444,102 @@ public class MainActivity extends AppCompatActivity {
         }
     }
     
+    private void showMonitoringModeDialog() {
+        final String[] modes = {"Always on (foreground service)", "Battery saver (scheduled sampling)"};
+        int current = MonitoringMode.isScheduled(this) ? 1 : 0;
+        
+        new AlertDialog.Builder(this)
+            .setTitle("Monitoring Mode")
+            .setSingleChoiceItems(modes, current, (dialog, which) -> {
+                MonitoringMode.set(this, which == 1);
+                dialog.dismiss();
+                Toast.makeText(this, "Monitoring: " + modes[which], Toast.LENGTH_SHORT).show();
+            })
+            .setNegativeButton("Cancel", null)
+            .show();
+    }
+    
+    private void showHistoryTransferDialog() {
+        final String[] actions = {"Export as CSV", "Export as JSON", "Import"};
+        
+        new AlertDialog.Builder(this)
+            .setTitle("Cycle History")
+            .setItems(actions, (dialog, which) -> {
+                Intent intent;
+                if (which == 2) {
+                    intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                    intent.setType("*/*");
+                    intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[] {
+                        HistoryTransfer.MIME_CSV, "text/comma-separated-values", HistoryTransfer.MIME_JSON, "text/plain"});
+                } else {
+                    boolean json = which == 1;
+                    intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                    intent.setType(json ? HistoryTransfer.MIME_JSON : HistoryTransfer.MIME_CSV);
+                    intent.putExtra(Intent.EXTRA_TITLE, json ? "heybattery-cycles.json" : "heybattery-cycles.csv");
+                }
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                try {
+                    startActivityForResult(intent, which == 2 ? REQUEST_IMPORT
+                        : which == 1 ? REQUEST_EXPORT_JSON : REQUEST_EXPORT_CSV);
+                } catch (Exception e) {
+                    Toast.makeText(this, "Unable to open the document picker", Toast.LENGTH_SHORT).show();
+                }
+            })
+            .setNegativeButton("Cancel", null)
+            .show();
+    }
+    
+    private void showAlertRulesDialog() {
+        final EditText input = new EditText(this);
+        input.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE
+            | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+        input.setGravity(Gravity.TOP | Gravity.START);
+        input.setMinLines(4);
+        input.setHint("level above 80 when charging\ntemperature above 42 hysteresis 2\ndrain above 15 over 30m\nvoltage below 3.5");
+        input.setText(AlertNotifier.getRules(this));
+        
+        new AlertDialog.Builder(this)
+            .setTitle("Alert Rules")
+            .setMessage("One rule per line: level, temperature, voltage or drain, above or below a value, "
+                + "optionally with hysteresis, a drain window and when charging or discharging.")
+            .setView(input)
+            .setPositiveButton("Save", (dialog, which) -> {
+                String rules = input.getText().toString();
+                int count;
+                try {
+                    count = AlertRule.parseAll(rules).size();
+                } catch (IllegalArgumentException e) {
+                    Toast.makeText(this, "Not saved. " + e.getMessage(), Toast.LENGTH_LONG).show();
+                    return;
+                }
+                AlertNotifier.setRules(this, rules);
+                // Creating the engine here would load its state files on the main thread,
+                // and an engine created later reads the saved rules itself
+                BatteryEngine engine = BatteryStores.existingEngine();
+                if (engine != null) {
+                    engine.reloadAlertRules();
+                }
+                Toast.makeText(this, count == 1 ? "1 alert rule active" : count + " alert rules active",
+                    Toast.LENGTH_SHORT).show();
+                if (count > 0) {
+                    requestNotificationPermission();
+                }
+            })
+            .setNegativeButton("Cancel", null)
+            .show();
+    }
+    
+    private void requestNotificationPermission() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && checkSelfPermission(Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+            requestPermissions(new String[] {Manifest.permission.POST_NOTIFICATIONS}, REQUEST_POST_NOTIFICATIONS);
+        }
+    }
+    
+    private void showTransferResult(String message) {
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+    
     private void showThemeSelectionDialog() {
         final String[] themes = {"System Default", "Light", "Dark"};
         int currentTheme = prefs.getInt("theme_preference", 0); // 0=System, 1=Light, 2=Dark
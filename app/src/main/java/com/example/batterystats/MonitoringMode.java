@@ -0,0 +1,55 @@
+package com.example.batterystats;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+/**
+ * Which way the battery is observed. Always-on runs {@link BatteryMonitorService}
+ * in the foreground and sees every broadcast. Scheduled drops the service
+ * and samples from {@link SamplingJobService} jobs instead, trading a little
+ * timing precision for no resident process and no permanent notification.
+ */
+public final class MonitoringMode {
+    private static final String PREFS_NAME = "BatteryStats";
+    private static final String KEY_SCHEDULED = "monitoring_scheduled";
+
+    private MonitoringMode() {
+    }
+
+    public static boolean isScheduled(Context context) {
+        return prefs(context).getBoolean(KEY_SCHEDULED, false);
+    }
+
+    /** Stores the mode and switches the running monitoring over to it. */
+    public static void set(Context context, boolean scheduled) {
+        prefs(context).edit().putBoolean(KEY_SCHEDULED, scheduled).apply();
+        if (scheduled) {
+            Intent stop = new Intent(context, BatteryMonitorService.class)
+                .setAction(BatteryMonitorService.ACTION_STOP);
+            context.startService(stop);
+        } else {
+            SamplingScheduler.cancel(context);
+        }
+        start(context);
+    }
+
+    /** Starts monitoring in the selected mode, after boot or when the app opens. */
+    public static void start(Context context) {
+        if (isScheduled(context)) {
+            SamplingScheduler.sampleSoon(context);
+            return;
+        }
+        Intent serviceIntent = new Intent(context, BatteryMonitorService.class);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(serviceIntent);
+        } else {
+            context.startService(serviceIntent);
+        }
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.batterystats;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.os.Handler;
+import android.os.SystemClock;
+import androidx.core.app.NotificationCompat;
+
+/**
+ * Keeps the foreground notification showing the latest {@link BatterySnapshot}.
+ *
+ * The builder is created once and only its text changes. A snapshot whose
+ * rendered text matches what is already posted costs nothing, and posts are
+ * at least {@code minIntervalMillis} apart; a change inside that window is
+ * held back and posted, with whatever is newest by then, when it ends.
+ *
+ * Not thread-safe; the service calls it from the main thread.
+ */
+public class NotificationRenderer implements SnapshotPublisher.Listener {
+    private final NotificationManager manager;
+    private final int notificationId;
+    private final NotificationCompat.Builder builder;
+    private final Handler handler;
+    private final long minIntervalMillis;
+    private final Runnable postPending = this::postPending;
+
+    private String postedTitle;
+    private String postedText;
+    private long lastPostUptime = Long.MIN_VALUE / 2;
+    private BatterySnapshot pending;
+
+    public NotificationRenderer(NotificationManager manager, int notificationId,
+                                NotificationCompat.Builder builder, Handler handler,
+                                long minIntervalMillis) {
+        this.manager = manager;
+        this.notificationId = notificationId;
+        this.builder = builder;
+        this.handler = handler;
+        this.minIntervalMillis = minIntervalMillis;
+    }
+
+    /** Builds the notification for startForeground before any snapshot exists. */
+    public Notification buildInitial(String title, String text) {
+        postedTitle = title;
+        postedText = text;
+        lastPostUptime = SystemClock.uptimeMillis();
+        return builder.setContentTitle(title).setContentText(text).build();
+    }
+
+    @Override
+    public void onSnapshot(BatterySnapshot snapshot) {
+        render(snapshot);
+    }
+
+    public void render(BatterySnapshot snapshot) {
+        if (pending != null) {
+            // A post is already scheduled and will pick this one up
+            pending = snapshot;
+            return;
+        }
+        String title = titleOf(snapshot);
+        String text = textOf(snapshot);
+        if (title.equals(postedTitle) && text.equals(postedText)) {
+            return;
+        }
+        long wait = lastPostUptime + minIntervalMillis - SystemClock.uptimeMillis();
+        if (wait > 0) {
+            pending = snapshot;
+            handler.postDelayed(postPending, wait);
+            return;
+        }
+        post(title, text);
+    }
+
+    /** Drops a held-back update, for when the service goes away. */
+    public void cancel() {
+        handler.removeCallbacks(postPending);
+        pending = null;
+    }
+
+    private void postPending() {
+        BatterySnapshot snapshot = pending;
+        pending = null;
+        if (snapshot != null) {
+            render(snapshot);
+        }
+    }
+
+    private void post(String title, String text) {
+        postedTitle = title;
+        postedText = text;
+        lastPostUptime = SystemClock.uptimeMillis();
+        if (manager != null) {
+            manager.notify(notificationId, builder.setContentTitle(title).setContentText(text).build());
+        }
+    }
+
+    private static String titleOf(BatterySnapshot snapshot) {
+        return snapshot.charging
+            ? "HeyBattery \u00b7 " + snapshot.getLevelText() + " \u00b7 Charging"
+            : "HeyBattery \u00b7 " + snapshot.getLevelText();
+    }
+
+    private static String textOf(BatterySnapshot snapshot) {
+        if (snapshot.charging) {
+            return snapshot.getRemainingText();
+        }
+        if (snapshot.lastFullCharge <= 0) {
+            return "Waiting for a full charge";
+        }
+        return "Since full charge: " + snapshot.getSinceFullText() + " \u00b7 Left: " + snapshot.getRemainingText();
+    }
+}
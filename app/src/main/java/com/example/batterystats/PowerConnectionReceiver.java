@@ -0,0 +1,20 @@
+package com.example.batterystats;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Samples right away when the charger is connected or removed in scheduled
+ * mode. Android 8.0 and later no longer deliver these broadcasts to the
+ * manifest, so there the charging job and the near-full sampling rate in
+ * {@link SamplingPolicy} cover the same transitions.
+ */
+public class PowerConnectionReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (MonitoringMode.isScheduled(context)) {
+            SamplingScheduler.sampleSoon(context);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.batterystats;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+
+/**
+ * Takes one battery sample in scheduled mode by reading the sticky
+ * BATTERY_CHANGED intent, feeds it to the {@link BatteryEngine} and plans
+ * the next sample. The job finishes once the writer thread has stored the
+ * result, so the process may be reclaimed right after.
+ */
+public class SamplingJobService extends JobService {
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        if (!MonitoringMode.isScheduled(this)) {
+            return false;
+        }
+        BatteryEngine engine = BatteryStores.engine(this);
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            SamplingScheduler.scheduleNext(this, params.getJobId(), SamplingPolicy.MAX_DELAY_MS);
+            return false;
+        }
+
+        // The previous sample, before this one is appended
+        long previousTimestamp = 0;
+        int previousLevel = -1;
+        SampleRing ring = engine.getSampleRing();
+        if (ring != null && ring.size() > 0) {
+            int slot = ring.slotAt(ring.size() - 1);
+            previousTimestamp = ring.timestamp(slot);
+            previousLevel = ring.level(slot);
+        }
+
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        if (powerManager != null) {
+            engine.onScreenChanged(powerManager.isInteractive());
+            engine.onIdleModeChanged(powerManager.isDeviceIdleMode());
+        }
+        engine.onBatteryChanged(battery, 0);
+        engine.flush();
+
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1) * 100 / Math.max(1, scale);
+        boolean charging = BatteryStatus.isCharging(battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1));
+        long delay = SamplingPolicy.nextDelayMillis(previousTimestamp, previousLevel,
+            System.currentTimeMillis(), level, charging);
+        SamplingScheduler.scheduleNext(this, params.getJobId(), delay);
+        if (!charging) {
+            SamplingScheduler.waitForCharger(this);
+        }
+
+        // Everything the sample wrote is queued ahead of this
+        BackgroundWriter.executor().execute(() -> jobFinished(params, false));
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The next sample is already scheduled
+        return false;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.batterystats;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+
+/**
+ * Jobs behind the scheduled monitoring mode.
+ *
+ * Samples form a chain of one-shot jobs, each scheduling the next with the
+ * delay from {@link SamplingPolicy}. The chain alternates between two job
+ * ids because rescheduling the id of the running job would stop it before
+ * its writes are done. While discharging a third job waits for the charger,
+ * so plugging in is seen without waiting for the next sample.
+ */
+public final class SamplingScheduler {
+    static final int SAMPLE_JOB_ID = 1001;
+    static final int SAMPLE_JOB_ALT_ID = 1002;
+    static final int PLUG_IN_JOB_ID = 1003;
+
+    private SamplingScheduler() {
+    }
+
+    /** Takes a sample as soon as the system allows. */
+    public static void sampleSoon(Context context) {
+        schedule(context, SAMPLE_JOB_ID, 0);
+        cancel(context, SAMPLE_JOB_ALT_ID);
+    }
+
+    /** Schedules the sample after the one running in {@code runningJobId}. */
+    public static void scheduleNext(Context context, int runningJobId, long delayMillis) {
+        int next = runningJobId == SAMPLE_JOB_ID ? SAMPLE_JOB_ALT_ID : SAMPLE_JOB_ID;
+        int other = next == SAMPLE_JOB_ID ? SAMPLE_JOB_ALT_ID : SAMPLE_JOB_ID;
+        if (other != runningJobId) {
+            cancel(context, other);
+        }
+        schedule(context, next, delayMillis);
+    }
+
+    public static void waitForCharger(Context context) {
+        JobScheduler scheduler = scheduler(context);
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.schedule(new JobInfo.Builder(PLUG_IN_JOB_ID, component(context))
+            .setRequiresCharging(true)
+            .setPersisted(true)
+            .build());
+    }
+
+    public static void cancel(Context context) {
+        cancel(context, SAMPLE_JOB_ID);
+        cancel(context, SAMPLE_JOB_ALT_ID);
+        cancel(context, PLUG_IN_JOB_ID);
+    }
+
+    private static void schedule(Context context, int jobId, long delayMillis) {
+        JobScheduler scheduler = scheduler(context);
+        if (scheduler == null) {
+            return;
+        }
+        // The deadline lets the sample run even if the device stays busy; Doze still defers it
+        scheduler.schedule(new JobInfo.Builder(jobId, component(context))
+            .setMinimumLatency(delayMillis)
+            .setOverrideDeadline(delayMillis + Math.max(delayMillis / 4, SamplingPolicy.MIN_DELAY_MS / 5))
+            .setPersisted(true)
+            .build());
+    }
+
+    private static void cancel(Context context, int jobId) {
+        JobScheduler scheduler = scheduler(context);
+        if (scheduler != null) {
+            scheduler.cancel(jobId);
+        }
+    }
+
+    private static JobScheduler scheduler(Context context) {
+        return (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    }
+
+    private static ComponentName component(Context context) {
+        return new ComponentName(context, SamplingJobService.class);
+    }
+}
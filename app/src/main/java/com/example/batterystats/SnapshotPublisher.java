@@ -0,0 +1,83 @@
+package com.example.batterystats;
+
+import android.os.Handler;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Conflating publisher of {@link BatterySnapshot}s.
+ *
+ * Each subscriber has at most one delivery queued on its handler. When the
+ * delivery runs it reads whatever snapshot is newest at that moment, so a
+ * slow subscriber skips stale snapshots instead of working through a queue.
+ */
+public class SnapshotPublisher {
+
+    public interface Listener {
+        void onSnapshot(BatterySnapshot snapshot);
+    }
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile BatterySnapshot latest;
+
+    public BatterySnapshot getLatest() {
+        return latest;
+    }
+
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /** Subscribes on the given handler and delivers the current snapshot right away if there is one. */
+    public void subscribe(Listener listener, Handler handler) {
+        Subscription subscription = new Subscription(listener, handler);
+        subscriptions.add(subscription);
+        if (latest != null) {
+            subscription.schedule();
+        }
+    }
+
+    public void unsubscribe(Listener listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener == listener) {
+                subscription.active = false;
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    public void publish(BatterySnapshot snapshot) {
+        latest = snapshot;
+        Metrics.increment(Metrics.COUNTER_SNAPSHOTS_PUBLISHED);
+        for (Subscription subscription : subscriptions) {
+            subscription.schedule();
+        }
+    }
+
+    private final class Subscription implements Runnable {
+        final Listener listener;
+        final Handler handler;
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+        volatile boolean active = true;
+
+        Subscription(Listener listener, Handler handler) {
+            this.listener = listener;
+            this.handler = handler;
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                handler.post(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            scheduled.set(false);
+            if (active) {
+                Metrics.increment(Metrics.COUNTER_SNAPSHOTS_DELIVERED);
+                listener.onSnapshot(latest);
+            }
+        }
+    }
+}
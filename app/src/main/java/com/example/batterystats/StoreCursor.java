@@ -0,0 +1,101 @@
+package com.example.batterystats;
+
+import android.database.AbstractCursor;
+import java.util.Arrays;
+
+/**
+ * A cursor over rows that stay in their store: moving to a row loads that
+ * one row, and the column getters read it. Nothing is copied up front, so
+ * a cursor over months of samples costs the same memory as one over a
+ * minute; across processes the framework fills one window at a time from
+ * the getters as the client pages through.
+ *
+ * All columns are integers.
+ */
+abstract class StoreCursor extends AbstractCursor {
+    private final String[] columnNames;
+    private final int[] columns;
+    private final int count;
+
+    /**
+     * @param tableColumns every column of the table, in the order {@link #value} numbers them
+     * @param projection   the requested columns, or null for all
+     */
+    StoreCursor(String[] tableColumns, String[] projection, int count) {
+        this.columnNames = projection != null ? projection : tableColumns;
+        this.columns = new int[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            columns[i] = Arrays.asList(tableColumns).indexOf(columnNames[i]);
+            if (columns[i] < 0) {
+                throw new IllegalArgumentException("Unknown column " + columnNames[i]);
+            }
+        }
+        this.count = Math.max(0, count);
+    }
+
+    /** Loads the row at {@code position}; returns false if it is no longer in the store. */
+    abstract boolean loadRow(int position);
+
+    /** The current row's value of table column {@code column}. */
+    abstract long value(int column);
+
+    /** Whether the current row has no value for table column {@code column}. */
+    boolean isMissing(int column) {
+        return false;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        return loadRow(newPosition);
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public int getType(int column) {
+        return isNull(column) ? FIELD_TYPE_NULL : FIELD_TYPE_INTEGER;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return isMissing(columns[column]);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return isNull(column) ? 0 : value(columns[column]);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public String getString(int column) {
+        return isNull(column) ? null : Long.toString(getLong(column));
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.batterystats;
+
+import android.app.AppOpsManager;
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageStatsManager;
+import android.content.Context;
+
+/**
+ * {@link UsageEventSource} backed by {@link UsageStatsManager}. Needs the
+ * PACKAGE_USAGE_STATS access the user grants in settings.
+ */
+public class UsageStatsEventSource implements UsageEventSource {
+    private final Context context;
+    private final UsageEvents.Event event = new UsageEvents.Event();
+
+    public UsageStatsEventSource(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        try {
+            AppOpsManager appOps = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+            int mode = appOps.checkOpNoThrow(AppOpsManager.OPSTR_GET_USAGE_STATS,
+                    android.os.Process.myUid(), context.getPackageName());
+            return mode == AppOpsManager.MODE_ALLOWED;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void query(long begin, long end, Visitor visitor) {
+        UsageStatsManager manager = (UsageStatsManager) context.getSystemService(Context.USAGE_STATS_SERVICE);
+        if (manager == null) {
+            return;
+        }
+        UsageEvents events = manager.queryEvents(begin, end);
+        if (events == null) {
+            return;
+        }
+        while (events.getNextEvent(event)) {
+            int type;
+            switch (event.getEventType()) {
+                case UsageEvents.Event.MOVE_TO_FOREGROUND:
+                    type = FOREGROUND;
+                    break;
+                case UsageEvents.Event.MOVE_TO_BACKGROUND:
+                    type = BACKGROUND;
+                    break;
+                case UsageEvents.Event.SCREEN_NON_INTERACTIVE:
+                case UsageEvents.Event.DEVICE_SHUTDOWN:
+                    type = SCREEN_OFF;
+                    break;
+                default:
+                    continue;
+            }
+            visitor.onEvent(event.getTimeStamp(), event.getPackageName(), type);
+        }
+    }
+}
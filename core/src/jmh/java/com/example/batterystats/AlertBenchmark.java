@@ -0,0 +1,105 @@
+package com.example.batterystats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluating the alert rules on one reading, for growing rule counts. The
+ * readings drift slowly like a real battery, so most of them cross no
+ * threshold. The time per reading should barely move with the rule count,
+ * and with {@code -prof gc} it should allocate 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlertBenchmark {
+    private static final int READINGS = 4096;
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    @Param({"1", "100", "10000"})
+    public int rules;
+
+    private final int[] levels = new int[READINGS];
+    private final int[] temperatures = new int[READINGS];
+    private final int[] voltages = new int[READINGS];
+    private final boolean[] plugged = new boolean[READINGS];
+    private AlertEngine engine;
+    private long fired;
+    private int reading;
+    private long elapsed;
+
+    @Setup
+    public void createRules() {
+        Random random = new Random(42);
+        List<AlertRule> list = new ArrayList<>();
+        for (int i = 0; i < rules; i++) {
+            int metric = random.nextInt(4);
+            float threshold;
+            switch (metric) {
+                case AlertRule.METRIC_LEVEL:
+                    threshold = random.nextInt(101);
+                    break;
+                case AlertRule.METRIC_TEMPERATURE:
+                    threshold = 20 + random.nextInt(300) / 10f;
+                    break;
+                case AlertRule.METRIC_VOLTAGE:
+                    threshold = 3.4f + random.nextInt(90) / 100f;
+                    break;
+                default:
+                    threshold = 5 + random.nextInt(30);
+                    break;
+            }
+            list.add(new AlertRule(metric, random.nextBoolean(), threshold, 1,
+                (1 + random.nextInt(4)) * 15 * MINUTE, random.nextInt(3)));
+        }
+        engine = new AlertEngine(list, null, new AlertEngine.Listener() {
+            @Override
+            public void onAlert(int index, AlertRule rule, float value) {
+                fired++;
+            }
+
+            @Override
+            public void onRearm(int index, AlertRule rule) {
+            }
+        });
+
+        int level = 100;
+        boolean charging = false;
+        for (int i = 0; i < READINGS; i++) {
+            if (i % 8 == 0) {
+                level += charging ? 1 : -1;
+                if (level <= 15 || level >= 100) {
+                    charging = !charging;
+                }
+            }
+            levels[i] = level;
+            plugged[i] = charging;
+            temperatures[i] = 280 + random.nextInt(40);
+            voltages[i] = 3500 + level * 7;
+        }
+    }
+
+    @Benchmark
+    public long onSample() {
+        int i = reading++ & (READINGS - 1);
+        elapsed += MINUTE;
+        engine.onSample(elapsed, levels[i], plugged[i], temperatures[i], voltages[i]);
+        return fired;
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.batterystats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the cycle history operations the service performs, at the default
+ * history size and at sizes far beyond it.
+ *
+ * Run with {@code ./gradlew :core:jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CycleStoreBenchmark {
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Param({"30", "10000", "1000000"})
+    public int cycles;
+
+    private File directory;
+    private InlineExecutor executor;
+    private ChargeCycleRepository repository;
+    private long duration;
+    private int level;
+
+    @Setup(Level.Trial)
+    public void createHistory() throws IOException {
+        directory = Files.createTempDirectory("cycles").toFile();
+        List<ChargeCycle> history = new ArrayList<>(cycles);
+        long start = 1_600_000_000_000L;
+        for (int i = 0; i < cycles; i++) {
+            ChargeCycle cycle = new ChargeCycle(start + i * 24 * HOUR, 100);
+            cycle.updateEndData(cycle.fullChargeTimestamp + 20 * HOUR, 20 + i % 30);
+            history.add(cycle);
+        }
+        BatteryDataManager storage = new BatteryDataManager(directory, null);
+        storage.saveChargeCycles(history, history);
+
+        executor = new InlineExecutor();
+        repository = new ChargeCycleRepository(storage, executor, cycles);
+        executor.runScheduled();
+        duration = HOUR;
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteHistory() {
+        executor.shutdown();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /** Cold start: read the journal and statistics and publish the first snapshot. */
+    @Benchmark
+    public int load() {
+        ChargeCycleRepository fresh = new ChargeCycleRepository(
+            new BatteryDataManager(directory, null), executor, cycles);
+        return fresh.getCycles().size();
+    }
+
+    /** One discharge step followed by the flush that persists it. */
+    @Benchmark
+    public void save() {
+        advance();
+        repository.applyUpdate(duration, level);
+        repository.flush();
+    }
+
+    /** One discharge step without writing it out. */
+    @Benchmark
+    public CycleSnapshot updateCurrentCycle() {
+        advance();
+        repository.applyUpdate(duration, level);
+        return repository.getCycles();
+    }
+
+    @Benchmark
+    public double averageDrainRate() {
+        return repository.getAverageDrainRate();
+    }
+
+    private void advance() {
+        duration += 60_000;
+        level = level <= 1 ? 99 : level - 1;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.batterystats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The history chart's work: building the level-of-detail pyramid over a
+ * full sample ring off the main thread, and the per-frame work of picking a
+ * level and mapping the visible points to pixels. Run with {@code -prof gc};
+ * {@code frame} should allocate 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+    private static final int SAMPLES = SampleRing.DEFAULT_CAPACITY;
+    private static final int WIDTH = 1080;
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private final long[] times = new long[SAMPLES];
+    private final float[] levels = new float[SAMPLES];
+    private final List<ChargeCycle> cycles = new ArrayList<>();
+    private final float[] points = new float[WIDTH * 8];
+    private LevelHistory history;
+    private long span;
+    private int frame;
+
+    @Setup
+    public void createSamples() {
+        long start = 1_600_000_000_000L;
+        float level = 100;
+        for (int i = 0; i < SAMPLES; i++) {
+            times[i] = start + i * MINUTE;
+            level -= 0.05f;
+            if (level < 20) {
+                level = 100;
+                cycles.add(new ChargeCycle(times[i], 100));
+            }
+            levels[i] = level;
+        }
+        history = LevelHistory.build(times, levels, SAMPLES, cycles);
+        span = history.getEnd() - history.getStart();
+    }
+
+    @Benchmark
+    public LevelHistory build() {
+        return LevelHistory.build(times, levels, SAMPLES, cycles);
+    }
+
+    /** One frame per zoom step, from a few hours up to the whole ring. */
+    @Benchmark
+    public float frame() {
+        long viewSpan = Math.max(4 * 60 * MINUTE, span >> (frame++ & 7));
+        long viewEnd = history.getEnd();
+        long viewStart = viewEnd - viewSpan;
+        int lod = history.levelFor(viewStart, viewEnd, WIDTH);
+        long[] lodTimes = history.times(lod);
+        float[] lodLevels = history.levels(lod);
+        int size = history.size(lod);
+        int from = Math.max(0, LevelHistory.lowerBound(lodTimes, size, viewStart) - 1);
+        int to = Math.min(size, LevelHistory.lowerBound(lodTimes, size, viewEnd) + 1);
+        float scaleX = (float) WIDTH / viewSpan;
+        int n = 0;
+        for (int i = from; i < to && n < points.length; i++) {
+            points[n++] = (lodTimes[i] - viewStart) * scaleX;
+            points[n++] = lodLevels[i];
+        }
+        return points[n - 1];
+    }
+}
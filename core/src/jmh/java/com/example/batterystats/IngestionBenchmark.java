@@ -0,0 +1,103 @@
+package com.example.batterystats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-event cost of the broadcast path: filtering and coalescing in
+ * {@link BatteryIngestion}, then the charge state machine in {@link ChargeStateMachine}
+ * for every transition that survives.
+ *
+ * The trace mimics real broadcasts. Most events only change voltage or
+ * temperature and repeat the previous level and status, and a burst of eight
+ * events is applied at once, like the backlog delivered after Doze.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngestionBenchmark {
+    private static final int EVENTS = 4096;
+    private static final int BURST = 8;
+    private static final long START = 1_600_000_000_000L;
+
+    private final long[] timestamps = new long[EVENTS];
+    private final int[] levels = new int[EVENTS];
+    private final int[] statuses = new int[EVENTS];
+
+    private BatteryIngestion ingestion;
+    private ChargeStateMachine chargeState;
+    private BatteryIngestion.Sink sink;
+
+    @Setup
+    public void createTrace(Blackhole blackhole) {
+        Random random = new Random(42);
+        long timestamp = START;
+        int level = 100;
+        int status = BatteryStatus.DISCHARGING;
+        for (int i = 0; i < EVENTS; i++) {
+            timestamp += 10_000;
+            if (random.nextInt(4) == 0) {
+                if (status == BatteryStatus.DISCHARGING) {
+                    level--;
+                    if (level < 15) {
+                        status = BatteryStatus.CHARGING;
+                    }
+                } else {
+                    level++;
+                    if (level >= 100) {
+                        status = BatteryStatus.DISCHARGING;
+                    }
+                }
+            }
+            timestamps[i] = timestamp;
+            levels[i] = level;
+            statuses[i] = status;
+        }
+
+        ingestion = new BatteryIngestion();
+        chargeState = new ChargeStateMachine(new MemoryStore());
+        sink = (time, newLevel, newStatus, reachedFull) -> blackhole.consume(chargeState.onBatteryState(
+            time, time - START, 1, newLevel, BatteryStatus.isCharging(newStatus), reachedFull));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void ingest() {
+        for (int i = 0; i < EVENTS; i++) {
+            ingestion.offer(timestamps[i], levels[i], statuses[i]);
+            if (i % BURST == BURST - 1) {
+                ingestion.apply(sink);
+            }
+        }
+        ingestion.apply(sink);
+    }
+
+    private static final class MemoryStore implements ChargeStateMachine.Store {
+        private byte[] record;
+
+        @Override
+        public byte[] load() {
+            return record;
+        }
+
+        @Override
+        public void save(byte[] record) {
+            this.record = record;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.batterystats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of recording a metric, alone and contended by four threads.
+ * Run with {@code -prof gc} to confirm that recording allocates nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    @Benchmark
+    public void timer() {
+        long start = Metrics.start();
+        Metrics.stop(Metrics.TIMER_BROADCAST, start);
+    }
+
+    @Benchmark
+    public void counter() {
+        Metrics.increment(Metrics.COUNTER_SAMPLES_RECORDED);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void timerContended() {
+        long start = Metrics.start();
+        Metrics.stop(Metrics.TIMER_BROADCAST, start);
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.batterystats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The activity's per-update text work: {@link SnapshotText} formatting a
+ * snapshot into the four view buffers. Run with {@code -prof gc}; gc.alloc.rate.norm for
+ * {@code formatIntoBuffers} should be 0 B/op, against {@code formatStrings}
+ * for the String-based path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+    private static final int SNAPSHOTS = 256;
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private final BatterySnapshot[] snapshots = new BatterySnapshot[SNAPSHOTS];
+    private final SnapshotText text = new SnapshotText();
+    private final SnapshotText.Views views = (line, chars, length) -> { };
+    private int next;
+
+    @Setup
+    public void createSnapshots() {
+        long fullCharge = 1_600_000_000_000L;
+        for (int i = 0; i < SNAPSHOTS; i++) {
+            long now = fullCharge + i * 7 * 60_000L;
+            snapshots[i] = new BatterySnapshot(now, 100 - i * 100 / SNAPSHOTS, false, BatteryHealth.GOOD,
+                fullCharge, 30 * HOUR - i * 7 * 60_000L, -1, -1, -1, 4200, 7);
+        }
+    }
+
+    @Benchmark
+    public int formatIntoBuffers() {
+        return text.render(snapshots[next++ & (SNAPSHOTS - 1)], views);
+    }
+
+    @Benchmark
+    public int formatStrings() {
+        BatterySnapshot snapshot = snapshots[next++ & (SNAPSHOTS - 1)];
+        return BatteryFormat.formatTimeDuration(snapshot.getSinceFullMillis()).length()
+            + BatteryFormat.formatTimeDuration(snapshot.remainingMillis).length()
+            + BatteryFormat.getBatteryHealthText(snapshot.health).length()
+            + (snapshot.level + "%").length();
+    }
+}
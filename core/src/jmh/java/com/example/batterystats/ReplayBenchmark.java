@@ -0,0 +1,60 @@
+package com.example.batterystats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end throughput: a synthetic trace replayed through the whole
+ * pipeline, stores and files included, into a fresh directory each time.
+ *
+ * Run with {@code ./gradlew :core:jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReplayBenchmark {
+    @Param({"1", "7"})
+    public int days;
+
+    private String trace;
+    private File directory;
+
+    @Setup(Level.Trial)
+    public void createTrace() {
+        trace = TraceReplay.synthetic(days, 1);
+    }
+
+    @Setup(Level.Invocation)
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("replay").toFile();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteDirectory() {
+        TraceReplay.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public TraceReplay.Result replay() throws IOException {
+        return new TraceReplay(directory).replay(new StringReader(trace));
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.batterystats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work before the activity's first frame: reading the saved display snapshot,
+ * against the old path of loading the history to compute the same numbers.
+ * The first should stay flat as the history grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StartupBenchmark {
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Param({"30", "10000", "1000000"})
+    public int cycles;
+
+    private File directory;
+    private File snapshotFile;
+    private long now;
+
+    @Setup(Level.Trial)
+    public void createFiles() throws IOException {
+        directory = Files.createTempDirectory("startup").toFile();
+        List<ChargeCycle> history = new ArrayList<>(cycles);
+        long start = 1_600_000_000_000L;
+        for (int i = 0; i < cycles; i++) {
+            ChargeCycle cycle = new ChargeCycle(start + i * 24 * HOUR, 100);
+            cycle.updateEndData(cycle.fullChargeTimestamp + 20 * HOUR, 20 + i % 30);
+            history.add(cycle);
+        }
+        new BatteryDataManager(directory, null).saveChargeCycles(history, history);
+
+        now = history.get(cycles - 1).fullChargeTimestamp + 5 * HOUR;
+        snapshotFile = new File(directory, SnapshotFile.FILENAME);
+        SnapshotFile.write(snapshotFile, new BatterySnapshot(now, 80, false, BatteryHealth.GOOD,
+            now - 5 * HOUR, 20 * HOUR, 18 * HOUR, 22 * HOUR, -1, 4200, 7));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public BatterySnapshot fromSnapshot() {
+        return SnapshotFile.read(snapshotFile, now);
+    }
+
+    @Benchmark
+    public double fromHistory() {
+        InlineExecutor executor = new InlineExecutor();
+        ChargeCycleRepository repository = new ChargeCycleRepository(
+            new BatteryDataManager(directory, null), executor, cycles);
+        return repository.getAverageDrainRate();
+    }
+}
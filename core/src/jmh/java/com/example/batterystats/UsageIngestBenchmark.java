@@ -0,0 +1,100 @@
+package com.example.batterystats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One incremental usage ingest after {@code history} events were already
+ * folded in. The cost should follow the 100 new events per run, not the
+ * history behind the cursor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UsageIngestBenchmark {
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long EVENT_SPACING = 30_000;
+    private static final int NEW_EVENTS = 100;
+    private static final String[] APPS = {
+        "com.example.mail", "com.example.browser", "com.example.maps", "com.example.chat",
+        "com.example.video", "com.example.camera", "com.example.music", "com.example.game"
+    };
+
+    @Param({"1000", "100000"})
+    public int history;
+
+    private File directory;
+    private UsageIngestor ingestor;
+    private List<ChargeCycle> cycles;
+    private long now;
+
+    /** Synthetic foreground/background pairs, one event every 30 seconds. */
+    static final class FakeSource implements UsageEventSource {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public void query(long begin, long end, Visitor visitor) {
+            long first = (begin + EVENT_SPACING - 1) / EVENT_SPACING;
+            for (long i = first; i * EVENT_SPACING < end; i++) {
+                String app = APPS[(int) (i / 2 % APPS.length)];
+                visitor.onEvent(i * EVENT_SPACING, app, i % 2 == 0 ? FOREGROUND : BACKGROUND);
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void ingestHistory() throws IOException {
+        directory = Files.createTempDirectory("usage").toFile();
+        cycles = new ArrayList<>();
+        long start = 1_600_000_000_000L;
+        long end = start + history * EVENT_SPACING;
+        for (long t = start; t < end; t += 24 * HOUR) {
+            ChargeCycle cycle = new ChargeCycle(t, 100);
+            cycle.updateEndData(t + 20 * HOUR, 30);
+            cycles.add(cycle);
+        }
+        ingestor = new UsageIngestor(new FakeSource(), new File(directory, "usage.bin"));
+        now = end;
+        ingestor.ingest(now, cycles);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public int ingestNewEvents() {
+        now += NEW_EVENTS * EVENT_SPACING;
+        return ingestor.ingest(now, cycles);
+    }
+}
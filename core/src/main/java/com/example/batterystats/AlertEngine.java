@@ -0,0 +1,393 @@
+package com.example.batterystats;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Evaluates {@link AlertRule}s against every battery reading.
+ *
+ * The rules are compiled once into flat tables: every metric, and every
+ * distinct drain window, is a channel with its rules' thresholds and re-arm
+ * points in sorted primitive arrays. A reading only has to look at the rules
+ * whose threshold or re-arm point lies between the channel's previous value
+ * and its new one, found by binary search, so the cost does not grow with
+ * the number of rules and an evaluation allocates nothing. Everything is
+ * re-checked only when the charger state changes, since that can satisfy or
+ * break a rule's {@code when} without any value moving.
+ *
+ * Not thread-safe; the pipeline calls it from the main thread.
+ */
+public class AlertEngine {
+    private static final int MAX_HISTORY = 512;
+    private static final float NONE = Float.NaN;
+
+    /** Receives rules as they fire and re-arm. */
+    public interface Listener {
+        void onAlert(int index, AlertRule rule, float value);
+
+        void onRearm(int index, AlertRule rule);
+    }
+
+    private final AlertRule[] rules;
+    private final Listener listener;
+    private final boolean[] armed;
+
+    // Per channel: the rules in each table, sorted by the point they react to
+    private final Table[] fire;
+    private final Table[] rearm;
+    private final float[] values;
+    private final long[] windows;
+
+    // Level history for the drain channels, a ring of the last MAX_HISTORY level changes
+    private final long[] historyTimes;
+    private final float[] historyLevels;
+    private int historyStart;
+    private int historySize;
+    private final long maxWindow;
+
+    private int power = -1;
+
+    /**
+     * @param disarmed indexes of rules that already fired and have not re-armed,
+     *                 restored from an earlier process, or null
+     */
+    public AlertEngine(List<AlertRule> rules, boolean[] disarmed, Listener listener) {
+        this.rules = rules.toArray(new AlertRule[0]);
+        this.listener = listener;
+        this.armed = new boolean[this.rules.length];
+        for (int i = 0; i < armed.length; i++) {
+            armed[i] = disarmed == null || i >= disarmed.length || !disarmed[i];
+        }
+
+        // Channels 0-2 are level, temperature and voltage; then one per drain window
+        List<Long> drainWindows = new ArrayList<>();
+        for (AlertRule rule : this.rules) {
+            if (rule.metric == AlertRule.METRIC_DRAIN && !drainWindows.contains(rule.windowMillis)) {
+                drainWindows.add(rule.windowMillis);
+            }
+        }
+        int channels = AlertRule.METRIC_DRAIN + drainWindows.size();
+        windows = new long[channels];
+        long longest = 0;
+        for (int i = 0; i < drainWindows.size(); i++) {
+            windows[AlertRule.METRIC_DRAIN + i] = drainWindows.get(i);
+            longest = Math.max(longest, drainWindows.get(i));
+        }
+        maxWindow = longest;
+        historyTimes = new long[longest > 0 ? MAX_HISTORY : 0];
+        historyLevels = new float[historyTimes.length];
+
+        fire = new Table[channels];
+        rearm = new Table[channels];
+        values = new float[channels];
+        Arrays.fill(values, NONE);
+        for (int channel = 0; channel < channels; channel++) {
+            fire[channel] = new Table(channel, false);
+            rearm[channel] = new Table(channel, true);
+        }
+    }
+
+    private int channelOf(AlertRule rule) {
+        if (rule.metric != AlertRule.METRIC_DRAIN) {
+            return rule.metric;
+        }
+        for (int channel = AlertRule.METRIC_DRAIN; ; channel++) {
+            if (windows[channel] == rule.windowMillis) {
+                return channel;
+            }
+        }
+    }
+
+    public int getRuleCount() {
+        return rules.length;
+    }
+
+    public boolean isArmed(int index) {
+        return armed[index];
+    }
+
+    /**
+     * Evaluates one reading.
+     *
+     * @param temperature tenths of a degree Celsius, or {@link SampleRing#UNKNOWN}
+     * @param voltage     millivolts, or {@link SampleRing#UNKNOWN}
+     */
+    public void onSample(long elapsed, int level, boolean plugged, int temperature, int voltage) {
+        if (rules.length == 0) {
+            return;
+        }
+        int nowPower = plugged ? AlertRule.POWER_CHARGING : AlertRule.POWER_DISCHARGING;
+        boolean powerChanged = nowPower != power;
+        power = nowPower;
+        if (powerChanged) {
+            // Drain is only measured over unplugged time
+            historySize = 0;
+        }
+
+        update(AlertRule.METRIC_LEVEL, level, powerChanged);
+        update(AlertRule.METRIC_TEMPERATURE,
+            temperature == SampleRing.UNKNOWN ? NONE : temperature / 10f, powerChanged);
+        update(AlertRule.METRIC_VOLTAGE,
+            voltage == SampleRing.UNKNOWN ? NONE : voltage / 1000f, powerChanged);
+        if (windows.length > AlertRule.METRIC_DRAIN) {
+            if (!plugged) {
+                addHistory(elapsed, level);
+            }
+            for (int channel = AlertRule.METRIC_DRAIN; channel < windows.length; channel++) {
+                update(channel, plugged ? NONE : drainRate(elapsed, windows[channel]), powerChanged);
+            }
+        }
+    }
+
+    private void update(int channel, float value, boolean recheckAll) {
+        float previous = values[channel];
+        values[channel] = value;
+        if (Float.isNaN(value)) {
+            return;
+        }
+        if (recheckAll || Float.isNaN(previous)) {
+            fire[channel].checkAll(value);
+            rearm[channel].checkAll(value);
+        } else if (value != previous) {
+            fire[channel].crossed(previous, value);
+            rearm[channel].crossed(previous, value);
+        }
+    }
+
+    /**
+     * Records a reading if the level moved. Readings come for voltage and
+     * temperature changes too, every few seconds, and would push the start
+     * of a long window out of the ring; the rate only needs the level steps.
+     */
+    private void addHistory(long elapsed, int level) {
+        int capacity = historyTimes.length;
+        if (historySize > 0 && historyLevels[(historyStart + historySize - 1) % capacity] == level) {
+            return;
+        }
+        // Drop readings older than the longest window, keeping one to measure from
+        while (historySize > 1 && historyTimes[(historyStart + 1) % capacity] <= elapsed - maxWindow) {
+            historyStart = (historyStart + 1) % capacity;
+            historySize--;
+        }
+        if (historySize == capacity) {
+            historyStart = (historyStart + 1) % capacity;
+            historySize--;
+        }
+        int slot = (historyStart + historySize) % capacity;
+        historyTimes[slot] = elapsed;
+        historyLevels[slot] = level;
+        historySize++;
+    }
+
+    /**
+     * Percent per hour from the level at the start of the last {@code window}
+     * to now, or NaN until the history reaches back that far.
+     */
+    private float drainRate(long elapsed, long window) {
+        if (historySize == 0) {
+            return NONE;
+        }
+        int capacity = historyTimes.length;
+        long from = elapsed - window;
+        // Newest level step at or before the window start
+        int low = 0;
+        int high = historySize - 1;
+        if (historyTimes[historyStart] > from) {
+            return NONE;
+        }
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (historyTimes[(historyStart + mid) % capacity] <= from) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int then = (historyStart + low) % capacity;
+        int now = (historyStart + historySize - 1) % capacity;
+        long span = elapsed - historyTimes[then];
+        if (span <= 0) {
+            return NONE;
+        }
+        return (historyLevels[then] - historyLevels[now]) * 3_600_000f / span;
+    }
+
+    private boolean powerMatches(AlertRule rule) {
+        return rule.power == AlertRule.POWER_ANY || rule.power == power;
+    }
+
+    public void dump(PrintWriter writer) {
+        if (rules.length == 0) {
+            return;
+        }
+        writer.println("Alert rules:");
+        for (int i = 0; i < rules.length; i++) {
+            AlertRule rule = rules[i];
+            float value = values[channelOf(rule)];
+            writer.println("  " + rule + (armed[i] ? "" : " (fired)")
+                + (Float.isNaN(value) ? "" : ", now " + rule.formatValue(value)));
+        }
+    }
+
+    /**
+     * The rules of one channel that react in one way, by the point they
+     * react at. Fire tables hold thresholds, re-arm tables the thresholds
+     * moved back by the hysteresis. Above and below rules are kept apart
+     * because they react to opposite movements.
+     */
+    private final class Table {
+        private final boolean rearms;
+        private final float[] abovePoints;
+        private final int[] aboveRules;
+        private final float[] belowPoints;
+        private final int[] belowRules;
+
+        Table(int channel, boolean rearms) {
+            this.rearms = rearms;
+            int aboveCount = 0;
+            int belowCount = 0;
+            for (AlertRule rule : rules) {
+                if (channelOf(rule) == channel) {
+                    if (rule.above) {
+                        aboveCount++;
+                    } else {
+                        belowCount++;
+                    }
+                }
+            }
+            abovePoints = new float[aboveCount];
+            aboveRules = new int[aboveCount];
+            belowPoints = new float[belowCount];
+            belowRules = new int[belowCount];
+            aboveCount = 0;
+            belowCount = 0;
+            for (int i = 0; i < rules.length; i++) {
+                AlertRule rule = rules[i];
+                if (channelOf(rule) != channel) {
+                    continue;
+                }
+                if (rule.above) {
+                    abovePoints[aboveCount] = rearms ? rule.threshold - rule.hysteresis : rule.threshold;
+                    aboveRules[aboveCount++] = i;
+                } else {
+                    belowPoints[belowCount] = rearms ? rule.threshold + rule.hysteresis : rule.threshold;
+                    belowRules[belowCount++] = i;
+                }
+            }
+            sort(abovePoints, aboveRules);
+            sort(belowPoints, belowRules);
+        }
+
+        /**
+         * Reacts to the points passed between {@code previous} and
+         * {@code value}. A rule fires on reaching its threshold and re-arms
+         * on moving strictly past its re-arm point, so with no hysteresis it
+         * still fires once per crossing.
+         */
+        void crossed(float previous, float value) {
+            if (value > previous) {
+                if (rearms) {
+                    // Below rules re-arm once above their point
+                    for (int i = lowerBound(belowPoints, previous); i < belowPoints.length && belowPoints[i] < value; i++) {
+                        react(belowRules[i], value);
+                    }
+                } else {
+                    for (int i = upperBound(abovePoints, previous); i < abovePoints.length && abovePoints[i] <= value; i++) {
+                        react(aboveRules[i], value);
+                    }
+                }
+            } else {
+                if (rearms) {
+                    // Above rules re-arm once below their point
+                    for (int i = upperBound(abovePoints, value); i < abovePoints.length && abovePoints[i] <= previous; i++) {
+                        react(aboveRules[i], value);
+                    }
+                } else {
+                    for (int i = lowerBound(belowPoints, value); i < belowPoints.length && belowPoints[i] < previous; i++) {
+                        react(belowRules[i], value);
+                    }
+                }
+            }
+        }
+
+        /** Reacts to every point already passed at {@code value}. */
+        void checkAll(float value) {
+            if (rearms) {
+                for (int i = lowerBound(belowPoints, value) - 1; i >= 0; i--) {
+                    react(belowRules[i], value);
+                }
+                for (int i = upperBound(abovePoints, value); i < abovePoints.length; i++) {
+                    react(aboveRules[i], value);
+                }
+            } else {
+                for (int i = upperBound(abovePoints, value) - 1; i >= 0; i--) {
+                    react(aboveRules[i], value);
+                }
+                for (int i = lowerBound(belowPoints, value); i < belowPoints.length; i++) {
+                    react(belowRules[i], value);
+                }
+            }
+        }
+
+        private void react(int index, float value) {
+            AlertRule rule = rules[index];
+            if (rearms) {
+                if (!armed[index]) {
+                    armed[index] = true;
+                    listener.onRearm(index, rule);
+                }
+            } else if (armed[index] && powerMatches(rule)) {
+                armed[index] = false;
+                listener.onAlert(index, rule, value);
+            }
+        }
+    }
+
+    /** Index of the first point at or above {@code value}. */
+    private static int lowerBound(float[] points, float value) {
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (points[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Index of the first point above {@code value}. */
+    private static int upperBound(float[] points, float value) {
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (points[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Sorts both arrays by {@code points}; runs once per rule set. */
+    private static void sort(float[] points, int[] indexes) {
+        for (int i = 1; i < points.length; i++) {
+            float point = points[i];
+            int index = indexes[i];
+            int j = i - 1;
+            while (j >= 0 && points[j] > point) {
+                points[j + 1] = points[j];
+                indexes[j + 1] = indexes[j];
+                j--;
+            }
+            points[j + 1] = point;
+            indexes[j + 1] = index;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.batterystats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One user-configured battery alert, written as a line of text:
+ *
+ * <pre>
+ *   level above 80 when charging
+ *   temperature above 42 hysteresis 2
+ *   drain above 15 over 30m
+ *   voltage below 3.5
+ * </pre>
+ *
+ * Level is in percent, temperature in degrees Celsius, voltage in volts and
+ * drain in percent per hour over the given window while discharging. A rule
+ * fires when the value reaches its threshold and fires again only after the
+ * value has moved back past the threshold by the hysteresis.
+ */
+public final class AlertRule {
+    public static final int METRIC_LEVEL = 0;
+    public static final int METRIC_TEMPERATURE = 1;
+    public static final int METRIC_VOLTAGE = 2;
+    public static final int METRIC_DRAIN = 3;
+
+    public static final int POWER_ANY = 0;
+    public static final int POWER_CHARGING = 1;
+    public static final int POWER_DISCHARGING = 2;
+
+    private static final String[] METRIC_NAMES = {"level", "temperature", "voltage", "drain"};
+    private static final float[] DEFAULT_HYSTERESIS = {2, 1, 0.05f, 2};
+    private static final long DEFAULT_WINDOW_MS = TimeUnit.MINUTES.toMillis(30);
+
+    public final int metric;
+    public final boolean above;
+    public final float threshold;
+    public final float hysteresis;
+    /** Drain only: how far back the rate is measured. */
+    public final long windowMillis;
+    public final int power;
+
+    public AlertRule(int metric, boolean above, float threshold, float hysteresis, long windowMillis, int power) {
+        this.metric = metric;
+        this.above = above;
+        this.threshold = threshold;
+        this.hysteresis = Math.max(0, hysteresis);
+        this.windowMillis = metric == METRIC_DRAIN ? windowMillis : 0;
+        this.power = power;
+    }
+
+    /** Parses one rule; throws IllegalArgumentException with the reason if it is not one. */
+    public static AlertRule parse(String line) {
+        String[] words = line.trim().toLowerCase(Locale.US).split("\\s+");
+        if (words.length < 3) {
+            throw new IllegalArgumentException("Expected \"<metric> above|below <value>\"");
+        }
+        int metric = -1;
+        for (int i = 0; i < METRIC_NAMES.length; i++) {
+            if (METRIC_NAMES[i].equals(words[0])) {
+                metric = i;
+            }
+        }
+        if (metric < 0) {
+            throw new IllegalArgumentException("Unknown metric " + words[0]);
+        }
+        boolean above;
+        if ("above".equals(words[1])) {
+            above = true;
+        } else if ("below".equals(words[1])) {
+            above = false;
+        } else {
+            throw new IllegalArgumentException("Expected above or below, not " + words[1]);
+        }
+        float threshold = parseNumber(words[2]);
+        float hysteresis = DEFAULT_HYSTERESIS[metric];
+        long window = DEFAULT_WINDOW_MS;
+        int power = POWER_ANY;
+        for (int i = 3; i < words.length; i += 2) {
+            if (i + 1 >= words.length) {
+                throw new IllegalArgumentException("Missing value after " + words[i]);
+            }
+            String value = words[i + 1];
+            switch (words[i]) {
+                case "hysteresis":
+                    hysteresis = parseNumber(value);
+                    break;
+                case "over":
+                    window = parseWindow(value);
+                    break;
+                case "when":
+                    if ("charging".equals(value)) {
+                        power = POWER_CHARGING;
+                    } else if ("discharging".equals(value)) {
+                        power = POWER_DISCHARGING;
+                    } else {
+                        throw new IllegalArgumentException("Expected charging or discharging, not " + value);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + words[i]);
+            }
+        }
+        return new AlertRule(metric, above, threshold, hysteresis, window, power);
+    }
+
+    /** Parses one rule per line, ignoring blank lines and {@code #} comments. */
+    public static List<AlertRule> parseAll(String text) {
+        List<AlertRule> rules = new ArrayList<>();
+        String[] lines = text.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                rules.add(parse(line));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        return rules;
+    }
+
+    private static float parseNumber(String word) {
+        try {
+            float value = Float.parseFloat(word.replace("%", ""));
+            if (Float.isNaN(value) || Float.isInfinite(value)) {
+                throw new NumberFormatException();
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + word);
+        }
+    }
+
+    private static long parseWindow(String word) {
+        long unit = TimeUnit.MINUTES.toMillis(1);
+        if (word.endsWith("h")) {
+            unit = TimeUnit.HOURS.toMillis(1);
+            word = word.substring(0, word.length() - 1);
+        } else if (word.endsWith("m")) {
+            word = word.substring(0, word.length() - 1);
+        }
+        float value = parseNumber(word);
+        if (value <= 0) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        return (long) (value * unit);
+    }
+
+    public String getMetricName() {
+        return METRIC_NAMES[metric];
+    }
+
+    /** The value in the rule's unit, for an alert's text. */
+    public String formatValue(float value) {
+        switch (metric) {
+            case METRIC_LEVEL:
+                return Math.round(value) + "%";
+            case METRIC_TEMPERATURE:
+                return String.format(Locale.US, "%.1f\u00b0C", value);
+            case METRIC_VOLTAGE:
+                return String.format(Locale.US, "%.2f V", value);
+            default:
+                return String.format(Locale.US, "%.1f%%/h", value);
+        }
+    }
+
+    /** The rule in the form {@link #parse} reads. */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(METRIC_NAMES[metric])
+            .append(above ? " above " : " below ").append(formatNumber(threshold));
+        if (hysteresis != DEFAULT_HYSTERESIS[metric]) {
+            text.append(" hysteresis ").append(formatNumber(hysteresis));
+        }
+        if (metric == METRIC_DRAIN && windowMillis != DEFAULT_WINDOW_MS) {
+            text.append(" over ").append(TimeUnit.MILLISECONDS.toMinutes(windowMillis)).append('m');
+        }
+        if (power != POWER_ANY) {
+            text.append(power == POWER_CHARGING ? " when charging" : " when discharging");
+        }
+        return text.toString();
+    }
+
+    private static String formatNumber(float value) {
+        return value == (int) value ? Integer.toString((int) value) : Float.toString(value);
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.batterystats;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Foreground time per app and charge cycle, stored as columns.
+ *
+ * Each row is one (cycle, app) pair: the cycle's full charge timestamp, an
+ * index into the package name table and the foreground millis. Rows are
+ * appended in time order, so a cycle's rows are contiguous and the rows of
+ * the newest cycle are found through a per-app index without any search.
+ *
+ * Not thread-safe; {@link UsageIngestor} owns it on the writer thread.
+ */
+public class AppUsageStore {
+    private static final int MAGIC = 0x48425531; // "HBU1"
+
+    /** One app's part of a cycle's drain. */
+    public static final class AppShare {
+        public final String packageName;
+        public final long foregroundMillis;
+        /** Foreground time as a fraction of the cycle's length. */
+        public final double share;
+        /** Estimated percentage points of battery used by the app. */
+        public final double drainPercent;
+
+        AppShare(String packageName, long foregroundMillis, double share, double drainPercent) {
+            this.packageName = packageName;
+            this.foregroundMillis = foregroundMillis;
+            this.share = share;
+            this.drainPercent = drainPercent;
+        }
+    }
+
+    private final List<String> packages = new ArrayList<>();
+    private final Map<String, Integer> packageIds = new HashMap<>();
+
+    private long[] cycleColumn = new long[64];
+    private int[] appColumn = new int[64];
+    private long[] millisColumn = new long[64];
+    private int rows;
+
+    // Row of each app in the newest cycle, or -1
+    private long newestCycle = Long.MIN_VALUE;
+    private int[] newestRows = new int[0];
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    /** Adds foreground time for an app in the cycle that started at {@code cycleStart}. */
+    public void add(long cycleStart, String packageName, long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        int app = packageId(packageName);
+        int row;
+        if (cycleStart >= newestCycle) {
+            if (cycleStart > newestCycle) {
+                newestCycle = cycleStart;
+                Arrays.fill(newestRows, -1);
+            }
+            row = newestRows[app];
+            if (row < 0) {
+                row = insertRow(rows, cycleStart, app);
+                newestRows[app] = row;
+            }
+        } else {
+            // Late credit for an older cycle, rare enough to search and shift for
+            row = findRow(cycleStart, app);
+            if (row < 0) {
+                row = insertRow(firstRow(cycleStart + 1), cycleStart, app);
+                rebuildNewestIndex();
+            }
+        }
+        millisColumn[row] += millis;
+    }
+
+    /** Drops the rows of cycles that started before {@code oldestCycleStart}. */
+    public void prune(long oldestCycleStart) {
+        int keep = 0;
+        for (int i = 0; i < rows; i++) {
+            if (cycleColumn[i] >= oldestCycleStart) {
+                cycleColumn[keep] = cycleColumn[i];
+                appColumn[keep] = appColumn[i];
+                millisColumn[keep] = millisColumn[i];
+                keep++;
+            }
+        }
+        if (keep != rows) {
+            rows = keep;
+            rebuildNewestIndex();
+        }
+    }
+
+    /**
+     * Joins the cycle's foreground time with its drain. Each app is charged
+     * the fraction of the drain equal to its fraction of the cycle's length;
+     * what is left belongs to the screen-off and background time. Sorted by
+     * foreground time, longest first.
+     */
+    public List<AppShare> getAttribution(ChargeCycle cycle) {
+        List<AppShare> shares = new ArrayList<>();
+        long duration = cycle.durationMillis;
+        double drain = Math.max(0, cycle.startLevel - cycle.endLevel);
+        for (int i = firstRow(cycle.fullChargeTimestamp); i < rows; i++) {
+            if (cycleColumn[i] != cycle.fullChargeTimestamp) {
+                break;
+            }
+            long millis = millisColumn[i];
+            double share = duration > 0 ? Math.min(1.0, millis / (double) duration) : 0;
+            shares.add(new AppShare(packages.get(appColumn[i]), millis, share, share * drain));
+        }
+        shares.sort((a, b) -> Long.compare(b.foregroundMillis, a.foregroundMillis));
+        return shares;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(packages.size());
+        for (String packageName : packages) {
+            out.writeUTF(packageName);
+        }
+        out.writeInt(rows);
+        for (int i = 0; i < rows; i++) {
+            out.writeLong(cycleColumn[i]);
+        }
+        for (int i = 0; i < rows; i++) {
+            out.writeInt(appColumn[i]);
+        }
+        for (int i = 0; i < rows; i++) {
+            out.writeLong(millisColumn[i]);
+        }
+    }
+
+    public void readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an app usage store");
+        }
+        packages.clear();
+        packageIds.clear();
+        int packageCount = in.readInt();
+        for (int i = 0; i < packageCount; i++) {
+            String packageName = in.readUTF();
+            packageIds.put(packageName, packages.size());
+            packages.add(packageName);
+        }
+        rows = in.readInt();
+        int capacity = Math.max(64, rows);
+        cycleColumn = new long[capacity];
+        appColumn = new int[capacity];
+        millisColumn = new long[capacity];
+        for (int i = 0; i < rows; i++) {
+            cycleColumn[i] = in.readLong();
+        }
+        for (int i = 0; i < rows; i++) {
+            appColumn[i] = in.readInt();
+        }
+        for (int i = 0; i < rows; i++) {
+            millisColumn[i] = in.readLong();
+        }
+        rebuildNewestIndex();
+    }
+
+    private int packageId(String packageName) {
+        Integer id = packageIds.get(packageName);
+        if (id != null) {
+            return id;
+        }
+        int newId = packages.size();
+        packages.add(packageName);
+        packageIds.put(packageName, newId);
+        if (newId >= newestRows.length) {
+            int oldLength = newestRows.length;
+            newestRows = Arrays.copyOf(newestRows, Math.max(16, oldLength * 2));
+            Arrays.fill(newestRows, oldLength, newestRows.length, -1);
+        }
+        return newId;
+    }
+
+    private int insertRow(int position, long cycleStart, int app) {
+        if (rows == cycleColumn.length) {
+            int capacity = rows * 2;
+            cycleColumn = Arrays.copyOf(cycleColumn, capacity);
+            appColumn = Arrays.copyOf(appColumn, capacity);
+            millisColumn = Arrays.copyOf(millisColumn, capacity);
+        }
+        int tail = rows - position;
+        if (tail > 0) {
+            System.arraycopy(cycleColumn, position, cycleColumn, position + 1, tail);
+            System.arraycopy(appColumn, position, appColumn, position + 1, tail);
+            System.arraycopy(millisColumn, position, millisColumn, position + 1, tail);
+        }
+        cycleColumn[position] = cycleStart;
+        appColumn[position] = app;
+        millisColumn[position] = 0;
+        rows++;
+        return position;
+    }
+
+    private int findRow(long cycleStart, int app) {
+        for (int i = firstRow(cycleStart); i < rows && cycleColumn[i] == cycleStart; i++) {
+            if (appColumn[i] == app) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** First row of the cycle, or where it would be, by binary search over the sorted cycle column. */
+    private int firstRow(long cycleStart) {
+        int low = 0;
+        int high = rows;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cycleColumn[mid] < cycleStart) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void rebuildNewestIndex() {
+        newestRows = new int[Math.max(16, packages.size())];
+        Arrays.fill(newestRows, -1);
+        newestCycle = rows > 0 ? cycleColumn[rows - 1] : Long.MIN_VALUE;
+        for (int i = firstRow(newestCycle); i < rows; i++) {
+            newestRows[appColumn[i]] = i;
+        }
+    }
+}
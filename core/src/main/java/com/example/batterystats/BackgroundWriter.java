@@ -0,0 +1,26 @@
+package com.example.batterystats;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * The single background thread that owns all disk writes in this process.
+ * Stores post their mutations here so file I/O never runs on the main thread
+ * and writes to the same file can never interleave.
+ */
+public final class BackgroundWriter {
+    private static final ScheduledExecutorService EXECUTOR =
+        Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "HeyBattery-writer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+
+    private BackgroundWriter() {
+    }
+
+    public static ScheduledExecutorService executor() {
+        return EXECUTOR;
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.batterystats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Persists charge cycles in a {@link CycleJournal}. Callers go through
+ * {@link ChargeCycleRepository}, which runs this on its writer thread.
+ *
+ * Older versions stored the cycles in {@code charge_cycles.json}. The first
+ * load after an upgrade migrates that file into the journal and keeps the
+ * original next to it as {@code charge_cycles.json.migrated}. If that fails,
+ * each save retries it before the journal is created.
+ */
+public class BatteryDataManager {
+    private static final String LEGACY_FILENAME = "charge_cycles.json";
+    private static final String JOURNAL_FILENAME = "charge_cycles.journal";
+    private static final String STATISTICS_FILENAME = "drain_stats.bin";
+    private static final int MIN_COMPACTION_RECORDS = 256;
+
+    private final File directory;
+    private final LegacyCycleReader legacyReader;
+    private final CycleJournal journal;
+    private boolean loadFailed;
+    // The legacy file is still there; the journal must not be created before it is migrated
+    private boolean migrationPending;
+
+    public BatteryDataManager(File directory, LegacyCycleReader legacyReader) {
+        this.directory = directory;
+        this.legacyReader = legacyReader;
+        this.journal = new CycleJournal(new File(directory, JOURNAL_FILENAME));
+    }
+
+    public List<ChargeCycle> loadChargeCycles() {
+        long start = Metrics.start();
+        try {
+            if (!journal.exists()) {
+                migrationPending = true;
+                migrateLegacyFile();
+            }
+            loadFailed = false;
+            return journal.load();
+        } catch (IOException e) {
+            e.printStackTrace();
+            // Keep appending, but never compact what we could not read
+            loadFailed = true;
+            return new ArrayList<>();
+        } finally {
+            Metrics.stop(Metrics.TIMER_CYCLES_LOAD, start);
+        }
+    }
+
+    /**
+     * Appends the changed cycles to the journal. Once superseded records
+     * outnumber live ones the journal is compacted down to {@code allCycles}.
+     *
+     * If the legacy file could not be migrated on load, the migration is
+     * retried first and nothing is written until it succeeds; then all of
+     * {@code allCycles} is appended, since earlier changes were held back.
+     */
+    public void saveChargeCycles(Collection<ChargeCycle> changed, List<ChargeCycle> allCycles) {
+        long start = Metrics.start();
+        try {
+            if (migrationPending) {
+                migrateLegacyFile();
+                if (migrationPending) {
+                    return;
+                }
+                // The journal now holds cycles that were never loaded, so loadFailed stays set
+                changed = allCycles;
+            }
+            journal.append(changed);
+            int threshold = Math.max(MIN_COMPACTION_RECORDS, allCycles.size() * 2);
+            if (!loadFailed && journal.getRecordCount() > threshold) {
+                journal.compact(allCycles);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            Metrics.stop(Metrics.TIMER_CYCLES_SAVE, start);
+        }
+    }
+
+    /** Restores saved statistics. Returns false if there were none to restore. */
+    public boolean loadStatistics(DrainStatistics statistics) {
+        File file = new File(directory, STATISTICS_FILENAME);
+        if (!file.exists()) {
+            return false;
+        }
+        long start = Metrics.start();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                statistics.readFrom(in);
+                return true;
+            } finally {
+                in.close();
+                Metrics.stop(Metrics.TIMER_FILE_READ, start);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public void saveStatistics(DrainStatistics statistics) {
+        File file = new File(directory, STATISTICS_FILENAME);
+        File temp = new File(directory, STATISTICS_FILENAME + ".tmp");
+        long start = Metrics.start();
+        try {
+            FileOutputStream fos = new FileOutputStream(temp);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            try {
+                statistics.writeTo(out);
+                out.flush();
+                long syncStart = Metrics.start();
+                fos.getFD().sync();
+                Metrics.stop(Metrics.TIMER_FSYNC, syncStart);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+            Metrics.add(Metrics.COUNTER_BYTES_WRITTEN, out.size());
+            Metrics.stop(Metrics.TIMER_FILE_WRITE, start);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void migrateLegacyFile() throws IOException {
+        File legacy = new File(directory, LEGACY_FILENAME);
+        if (legacyReader == null || !legacy.exists()) {
+            migrationPending = false;
+            return;
+        }
+
+        long start = Metrics.start();
+        List<ChargeCycle> cycles;
+        try {
+            cycles = legacyReader.read(legacy);
+        } catch (IOException e) {
+            throw new IOException("Unable to migrate " + legacy + ", will retry on the next save", e);
+        } finally {
+            Metrics.stop(Metrics.TIMER_LEGACY_PARSE, start);
+        }
+        journal.compact(cycles);
+        migrationPending = false;
+
+        File migrated = new File(directory, LEGACY_FILENAME + ".migrated");
+        migrated.delete();
+        legacy.renameTo(migrated);
+    }
+}
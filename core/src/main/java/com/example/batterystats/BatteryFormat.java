@@ -0,0 +1,166 @@
+package com.example.batterystats;
+
+/**
+ * Text shown for battery values, shared by the activity and the service.
+ *
+ * The {@code write} methods format into a caller-owned char buffer of at
+ * least {@link #MAX_LENGTH} chars and return the length, so a screen that
+ * redraws on every battery event allocates nothing. The String methods are
+ * thin wrappers for callers that need one anyway.
+ */
+public final class BatteryFormat {
+    public static final int MAX_LENGTH = 64;
+
+    private static final long MINUTE_MS = 60_000L;
+    private static final long HOUR_MS = 60 * MINUTE_MS;
+
+    private static final String NO_DATA = "No data yet";
+    private static final String CALCULATING = "Calculating...";
+    private static final String NOT_AVAILABLE = "Not available";
+    private static final String FULLY_CHARGED = "Fully charged";
+    private static final String UNTIL_FULL = " until full";
+    private static final String CAPACITY_SEPARATOR = " \u00b7 ";
+    private static final String CAPACITY_UNIT = " mAh";
+    private static final String WEAR_PREFIX = ", ";
+    private static final String WEAR_SUFFIX = "% wear";
+
+    // Indexed by BatteryHealth value
+    private static final String[] HEALTH_LABELS = {
+        null, "Unknown", "Good", "Overheating", "Dead", "Over Voltage", "Unspecified Failure", "Cold"
+    };
+    private static final String[] HEALTH_TEXTS = new String[HEALTH_LABELS.length];
+
+    static {
+        for (int i = 1; i < HEALTH_LABELS.length; i++) {
+            HEALTH_TEXTS[i] = HEALTH_LABELS[i] + ".";
+        }
+    }
+
+    private BatteryFormat() {
+    }
+
+    public static String formatTimeDuration(long millis) {
+        char[] out = new char[MAX_LENGTH];
+        return new String(out, 0, writeDuration(out, 0, millis));
+    }
+
+    public static String getBatteryHealthString(int health) {
+        if (health > 0 && health < HEALTH_LABELS.length) {
+            return HEALTH_LABELS[health];
+        }
+        return "Unknown (" + health + ")";
+    }
+
+    /** The health line as shown on screen, with its closing period. */
+    public static String getBatteryHealthText(int health) {
+        if (health > 0 && health < HEALTH_TEXTS.length) {
+            return HEALTH_TEXTS[health];
+        }
+        return getBatteryHealthString(health) + ".";
+    }
+
+    public static int writeLevel(char[] out, BatterySnapshot snapshot) {
+        int end = writeNumber(out, 0, snapshot.level);
+        out[end++] = '%';
+        return end;
+    }
+
+    public static int writeSinceFull(char[] out, BatterySnapshot snapshot) {
+        if (snapshot.lastFullCharge <= 0) {
+            return writeString(out, 0, NO_DATA);
+        }
+        return writeDuration(out, 0, snapshot.getSinceFullMillis());
+    }
+
+    /** Writes the time left on battery, or while charging the time until full. */
+    public static int writeRemaining(char[] out, BatterySnapshot snapshot) {
+        if (snapshot.charging) {
+            if (snapshot.level >= 100) {
+                return writeString(out, 0, FULLY_CHARGED);
+            }
+            if (snapshot.fullMillis >= 0) {
+                return writeString(out, writeDuration(out, 0, snapshot.fullMillis), UNTIL_FULL);
+            }
+            return writeString(out, 0, CALCULATING);
+        }
+        if (snapshot.remainingMillis >= 0) {
+            return writeDuration(out, 0, snapshot.remainingMillis);
+        }
+        if (snapshot.remainingMillis == BatterySnapshot.REMAINING_CALCULATING) {
+            return writeString(out, 0, CALCULATING);
+        }
+        return writeString(out, 0, NOT_AVAILABLE);
+    }
+
+    /**
+     * Writes the health line, with the estimated capacity once there is one
+     * and the wear when it is known. Only unknown health values allocate.
+     */
+    public static int writeHealth(char[] out, BatterySnapshot snapshot) {
+        if (snapshot.capacityMah <= 0) {
+            return writeString(out, 0, getBatteryHealthText(snapshot.health));
+        }
+        int end = writeString(out, 0, getBatteryHealthString(snapshot.health));
+        end = writeString(out, end, CAPACITY_SEPARATOR);
+        end = writeNumber(out, end, snapshot.capacityMah);
+        end = writeString(out, end, CAPACITY_UNIT);
+        if (snapshot.wearPercent < 0) {
+            return end;
+        }
+        end = writeString(out, end, WEAR_PREFIX);
+        end = writeNumber(out, end, snapshot.wearPercent);
+        return writeString(out, end, WEAR_SUFFIX);
+    }
+
+    /** Writes "X hours and Y minutes", dropping a zero part, starting at {@code start}. */
+    public static int writeDuration(char[] out, int start, long millis) {
+        long hours = millis / HOUR_MS;
+        long minutes = millis / MINUTE_MS % 60;
+
+        // If less than 1 hour, show only minutes
+        if (hours == 0) {
+            return writeUnit(out, start, minutes, "minute");
+        }
+        int end = writeUnit(out, start, hours, "hour");
+        if (minutes == 0) {
+            // Exactly X hours
+            return end;
+        }
+        // X hours and Y minutes
+        end = writeString(out, end, " and ");
+        return writeUnit(out, end, minutes, "minute");
+    }
+
+    private static int writeUnit(char[] out, int start, long count, String unit) {
+        int end = writeNumber(out, start, count);
+        out[end++] = ' ';
+        end = writeString(out, end, unit);
+        if (count != 1) {
+            out[end++] = 's';
+        }
+        return end;
+    }
+
+    private static int writeNumber(char[] out, int start, long value) {
+        if (value < 0) {
+            out[start++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int end = start + digits;
+        for (int i = end - 1; i >= start; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    private static int writeString(char[] out, int start, String text) {
+        int length = Math.min(text.length(), out.length - start);
+        text.getChars(0, length, out, start);
+        return start + length;
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.batterystats;
+
+/**
+ * Battery health values as reported in {@code BatteryManager.EXTRA_HEALTH},
+ * mirrored here so the core logic does not depend on the Android framework.
+ */
+public final class BatteryHealth {
+    public static final int UNKNOWN = 1;
+    public static final int GOOD = 2;
+    public static final int OVERHEAT = 3;
+    public static final int DEAD = 4;
+    public static final int OVER_VOLTAGE = 5;
+    public static final int UNSPECIFIED_FAILURE = 6;
+    public static final int COLD = 7;
+
+    private BatteryHealth() {
+    }
+}
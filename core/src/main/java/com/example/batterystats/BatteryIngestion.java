@@ -0,0 +1,97 @@
+package com.example.batterystats;
+
+/**
+ * Front end for battery broadcasts.
+ *
+ * ACTION_BATTERY_CHANGED fires for every small voltage or temperature change,
+ * but cycle tracking only cares about level and status. Events that change
+ * neither are dropped. The rest are merged into one pending state until the
+ * caller applies it, so a burst, such as the backlog delivered when the
+ * device leaves Doze, becomes a single state transition.
+ *
+ * Not thread-safe; the service calls it from the main thread.
+ */
+public class BatteryIngestion {
+    private static final int FULL_LEVEL = 99;
+
+    /** Receives one merged state transition. */
+    public interface Sink {
+        /**
+         * @param reachedFull whether an earlier event in the merged burst saw
+         *                    the battery full while charging
+         */
+        void onBatteryState(long timestamp, int level, int status, boolean reachedFull);
+    }
+
+    private long received;
+    private long dropped;
+    private long coalesced;
+    private long applied;
+
+    private int lastLevel = -1;
+    private int lastStatus = -1;
+
+    private boolean pending;
+    private long pendingTimestamp;
+    private int pendingLevel;
+    private int pendingStatus;
+    private boolean pendingReachedFull;
+
+    /**
+     * Offers a broadcast. Returns true if this event started a new pending
+     * state, meaning the caller should schedule {@link #apply}.
+     */
+    public boolean offer(long timestamp, int level, int status) {
+        received++;
+        int currentLevel = pending ? pendingLevel : lastLevel;
+        int currentStatus = pending ? pendingStatus : lastStatus;
+        if (level == currentLevel && status == currentStatus) {
+            dropped++;
+            return false;
+        }
+
+        boolean startsPending = !pending;
+        if (pending) {
+            coalesced++;
+            // Remember a full charge we are about to merge away
+            if (pendingLevel >= FULL_LEVEL && BatteryStatus.isCharging(pendingStatus)) {
+                pendingReachedFull = true;
+            }
+        } else {
+            pendingReachedFull = false;
+        }
+        pending = true;
+        pendingTimestamp = timestamp;
+        pendingLevel = level;
+        pendingStatus = status;
+        return startsPending;
+    }
+
+    /** Hands the pending state, if any, to the sink as a single transition. */
+    public void apply(Sink sink) {
+        if (!pending) {
+            return;
+        }
+        pending = false;
+        lastLevel = pendingLevel;
+        lastStatus = pendingStatus;
+        applied++;
+        sink.onBatteryState(pendingTimestamp, pendingLevel, pendingStatus, pendingReachedFull);
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    public long getApplied() {
+        return applied;
+    }
+}
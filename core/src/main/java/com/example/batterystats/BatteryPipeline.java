@@ -0,0 +1,434 @@
+package com.example.batterystats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Turns battery readings into samples, cycles, rollups, predictions and
+ * snapshots, without touching the Android framework.
+ *
+ * Time comes from an injected {@link Clock} and disk work goes to the given
+ * writer, so the same code runs behind the app's {@code BatteryEngine} and
+ * in {@link TraceReplay} on a plain JVM.
+ *
+ * Not thread-safe; one thread feeds it, disk work is posted to the writer.
+ */
+public class BatteryPipeline {
+    private static final String PREDICTOR_FILENAME = "remaining_predictor.bin";
+    private static final String CHARGING_FILENAME = "charging_state.bin";
+    private static final String CAPACITY_FILENAME = "capacity_state.bin";
+    private static final String IDLE_FILENAME = "idle_profile.bin";
+    private static final int DUMPED_SESSIONS = 5;
+
+    /** Source of time, the system clocks in the app and a virtual one in a replay. */
+    public interface Clock {
+        long currentTimeMillis();
+
+        long elapsedRealtime();
+
+        /** Time the CPU was awake since boot; stops in deep sleep. */
+        long uptimeMillis();
+    }
+
+    /** Receives every snapshot the pipeline builds. */
+    public interface Listener {
+        /**
+         * @param changed whether the battery state changed, as opposed to a
+         *                refresh of the estimates, meaning it is worth saving
+         */
+        void onSnapshot(BatterySnapshot snapshot, boolean changed);
+    }
+
+    private final ScheduledExecutorService writer;
+    private final Clock clock;
+    private final int bootCount;
+    private final BatteryPropertySource properties;
+    private final ChargeCycleRepository repository;
+    private final RollupStore rollups;
+    private final SampleRing sampleRing;
+    private final Listener listener;
+
+    private final ChargeStateMachine chargeState;
+    private final BatteryIngestion ingestion = new BatteryIngestion();
+    private final BatteryIngestion.Sink stateSink = this::applyBatteryState;
+    private final RemainingTimePredictor predictor = new RemainingTimePredictor();
+    private final File predictorFile;
+    private final ChargingRecorder charging = new ChargingRecorder();
+    private final File chargingFile;
+    private final ChargingSessionLog chargingSessions;
+    private final CapacityEstimator capacity = new CapacityEstimator();
+    private final File capacityFile;
+    private final IdleProfiler idle = new IdleProfiler();
+    private final File idleFile;
+
+    private AlertEngine alerts;
+    private int lastLevel = -1;
+    private int lastStatus = -1;
+    private int lastHealth = BatteryHealth.UNKNOWN;
+    private int lastPlugged;
+
+    /**
+     * @param sampleRing the raw sample log, or null to run without one
+     */
+    public BatteryPipeline(File directory, ScheduledExecutorService writer, Clock clock, int bootCount,
+                           BatteryPropertySource properties, ChargeCycleRepository repository,
+                           RollupStore rollups, SampleRing sampleRing, Listener listener) {
+        this.writer = writer;
+        this.clock = clock;
+        this.bootCount = bootCount;
+        this.properties = properties;
+        this.repository = repository;
+        this.rollups = rollups;
+        this.sampleRing = sampleRing;
+        this.listener = listener;
+
+        chargeState = new ChargeStateMachine(
+            new ChargeStateFile(new File(directory, ChargeStateFile.FILENAME), writer));
+        predictorFile = new File(directory, PREDICTOR_FILENAME);
+        chargingFile = new File(directory, CHARGING_FILENAME);
+        chargingSessions = new ChargingSessionLog(new File(directory, ChargingSessionLog.FILENAME));
+        capacityFile = new File(directory, CAPACITY_FILENAME);
+        idleFile = new File(directory, IDLE_FILENAME);
+        loadPredictor();
+        loadCharging();
+        loadCapacity();
+        loadIdle();
+    }
+
+    public ChargeStateMachine getChargeState() {
+        return chargeState;
+    }
+
+    public ChargeCycleRepository getRepository() {
+        return repository;
+    }
+
+    public RollupStore getRollups() {
+        return rollups;
+    }
+
+    /** The raw sample log, or null if there is none. */
+    public SampleRing getSampleRing() {
+        return sampleRing;
+    }
+
+    public IdleProfiler getIdleProfiler() {
+        return idle;
+    }
+
+    public BatteryIngestion getIngestion() {
+        return ingestion;
+    }
+
+    public int getBootCount() {
+        return bootCount;
+    }
+
+    /** Replaces the alert rules evaluated on every reading; null for none. */
+    public void setAlerts(AlertEngine alerts) {
+        this.alerts = alerts;
+    }
+
+    public boolean hasState() {
+        return lastLevel >= 0;
+    }
+
+    /**
+     * Records one battery reading. The level and status transition it may
+     * cause is held until {@link #applyPending}, merging whatever else
+     * arrives in between.
+     *
+     * @return true if a transition is now pending and the caller should schedule {@link #applyPending}
+     */
+    public boolean onBatteryChanged(int levelPct, int status, int health, int plugged,
+                                    int voltage, int temperature) {
+        long now = clock.currentTimeMillis();
+        long start = Metrics.start();
+        lastPlugged = plugged;
+
+        recordSample(now, levelPct, status, health, plugged, voltage, temperature);
+        if (alerts != null) {
+            alerts.onSample(clock.elapsedRealtime(), levelPct, plugged != 0, temperature, voltage);
+        }
+        if (idle.onBatteryChanged(now, clock.elapsedRealtime(), clock.uptimeMillis(), levelPct, plugged != 0)) {
+            saveIdle();
+        }
+
+        boolean pending = ingestion.offer(now, levelPct, status);
+        if (health != lastHealth) {
+            lastHealth = health;
+            if (lastLevel >= 0) {
+                publishSnapshot(true);
+            }
+        }
+        Metrics.stop(Metrics.TIMER_BROADCAST, start);
+        return pending;
+    }
+
+    /** Applies the pending transition, if any. Returns whether there was one. */
+    public boolean applyPending() {
+        long applied = ingestion.getApplied();
+        ingestion.apply(stateSink);
+        return ingestion.getApplied() > applied;
+    }
+
+    public void onScreenChanged(boolean on) {
+        if (predictor.onScreenChanged(clock.elapsedRealtime(), on)) {
+            savePredictor();
+        }
+        if (idle.onScreenChanged(clock.currentTimeMillis(), clock.elapsedRealtime(), clock.uptimeMillis(), on)) {
+            saveIdle();
+        }
+        if (lastLevel >= 0) {
+            publishSnapshot(false);
+        }
+    }
+
+    /** Doze idle mode turned on or off. */
+    public void onIdleModeChanged(boolean idleMode) {
+        idle.onIdleModeChanged(clock.elapsedRealtime(), idleMode);
+    }
+
+    /** Applies pending state and queues every pending write ahead of anything posted after this. */
+    public void flush() {
+        applyPending();
+        repository.flushNow();
+        rollups.flushNow();
+        if (sampleRing != null) {
+            sampleRing.force();
+        }
+    }
+
+    public void publishSnapshot(boolean changed) {
+        long now = clock.currentTimeMillis();
+        // Derived from the monotonic cycle duration, so a clock change does not skew it
+        long lastFullCharge = chargeState.getLastFullCharge() > 0
+            ? now - chargeState.getCycleDurationMillis(now, clock.elapsedRealtime(), bootCount)
+            : 0;
+        long remaining = computeRemainingMillis(now, lastFullCharge);
+        long lower = -1;
+        long upper = -1;
+        RemainingTimePredictor.Prediction prediction = predictor.getPrediction();
+        if (remaining >= 0 && remaining == prediction.remainingMillis) {
+            lower = prediction.lowerMillis;
+            upper = prediction.upperMillis;
+        }
+        listener.onSnapshot(new BatterySnapshot(now, lastLevel, BatteryStatus.isCharging(lastStatus),
+            lastHealth, lastFullCharge, remaining, lower, upper,
+            charging.getEstimator().getTimeToFullMillis(),
+            capacity.getCapacityMah(), capacity.getWearPercent(properties.getDesignCapacityMah())), changed);
+    }
+
+    public void dump(PrintWriter writer) {
+        chargeState.dump(writer, clock.currentTimeMillis(), clock.elapsedRealtime(), bootCount);
+        writer.println("Ingestion:");
+        writer.println("  received=" + ingestion.getReceived()
+            + " dropped=" + ingestion.getDropped()
+            + " coalesced=" + ingestion.getCoalesced()
+            + " applied=" + ingestion.getApplied());
+        capacity.dump(writer, properties.getDesignCapacityMah());
+        idle.dump(writer);
+        try {
+            List<ChargingSession> sessions = chargingSessions.readRecent(DUMPED_SESSIONS);
+            if (!sessions.isEmpty()) {
+                writer.println("Recent charging sessions:");
+            }
+            for (ChargingSession session : sessions) {
+                writer.println(String.format(Locale.US, "  %d plugged=%d %d%% -> %d%% in %s",
+                    session.startTime, session.plugged, session.startLevel, session.endLevel,
+                    BatteryFormat.formatTimeDuration(session.endTime - session.startTime)));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (alerts != null) {
+            alerts.dump(writer);
+        }
+    }
+
+    private void applyBatteryState(long now, int batteryPct, int status, boolean reachedFull) {
+        long start = Metrics.start();
+        boolean isCharging = BatteryStatus.isCharging(status);
+
+        writer.execute(() -> rollups.addSample(now, batteryPct, isCharging));
+
+        long elapsed = clock.elapsedRealtime();
+        ChargeCycle newCycle = chargeState.onBatteryState(now, elapsed, bootCount, batteryPct, isCharging, reachedFull);
+        if (newCycle != null) {
+            repository.addChargeCycle(newCycle);
+            if (idle.onCycleStart(newCycle.fullChargeTimestamp)) {
+                saveIdle();
+            }
+            writer.execute(() -> rollups.addCycleStart(now, newCycle.startLevel));
+        }
+
+        lastLevel = batteryPct;
+        lastStatus = status;
+        if (predictor.onBatteryChanged(elapsed, batteryPct, isCharging)) {
+            savePredictor();
+        }
+        if (charging.onBatteryState(now, elapsed, batteryPct, isCharging, lastPlugged)) {
+            saveCharging(charging.pollFinished());
+        }
+        if (!isCharging && chargeState.getLastFullCharge() > 0) {
+            repository.updateCurrentCycle(chargeState.getCycleDurationMillis(now, elapsed, bootCount), batteryPct);
+        }
+        publishSnapshot(true);
+        Metrics.stop(Metrics.TIMER_STATE_APPLY, start);
+    }
+
+    private long computeRemainingMillis(long now, long lastFullCharge) {
+        if (lastFullCharge <= 0 || lastLevel >= 100 || BatteryStatus.isCharging(lastStatus)) {
+            return BatterySnapshot.REMAINING_NOT_AVAILABLE;
+        }
+
+        // Screen-aware projection once it has learned enough
+        RemainingTimePredictor.Prediction prediction = predictor.getPrediction();
+        if (prediction.remainingMillis >= 0) {
+            return prediction.remainingMillis;
+        }
+
+        double avgDrainRate = repository.getAverageDrainRate();
+        if (avgDrainRate > 0) {
+            return (long) (lastLevel / avgDrainRate * 3600000);
+        }
+
+        // Fallback to current cycle calculation if no historical data
+        long timeDiff = now - lastFullCharge;
+        int startLevel = chargeState.getChargeStartLevel();
+        float percentUsed = startLevel - lastLevel;
+        if (percentUsed > 0 && timeDiff > 0) {
+            double drainRatePerHour = percentUsed / (timeDiff / 3600000.0);
+            return (long) (lastLevel / drainRatePerHour * 3600000);
+        }
+        return BatterySnapshot.REMAINING_CALCULATING;
+    }
+
+    private void recordSample(long now, int levelPct, int status, int health, int plugged,
+                              int voltage, int temperature) {
+        int currentNow = properties.getCurrentNow();
+        int chargeCounter = properties.getChargeCounter();
+        if (capacity.onSample(now, clock.elapsedRealtime(), levelPct, BatteryStatus.isCharging(status),
+                chargeCounter, currentNow)) {
+            saveCapacity();
+        }
+        if (sampleRing == null) {
+            return;
+        }
+        sampleRing.append(now, levelPct, voltage, temperature, currentNow, chargeCounter, status, plugged, health);
+        Metrics.increment(Metrics.COUNTER_SAMPLES_RECORDED);
+    }
+
+    private void loadCapacity() {
+        try {
+            byte[] data = StateFiles.read(capacityFile);
+            if (data != null) {
+                capacity.readFrom(new DataInputStream(new ByteArrayInputStream(data)));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void saveCapacity() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            capacity.writeTo(new DataOutputStream(bytes));
+            writeLater(capacityFile, bytes.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void loadIdle() {
+        try {
+            byte[] data = StateFiles.read(idleFile);
+            if (data != null) {
+                idle.readFrom(new DataInputStream(new ByteArrayInputStream(data)));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void saveIdle() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+            idle.writeTo(new DataOutputStream(bytes));
+            writeLater(idleFile, bytes.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void loadPredictor() {
+        try {
+            byte[] data = StateFiles.read(predictorFile);
+            if (data != null) {
+                predictor.readFrom(new DataInputStream(new ByteArrayInputStream(data)));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void savePredictor() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            predictor.writeTo(new DataOutputStream(bytes));
+            writeLater(predictorFile, bytes.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void loadCharging() {
+        try {
+            byte[] data = StateFiles.read(chargingFile);
+            if (data != null) {
+                charging.readFrom(new DataInputStream(new ByteArrayInputStream(data)), clock.elapsedRealtime());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Saves the curves and the session in progress, and logs a finished session if there is one. */
+    private void saveCharging(final ChargingSession finished) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(2048);
+            charging.writeTo(new DataOutputStream(bytes));
+            final byte[] data = bytes.toByteArray();
+            writer.execute(() -> {
+                try {
+                    if (finished != null) {
+                        chargingSessions.append(finished);
+                    }
+                    StateFiles.writeAtomically(chargingFile, data);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeLater(final File file, final byte[] data) {
+        writer.execute(() -> {
+            try {
+                StateFiles.writeAtomically(file, data);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+}
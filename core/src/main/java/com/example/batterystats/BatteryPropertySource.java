@@ -0,0 +1,20 @@
+package com.example.batterystats;
+
+/**
+ * Battery readings beyond the BATTERY_CHANGED extras. On Android they come
+ * from {@code BatteryManager.getIntProperty}; keeping them behind this
+ * interface lets the capacity math run on the JVM with recorded values.
+ */
+public interface BatteryPropertySource {
+    /** Returned for a reading the device does not provide. */
+    int UNKNOWN = Integer.MIN_VALUE;
+
+    /** Remaining charge in microampere-hours. */
+    int getChargeCounter();
+
+    /** Instantaneous current in microamperes. The sign convention varies by device. */
+    int getCurrentNow();
+
+    /** Capacity the battery was designed for in mAh, where the platform exposes it. */
+    int getDesignCapacityMah();
+}
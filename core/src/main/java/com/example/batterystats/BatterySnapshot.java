@@ -0,0 +1,90 @@
+package com.example.batterystats;
+
+/**
+ * Immutable view of the battery for display. Built once per battery event
+ * by the service and shared by every consumer.
+ */
+public final class BatterySnapshot {
+    /** {@link #remainingMillis} when there is no running cycle or the battery is charging. */
+    public static final long REMAINING_NOT_AVAILABLE = -1;
+    /** {@link #remainingMillis} when a cycle is running but nothing has drained yet. */
+    public static final long REMAINING_CALCULATING = -2;
+
+    public final long timestamp;
+    public final int level;
+    public final boolean charging;
+    public final int health;
+    /** Start of the current cycle, or 0 if no full charge has been seen. */
+    public final long lastFullCharge;
+    public final long remainingMillis;
+    /** Confidence bounds of {@link #remainingMillis}, or -1 when the estimate has none. */
+    public final long remainingLowerMillis;
+    public final long remainingUpperMillis;
+    /** Time until full while charging, or -1 when not charging or not known. */
+    public final long fullMillis;
+    /**
+     * Estimated full capacity in mAh and the percent lost to wear, or -1 before
+     * the first estimate. Wear is also -1 while the design capacity is unknown.
+     */
+    public final int capacityMah;
+    public final int wearPercent;
+
+    // Text is built on first use; the on-screen path formats into buffers instead
+    private String levelText;
+    private String sinceFullText;
+    private String remainingText;
+    private String healthText;
+
+    public BatterySnapshot(long timestamp, int level, boolean charging, int health,
+                           long lastFullCharge, long remainingMillis,
+                           long remainingLowerMillis, long remainingUpperMillis, long fullMillis,
+                           int capacityMah, int wearPercent) {
+        this.timestamp = timestamp;
+        this.level = level;
+        this.charging = charging;
+        this.health = health;
+        this.lastFullCharge = lastFullCharge;
+        this.remainingMillis = remainingMillis;
+        this.remainingLowerMillis = remainingLowerMillis;
+        this.remainingUpperMillis = remainingUpperMillis;
+        this.fullMillis = fullMillis;
+        this.capacityMah = capacityMah;
+        this.wearPercent = wearPercent;
+    }
+
+    public long getSinceFullMillis() {
+        return lastFullCharge > 0 ? timestamp - lastFullCharge : 0;
+    }
+
+    public String getLevelText() {
+        if (levelText == null) {
+            char[] out = new char[BatteryFormat.MAX_LENGTH];
+            levelText = new String(out, 0, BatteryFormat.writeLevel(out, this));
+        }
+        return levelText;
+    }
+
+    public String getSinceFullText() {
+        if (sinceFullText == null) {
+            char[] out = new char[BatteryFormat.MAX_LENGTH];
+            sinceFullText = new String(out, 0, BatteryFormat.writeSinceFull(out, this));
+        }
+        return sinceFullText;
+    }
+
+    public String getRemainingText() {
+        if (remainingText == null) {
+            char[] out = new char[BatteryFormat.MAX_LENGTH];
+            remainingText = new String(out, 0, BatteryFormat.writeRemaining(out, this));
+        }
+        return remainingText;
+    }
+
+    public String getHealthText() {
+        if (healthText == null) {
+            char[] out = new char[BatteryFormat.MAX_LENGTH];
+            healthText = new String(out, 0, BatteryFormat.writeHealth(out, this));
+        }
+        return healthText;
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.batterystats;
+
+/**
+ * Battery status values as reported in {@code BatteryManager.EXTRA_STATUS},
+ * and plug sources as in {@code EXTRA_PLUGGED}, mirrored here so the core
+ * logic does not depend on the Android framework.
+ */
+public final class BatteryStatus {
+    public static final int UNKNOWN = 1;
+    public static final int CHARGING = 2;
+    public static final int DISCHARGING = 3;
+    public static final int NOT_CHARGING = 4;
+    public static final int FULL = 5;
+
+    public static final int PLUGGED_AC = 1;
+    public static final int PLUGGED_USB = 2;
+    public static final int PLUGGED_WIRELESS = 4;
+    public static final int PLUGGED_DOCK = 8;
+
+    private BatteryStatus() {
+    }
+
+    public static boolean isCharging(int status) {
+        return status == CHARGING || status == FULL;
+    }
+}
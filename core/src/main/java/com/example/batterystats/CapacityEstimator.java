@@ -0,0 +1,238 @@
+package com.example.batterystats;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Estimates the battery's effective full capacity and how it fades.
+ *
+ * Within a run of samples in one direction, charging or discharging, the
+ * charge that flowed is measured against the level it moved: the change of
+ * the charge counter where the device has one, otherwise the current
+ * integrated over time. Every {@link #MIN_LEVEL_SPAN} percent this gives one
+ * capacity estimate in mAh. The estimates feed an exponentially weighted
+ * least squares fit of capacity over time, kept as five running sums, so the
+ * fitted capacity follows slow wear while single noisy runs average out.
+ * Wear is measured against the design capacity, so it is only reported where
+ * the platform exposes one; without it the fit can only say how far capacity
+ * fell since the first estimate, which misses the wear before install.
+ *
+ * Every sample costs O(1) with no allocation. Not thread-safe; the engine
+ * calls it from the main thread.
+ */
+public class CapacityEstimator {
+    private static final int MAGIC = 0x48424331; // "HBC1"
+    private static final int MIN_LEVEL_SPAN = 10;
+    private static final double MIN_PLAUSIBLE_MAH = 300;
+    private static final double MAX_PLAUSIBLE_MAH = 30_000;
+    // Longer gaps between current readings are not integrated
+    private static final long MAX_INTEGRATION_GAP_MS = 10 * 60 * 1000L;
+    // Weight kept by older estimates each time a new one arrives
+    private static final double FORGETTING = 0.98;
+    private static final double DAY_MS = 24 * 3600 * 1000.0;
+    private static final int MIN_FIT_ESTIMATES = 3;
+
+    // Weighted regression of capacity (mAh) on days since the first estimate
+    private long origin;
+    private int estimates;
+    private double weight;
+    private double sumX;
+    private double sumY;
+    private double sumXX;
+    private double sumXY;
+    private double referenceMah;
+    private double lastEstimateMah;
+
+    // Current run
+    private int anchorLevel = -1;
+    private boolean anchorCharging;
+    private int anchorCounter = BatteryPropertySource.UNKNOWN;
+    private long lastElapsed;
+    private int lastCurrent = BatteryPropertySource.UNKNOWN;
+    private double integratedMicroAh;
+    private boolean integralValid;
+
+    // Fitted values as of the last estimate
+    private double capacityMah = -1;
+    private double fadeMahPerDay;
+
+    /**
+     * Takes one sample. Counter and current may be {@link BatteryPropertySource#UNKNOWN}.
+     *
+     * @return true if an estimate was folded in or a new run started, meaning the state is worth saving
+     */
+    public boolean onSample(long wallTime, long elapsed, int level, boolean charging,
+                            int chargeCounter, int currentNow) {
+        if (anchorLevel < 0 || charging != anchorCharging || elapsed < lastElapsed
+                || (charging ? level < anchorLevel : level > anchorLevel)) {
+            anchor(elapsed, level, charging, chargeCounter, currentNow);
+            return true;
+        }
+
+        // Trapezoid rule; the sign convention differs between devices, the magnitude does not
+        if (currentNow != BatteryPropertySource.UNKNOWN && lastCurrent != BatteryPropertySource.UNKNOWN
+                && elapsed - lastElapsed <= MAX_INTEGRATION_GAP_MS) {
+            integratedMicroAh += (Math.abs((double) currentNow) + Math.abs((double) lastCurrent)) / 2
+                * (elapsed - lastElapsed) / 3600000.0;
+        } else if (elapsed > lastElapsed) {
+            integralValid = false;
+        }
+        lastElapsed = elapsed;
+        lastCurrent = currentNow;
+
+        int span = Math.abs(level - anchorLevel);
+        if (span < MIN_LEVEL_SPAN) {
+            return false;
+        }
+        double chargeMicroAh = -1;
+        if (isKnown(chargeCounter) && isKnown(anchorCounter)) {
+            chargeMicroAh = Math.abs((double) chargeCounter - anchorCounter);
+        } else if (integralValid) {
+            chargeMicroAh = integratedMicroAh;
+        }
+        if (chargeMicroAh > 0) {
+            double mah = chargeMicroAh / 1000 / (span / 100.0);
+            if (mah >= MIN_PLAUSIBLE_MAH && mah <= MAX_PLAUSIBLE_MAH) {
+                fold(wallTime, mah);
+            }
+        }
+        anchor(elapsed, level, charging, chargeCounter, currentNow);
+        return true;
+    }
+
+    /** Fitted full capacity in mAh, or -1 before the first estimate. */
+    public int getCapacityMah() {
+        return (int) Math.round(capacityMah);
+    }
+
+    /**
+     * Percent of capacity lost against {@code designCapacityMah}. Returns -1
+     * before the first estimate or when the design capacity is not known.
+     */
+    public int getWearPercent(int designCapacityMah) {
+        if (capacityMah < 0 || designCapacityMah <= 0) {
+            return -1;
+        }
+        return lossPercent(designCapacityMah);
+    }
+
+    /** Percent of capacity lost since the best fitted capacity, or -1 before the first estimate. */
+    public int getFadeSinceInstallPercent() {
+        if (capacityMah < 0) {
+            return -1;
+        }
+        return lossPercent(referenceMah);
+    }
+
+    private int lossPercent(double reference) {
+        return (int) Math.round(Math.max(0, Math.min(100, 100 * (1 - capacityMah / reference))));
+    }
+
+    public int getEstimateCount() {
+        return estimates;
+    }
+
+    public void dump(PrintWriter writer, int designCapacityMah) {
+        if (estimates == 0) {
+            writer.println("Capacity: no estimate yet");
+            return;
+        }
+        int wear = getWearPercent(designCapacityMah);
+        writer.println(String.format(Locale.US,
+            "Capacity: %.0f mAh, wear %s, %d%% since install, fade %.0f mAh/year"
+                + " (%d estimates, last %.0f mAh, design %s)",
+            capacityMah, wear >= 0 ? wear + "%" : "unknown", getFadeSinceInstallPercent(), fadeMahPerDay * 365,
+            estimates, lastEstimateMah, designCapacityMah > 0 ? designCapacityMah + " mAh" : "unknown"));
+    }
+
+    private void anchor(long elapsed, int level, boolean charging, int chargeCounter, int currentNow) {
+        anchorLevel = level;
+        anchorCharging = charging;
+        anchorCounter = chargeCounter;
+        lastElapsed = elapsed;
+        lastCurrent = currentNow;
+        integratedMicroAh = 0;
+        integralValid = true;
+    }
+
+    private void fold(long wallTime, double mah) {
+        if (estimates == 0) {
+            origin = wallTime;
+        }
+        double x = (wallTime - origin) / DAY_MS;
+        weight = weight * FORGETTING + 1;
+        sumX = sumX * FORGETTING + x;
+        sumY = sumY * FORGETTING + mah;
+        sumXX = sumXX * FORGETTING + x * x;
+        sumXY = sumXY * FORGETTING + x * mah;
+        estimates++;
+        lastEstimateMah = mah;
+        refit(x);
+    }
+
+    private void refit(double x) {
+        double meanX = sumX / weight;
+        double meanY = sumY / weight;
+        double varX = sumXX / weight - meanX * meanX;
+        if (estimates >= MIN_FIT_ESTIMATES && varX > 1e-6) {
+            fadeMahPerDay = (sumXY / weight - meanX * meanY) / varX;
+            capacityMah = meanY + fadeMahPerDay * (x - meanX);
+        } else {
+            // Not enough spread in time for a slope yet
+            fadeMahPerDay = 0;
+            capacityMah = meanY;
+        }
+        referenceMah = Math.max(referenceMah, capacityMah);
+    }
+
+    private static boolean isKnown(int chargeCounter) {
+        return chargeCounter != BatteryPropertySource.UNKNOWN && chargeCounter > 0;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeLong(origin);
+        out.writeInt(estimates);
+        out.writeDouble(weight);
+        out.writeDouble(sumX);
+        out.writeDouble(sumY);
+        out.writeDouble(sumXX);
+        out.writeDouble(sumXY);
+        out.writeDouble(referenceMah);
+        out.writeDouble(lastEstimateMah);
+        out.writeDouble(capacityMah);
+        out.writeDouble(fadeMahPerDay);
+        out.writeInt(anchorLevel);
+        out.writeBoolean(anchorCharging);
+        out.writeInt(anchorCounter);
+        out.writeLong(lastElapsed);
+    }
+
+    /** Restores what {@link #writeTo} saved. The current integral is not kept across processes. */
+    public void readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a capacity state file");
+        }
+        origin = in.readLong();
+        estimates = in.readInt();
+        weight = in.readDouble();
+        sumX = in.readDouble();
+        sumY = in.readDouble();
+        sumXX = in.readDouble();
+        sumXY = in.readDouble();
+        referenceMah = in.readDouble();
+        lastEstimateMah = in.readDouble();
+        capacityMah = in.readDouble();
+        fadeMahPerDay = in.readDouble();
+        anchorLevel = in.readInt();
+        anchorCharging = in.readBoolean();
+        anchorCounter = in.readInt();
+        lastElapsed = in.readLong();
+        lastCurrent = BatteryPropertySource.UNKNOWN;
+        integratedMicroAh = 0;
+        integralValid = false;
+    }
+}
@@ -17,6 +17,13 @@ public class ChargeCycle {
         this.endLevel = startLevel;
     }
     
+    public ChargeCycle(ChargeCycle other) {
+        this.fullChargeTimestamp = other.fullChargeTimestamp;
+        this.startLevel = other.startLevel;
+        this.durationMillis = other.durationMillis;
+        this.endLevel = other.endLevel;
+    }
+    
     public void updateEndData(long currentTime, int currentLevel) {
         this.durationMillis = currentTime - fullChargeTimestamp;
         this.endLevel = currentLevel;
@@ -0,0 +1,213 @@
+package com.example.batterystats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Process-wide owner of the charge cycle history.
+ *
+ * The cycle list lives in memory. Readers get an immutable snapshot through a
+ * volatile field and never block. Every mutation is posted to the writer
+ * thread, which applies it, publishes a new snapshot and schedules a
+ * coalesced flush, so a burst of updates costs one write.
+ */
+public class ChargeCycleRepository {
+    public static final int DEFAULT_MAX_CYCLES = 30; // Keep last 30 cycles
+    private static final long FLUSH_DELAY_MS = 2000;
+
+    private final BatteryDataManager storage;
+    private final ScheduledExecutorService writer;
+    private final CoalescingTask flushTask;
+    private final int maxCycles;
+
+    // Only touched on the writer thread. Live cycles are array[start, end).
+    private ChargeCycle[] array;
+    private int start;
+    private int end;
+    private final Map<Long, ChargeCycle> pendingWrites = new LinkedHashMap<>();
+    private final DrainStatistics statistics = new DrainStatistics();
+    private boolean statisticsDirty;
+
+    private volatile CycleSnapshot snapshot = CycleSnapshot.EMPTY;
+
+    public ChargeCycleRepository(BatteryDataManager storage, ScheduledExecutorService writer, int maxCycles) {
+        this.storage = storage;
+        this.writer = writer;
+        this.maxCycles = maxCycles;
+        this.flushTask = new CoalescingTask(writer, this::flush, FLUSH_DELAY_MS);
+        writer.execute(this::ensureLoaded);
+    }
+
+    /** Returns the current cycles, oldest first. The cycles must not be modified. */
+    public CycleSnapshot getCycles() {
+        return snapshot;
+    }
+
+    public double getAverageDrainRate() {
+        return statistics.getSummary().averageRate;
+    }
+
+    public DrainStatistics.Summary getDrainStatistics() {
+        return statistics.getSummary();
+    }
+
+    public void addChargeCycle(ChargeCycle cycle) {
+        final ChargeCycle copy = new ChargeCycle(cycle);
+        writer.execute(() -> applyAdd(copy));
+    }
+
+    /** Sets how long the newest cycle has been running and where its level is now. */
+    public void updateCurrentCycle(long durationMillis, int currentLevel) {
+        writer.execute(() -> applyUpdate(durationMillis, currentLevel));
+    }
+
+    /** Writes pending changes now instead of waiting for the coalescing delay. */
+    public void flushNow() {
+        writer.execute(flushTask::runNowIfPending);
+    }
+
+    /** Adds or replaces a cycle. Must run on the writer thread. */
+    void applyAdd(ChargeCycle cycle) {
+        ensureLoaded();
+        ChargeCycle previous = end > start ? array[end - 1] : null;
+        if (previous == null || previous.fullChargeTimestamp < cycle.fullChargeTimestamp) {
+            if (end == array.length) {
+                reallocate(Math.max(16, (end - start) * 2));
+            }
+            array[end++] = cycle;
+            if (previous != null) {
+                // A new cycle started, so the previous one is complete
+                statisticsDirty |= statistics.addCycle(previous);
+            }
+        } else {
+            // Out of order, rare enough that copying the array is fine
+            List<ChargeCycle> cycles = new ArrayList<>(snapshot);
+            CycleJournal.upsert(cycles, cycle);
+            array = cycles.toArray(new ChargeCycle[Math.max(16, cycles.size() * 2)]);
+            start = 0;
+            end = cycles.size();
+        }
+        if (end - start > maxCycles) {
+            start = end - maxCycles;
+        }
+        pendingWrites.put(cycle.fullChargeTimestamp, cycle);
+        publish();
+    }
+
+    /**
+     * Adds an imported cycle unless one with the same full charge timestamp
+     * exists. Only history before the running cycle is taken, and nothing
+     * older than the retained cycles once they are at the limit, so an import
+     * never replaces the cycle being tracked. Must run on the writer thread.
+     *
+     * @return whether the cycle was added
+     */
+    boolean applyImport(ChargeCycle cycle) {
+        ensureLoaded();
+        int size = end - start;
+        if (size > 0) {
+            long newest = array[end - 1].fullChargeTimestamp;
+            if (cycle.fullChargeTimestamp >= newest) {
+                return false;
+            }
+            if (size >= maxCycles && cycle.fullChargeTimestamp < array[start].fullChargeTimestamp) {
+                return false;
+            }
+            if (contains(cycle.fullChargeTimestamp)) {
+                return false;
+            }
+        }
+        applyAdd(new ChargeCycle(cycle));
+        return true;
+    }
+
+    private boolean contains(long fullChargeTimestamp) {
+        int low = start;
+        int high = end - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long timestamp = array[mid].fullChargeTimestamp;
+            if (timestamp < fullChargeTimestamp) {
+                low = mid + 1;
+            } else if (timestamp > fullChargeTimestamp) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Moves the newest cycle's end to the given duration and level. Must run on the writer thread. */
+    void applyUpdate(long durationMillis, int currentLevel) {
+        ensureLoaded();
+        if (end == start) {
+            return;
+        }
+        ChargeCycle current = array[end - 1];
+        if (current.durationMillis == durationMillis && current.endLevel == currentLevel) {
+            return;
+        }
+        // Replace rather than mutate so published snapshots stay unchanged
+        ChargeCycle updated = new ChargeCycle(current);
+        updated.durationMillis = durationMillis;
+        updated.endLevel = currentLevel;
+        array[end - 1] = updated;
+        pendingWrites.put(updated.fullChargeTimestamp, updated);
+        publish();
+    }
+
+    /** Writes everything pending. Must run on the writer thread. */
+    void flush() {
+        if (!pendingWrites.isEmpty()) {
+            List<ChargeCycle> changed = new ArrayList<>(pendingWrites.values());
+            pendingWrites.clear();
+            storage.saveChargeCycles(changed, snapshot);
+        }
+        if (statisticsDirty) {
+            statisticsDirty = false;
+            storage.saveStatistics(statistics);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (array != null) {
+            return;
+        }
+        List<ChargeCycle> cycles = storage.loadChargeCycles();
+        array = cycles.toArray(new ChargeCycle[Math.max(16, cycles.size() * 2)]);
+        end = cycles.size();
+        start = Math.max(0, end - maxCycles);
+        if (!storage.loadStatistics(statistics)) {
+            // First run with statistics: seed them from every completed cycle
+            for (int i = start; i < end - 1; i++) {
+                statisticsDirty |= statistics.addCycle(array[i]);
+            }
+            if (statisticsDirty) {
+                flushTask.request();
+            }
+        }
+        publishSnapshot();
+    }
+
+    /** Moves the live cycles to the front of a new array, leaving published snapshots untouched. */
+    private void reallocate(int capacity) {
+        array = Arrays.copyOfRange(array, start, start + capacity);
+        end -= start;
+        start = 0;
+    }
+
+    private void publish() {
+        publishSnapshot();
+        flushTask.request();
+    }
+
+    private void publishSnapshot() {
+        int size = end - start;
+        snapshot = size == 0 ? CycleSnapshot.EMPTY : new CycleSnapshot(array, start, size, array[end - 1]);
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.batterystats;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the {@link ChargeStateMachine} record in its own small file. Loading
+ * reads it directly; saves are replaced atomically on the writer.
+ */
+public class ChargeStateFile implements ChargeStateMachine.Store {
+    public static final String FILENAME = "charge_state.bin";
+
+    private final File file;
+    private final Executor writer;
+
+    public ChargeStateFile(File file, Executor writer) {
+        this.file = file;
+        this.writer = writer;
+    }
+
+    @Override
+    public byte[] load() {
+        try {
+            return StateFiles.read(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public void save(final byte[] record) {
+        writer.execute(() -> {
+            try {
+                StateFiles.writeAtomically(file, record);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+}
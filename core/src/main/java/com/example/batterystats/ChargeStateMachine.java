@@ -0,0 +1,241 @@
+package com.example.batterystats;
+
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+
+/**
+ * Tracks the charger as explicit states and decides when a charge cycle
+ * starts: the battery has to reach FULL while charging and then be unplugged.
+ *
+ * <pre>
+ *   UNKNOWN ----> CHARGING <---> DISCHARGING
+ *      |             |               ^
+ *      |             v               |
+ *      +-------->  FULL  ------------+  starts a cycle
+ * </pre>
+ *
+ * Every transition is stamped with the wall clock, elapsed realtime and the
+ * boot count. Cycle durations come from elapsed realtime while the device
+ * has not rebooted, so setting the clock does not stretch or shrink them;
+ * across a reboot only the wall clock is left. Unplugging at full without
+ * having drained since the last cycle started, a top-up, continues that
+ * cycle instead of starting a new one.
+ *
+ * The whole state is one fixed-size record, saved only when the state
+ * changes and never for a plain level change.
+ *
+ * Not thread-safe; the engine calls it from the main thread.
+ */
+public class ChargeStateMachine {
+    public static final int STATE_UNKNOWN = 0;
+    public static final int STATE_CHARGING = 1;
+    public static final int STATE_FULL = 2;
+    public static final int STATE_DISCHARGING = 3;
+
+    /** Boot count when the platform does not report one. */
+    public static final int BOOT_UNKNOWN = -1;
+
+    private static final String[] STATE_NAMES = {"unknown", "charging", "full", "discharging"};
+    private static final int FULL_LEVEL = 99;
+
+    /*
+     * Record layout, 64 bytes:
+     *
+     *   0  int   magic "HCS1"
+     *   4  int   version
+     *   8  int   state
+     *  12  int   boot count at the state change
+     *  16  long  wall clock at the state change
+     *  24  long  elapsed realtime at the state change
+     *  32  long  wall clock at the cycle start, 0 if none
+     *  40  long  elapsed realtime at the cycle start, -1 if unknown
+     *  48  int   boot count at the cycle start
+     *  52  int   level at the cycle start
+     *  56  byte  drained below full since the cycle start
+     *  57  7 bytes reserved
+     */
+    private static final int RECORD_SIZE = 64;
+    private static final int MAGIC = 0x48435331; // "HCS1"
+    private static final int VERSION = 1;
+
+    /** Where the record is kept between process restarts. */
+    public interface Store {
+        /** Returns the saved record, or null if there is none. */
+        byte[] load();
+
+        /** Replaces the saved record in a single write. */
+        void save(byte[] record);
+    }
+
+    private final Store store;
+    private boolean restored;
+
+    private int state = STATE_UNKNOWN;
+    private int stateBoot = BOOT_UNKNOWN;
+    private long stateWallTime;
+    private long stateElapsed;
+
+    private long cycleWallTime;
+    private long cycleElapsed = -1;
+    private int cycleBoot = BOOT_UNKNOWN;
+    private int cycleStartLevel = 100;
+    private boolean drained;
+
+    public ChargeStateMachine(Store store) {
+        this.store = store;
+        restored = decode(store.load());
+    }
+
+    /** Whether a saved record was found, as opposed to starting from UNKNOWN. */
+    public boolean isRestored() {
+        return restored;
+    }
+
+    /**
+     * Seeds the state from the preference flags of earlier versions. Their
+     * cycle start has no elapsed time, so its duration uses the wall clock.
+     */
+    public void importLegacy(boolean wasFull, long lastFullCharge, int chargeStartLevel,
+                             long wallTime, long elapsed, int bootCount) {
+        state = wasFull ? STATE_FULL : STATE_UNKNOWN;
+        stateBoot = bootCount;
+        stateWallTime = wallTime;
+        stateElapsed = elapsed;
+        cycleWallTime = lastFullCharge;
+        cycleElapsed = -1;
+        cycleBoot = BOOT_UNKNOWN;
+        cycleStartLevel = chargeStartLevel;
+        drained = true;
+        restored = true;
+        store.save(encode());
+    }
+
+    /**
+     * Applies one battery transition.
+     *
+     * @param reachedFull whether the battery was full while charging earlier
+     *                    in a burst that was merged into this transition
+     * @return the cycle this transition started, or null
+     */
+    public ChargeCycle onBatteryState(long wallTime, long elapsed, int bootCount,
+                                      int level, boolean charging, boolean reachedFull) {
+        boolean changed = false;
+        ChargeCycle started = null;
+
+        if (cycleWallTime > 0 && !drained && level < FULL_LEVEL) {
+            drained = true;
+            changed = true;
+        }
+
+        int next;
+        if (charging) {
+            next = state == STATE_FULL || reachedFull || level >= FULL_LEVEL ? STATE_FULL : STATE_CHARGING;
+        } else {
+            next = STATE_DISCHARGING;
+            // A merged burst may have gone full and been unplugged in between
+            if ((state == STATE_FULL || reachedFull) && (drained || cycleWallTime <= 0)) {
+                cycleWallTime = wallTime;
+                cycleElapsed = elapsed;
+                cycleBoot = bootCount;
+                cycleStartLevel = level;
+                drained = level < FULL_LEVEL;
+                started = new ChargeCycle(wallTime, level);
+                changed = true;
+            }
+        }
+
+        if (next != state) {
+            state = next;
+            stateBoot = bootCount;
+            stateWallTime = wallTime;
+            stateElapsed = elapsed;
+            changed = true;
+        }
+        if (changed) {
+            store.save(encode());
+        }
+        return started;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    /** Wall clock start of the current cycle, or 0 if no full charge has been seen. */
+    public long getLastFullCharge() {
+        return cycleWallTime;
+    }
+
+    public int getChargeStartLevel() {
+        return cycleStartLevel;
+    }
+
+    /** Time since the current cycle started, or 0 if there is none. */
+    public long getCycleDurationMillis(long wallTime, long elapsed, int bootCount) {
+        if (cycleWallTime <= 0) {
+            return 0;
+        }
+        return Math.max(0, since(cycleWallTime, cycleElapsed, cycleBoot, wallTime, elapsed, bootCount));
+    }
+
+    public static String getStateName(int state) {
+        return state >= 0 && state < STATE_NAMES.length ? STATE_NAMES[state] : "state " + state;
+    }
+
+    public void dump(PrintWriter writer, long wallTime, long elapsed, int bootCount) {
+        writer.println("Charge state: " + getStateName(state) + " for "
+            + BatteryFormat.formatTimeDuration(Math.max(0,
+                since(stateWallTime, stateElapsed, stateBoot, wallTime, elapsed, bootCount)))
+            + " (boot " + bootCount + ")");
+        if (cycleWallTime > 0) {
+            writer.println("  cycle started at " + cycleWallTime + " from " + cycleStartLevel
+                + "%, " + BatteryFormat.formatTimeDuration(getCycleDurationMillis(wallTime, elapsed, bootCount))
+                + " ago" + (drained ? "" : ", not drained yet"));
+        }
+    }
+
+    private static long since(long thenWall, long thenElapsed, int thenBoot,
+                              long wallTime, long elapsed, int bootCount) {
+        // Elapsed realtime restarts at boot; without boot counts a smaller value still gives a reboot away
+        if (thenElapsed >= 0 && thenBoot == bootCount && elapsed >= thenElapsed) {
+            return elapsed - thenElapsed;
+        }
+        return wallTime - thenWall;
+    }
+
+    byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(state);
+        buffer.putInt(stateBoot);
+        buffer.putLong(stateWallTime);
+        buffer.putLong(stateElapsed);
+        buffer.putLong(cycleWallTime);
+        buffer.putLong(cycleElapsed);
+        buffer.putInt(cycleBoot);
+        buffer.putInt(cycleStartLevel);
+        buffer.put((byte) (drained ? 1 : 0));
+        return buffer.array();
+    }
+
+    private boolean decode(byte[] data) {
+        if (data == null || data.length != RECORD_SIZE) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return false;
+        }
+        state = buffer.getInt();
+        stateBoot = buffer.getInt();
+        stateWallTime = buffer.getLong();
+        stateElapsed = buffer.getLong();
+        cycleWallTime = buffer.getLong();
+        cycleElapsed = buffer.getLong();
+        cycleBoot = buffer.getInt();
+        cycleStartLevel = buffer.getInt();
+        drained = buffer.get() != 0;
+        return true;
+    }
+}
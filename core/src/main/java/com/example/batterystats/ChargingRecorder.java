@@ -0,0 +1,142 @@
+package com.example.batterystats;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Records charging sessions and drives the {@link TimeToFullEstimator}.
+ *
+ * A level step is timed only when both of its ends were seen, so the level
+ * the charger was plugged in at and steps merged by a burst of broadcasts
+ * are left out of the curve. Steps use elapsed realtime.
+ *
+ * Not thread-safe; the engine drives it from the main thread.
+ */
+public class ChargingRecorder {
+    private static final int MAGIC = 0x48425431; // "HBT1"
+
+    private final TimeToFullEstimator estimator = new TimeToFullEstimator();
+    // Indexed by level, the time of the step up from it
+    private final int[] steps = new int[100];
+
+    private boolean charging;
+    private int plugged;
+    private long startTime;
+    private int startLevel;
+    private int level = -1;
+    private long levelStartElapsed = -1;
+    private ChargingSession finished;
+
+    public TimeToFullEstimator getEstimator() {
+        return estimator;
+    }
+
+    public boolean isCharging() {
+        return charging;
+    }
+
+    /**
+     * Applies one battery transition.
+     *
+     * @return true if the state changed in a way worth saving
+     */
+    public boolean onBatteryState(long wallTime, long elapsed, int newLevel, boolean nowCharging, int newPlugged) {
+        if (!nowCharging) {
+            if (!charging) {
+                return false;
+            }
+            finish(wallTime);
+            return true;
+        }
+        if (charging && newPlugged != 0 && newPlugged != plugged) {
+            finish(wallTime);
+        }
+        if (!charging) {
+            charging = true;
+            plugged = newPlugged;
+            startTime = wallTime;
+            startLevel = newLevel;
+            level = newLevel;
+            levelStartElapsed = -1;
+            Arrays.fill(steps, ChargingSession.STEP_UNKNOWN);
+            estimator.begin(plugged, newLevel);
+            return true;
+        }
+        if (newLevel == level) {
+            return false;
+        }
+        if (newLevel == level + 1 && levelStartElapsed >= 0 && elapsed > levelStartElapsed && level < steps.length) {
+            long millis = elapsed - levelStartElapsed;
+            steps[level] = (int) Math.min(Integer.MAX_VALUE, millis);
+            estimator.advanceTo(newLevel);
+            estimator.learn(level, millis);
+        } else {
+            estimator.advanceTo(newLevel);
+        }
+        level = newLevel;
+        levelStartElapsed = elapsed;
+        return true;
+    }
+
+    /** Returns the session the last transition ended, once, or null. */
+    public ChargingSession pollFinished() {
+        ChargingSession session = finished;
+        finished = null;
+        return session;
+    }
+
+    private void finish(long wallTime) {
+        int endLevel = Math.max(startLevel, level);
+        int[] sessionSteps = new int[Math.max(0, Math.min(steps.length, endLevel) - startLevel)];
+        System.arraycopy(steps, startLevel, sessionSteps, 0, sessionSteps.length);
+        finished = new ChargingSession(startTime, wallTime, plugged, startLevel, endLevel, sessionSteps);
+        charging = false;
+        level = -1;
+        levelStartElapsed = -1;
+        estimator.end();
+    }
+
+    /** Writes the curves and the session in progress, so scheduled sampling can resume it. */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        estimator.writeTo(out);
+        out.writeBoolean(charging);
+        if (charging) {
+            out.writeInt(plugged);
+            out.writeLong(startTime);
+            out.writeInt(startLevel);
+            out.writeInt(level);
+            out.writeLong(levelStartElapsed);
+            for (int step = startLevel; step < Math.min(steps.length, level); step++) {
+                out.writeInt(steps[step]);
+            }
+        }
+    }
+
+    /** Restores what {@link #writeTo} saved. {@code elapsed} detects a reboot since then. */
+    public void readFrom(DataInputStream in, long elapsed) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a charging state file");
+        }
+        estimator.readFrom(in);
+        charging = in.readBoolean();
+        if (!charging) {
+            return;
+        }
+        plugged = in.readInt();
+        startTime = in.readLong();
+        startLevel = in.readInt();
+        level = in.readInt();
+        levelStartElapsed = in.readLong();
+        Arrays.fill(steps, ChargingSession.STEP_UNKNOWN);
+        for (int step = startLevel; step < Math.min(steps.length, level); step++) {
+            steps[step] = in.readInt();
+        }
+        if (elapsed < levelStartElapsed) {
+            levelStartElapsed = -1;
+        }
+        estimator.begin(plugged, level);
+    }
+}
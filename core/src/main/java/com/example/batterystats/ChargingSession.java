@@ -0,0 +1,38 @@
+package com.example.batterystats;
+
+/**
+ * One stretch on the charger, from plugging in until unplugging or a change
+ * of plug source.
+ */
+public class ChargingSession {
+    /** {@link #stepMillis} entry for a level step that was not seen from start to end. */
+    public static final int STEP_UNKNOWN = -1;
+
+    public long startTime;
+    public long endTime;
+    /** Plug source, as in {@code BatteryManager.EXTRA_PLUGGED}. */
+    public int plugged;
+    public int startLevel;
+    public int endLevel;
+    /** Time taken by each level step, {@code stepMillis[i]} going from {@code startLevel + i} up by one. */
+    public int[] stepMillis;
+
+    public ChargingSession() {
+    }
+
+    public ChargingSession(long startTime, long endTime, int plugged, int startLevel, int endLevel,
+                           int[] stepMillis) {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.plugged = plugged;
+        this.startLevel = startLevel;
+        this.endLevel = endLevel;
+        this.stepMillis = stepMillis;
+    }
+
+    /** Charging speed at the given step in %/minute, or 0 if that step was not observed. */
+    public double getRatePerMinute(int step) {
+        int millis = stepMillis[step];
+        return millis > 0 ? 60000.0 / millis : 0;
+    }
+}
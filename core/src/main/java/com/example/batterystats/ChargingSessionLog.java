@@ -0,0 +1,147 @@
+package com.example.batterystats;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only file of finished {@link ChargingSession} records.
+ *
+ * <pre>
+ *   long   start time
+ *   long   end time
+ *   byte   plug source
+ *   byte   start level
+ *   byte   end level
+ *   byte   reserved
+ *   int[]  step millis, end level - start level of them
+ * </pre>
+ *
+ * A torn record at the end, from a crash during an append, is ignored when
+ * reading and cut off before the next append, so later records stay aligned.
+ * Appends must run on the writer thread.
+ */
+public class ChargingSessionLog {
+    public static final String FILENAME = "charging_sessions.bin";
+
+    private static final int HEADER_SIZE = 20;
+
+    private final File file;
+    // End of the last whole record, found on the first append
+    private long validEnd = -1;
+
+    public ChargingSessionLog(File file) {
+        this.file = file;
+    }
+
+    /** Writes one record in a single write and forces it to storage. */
+    public void append(ChargingSession session) throws IOException {
+        long start = Metrics.start();
+        ByteBuffer record = encode(session);
+        int size = record.remaining();
+        if (validEnd < 0) {
+            validEnd = read(null, 0);
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() != validEnd) {
+                channel.truncate(validEnd);
+            }
+            long position = validEnd;
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            long syncStart = Metrics.start();
+            raf.getFD().sync();
+            Metrics.stop(Metrics.TIMER_FSYNC, syncStart);
+            validEnd = position;
+        } finally {
+            raf.close();
+        }
+        Metrics.add(Metrics.COUNTER_BYTES_WRITTEN, size);
+        Metrics.stop(Metrics.TIMER_FILE_WRITE, start);
+    }
+
+    /** Returns the newest {@code max} sessions, oldest first. */
+    public List<ChargingSession> readRecent(int max) throws IOException {
+        List<ChargingSession> sessions = new ArrayList<>();
+        read(sessions, max);
+        return sessions;
+    }
+
+    private static ByteBuffer encode(ChargingSession session) {
+        int steps = stepCount(session.startLevel, session.endLevel);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 * steps);
+        buffer.putLong(session.startTime);
+        buffer.putLong(session.endTime);
+        buffer.put((byte) session.plugged);
+        buffer.put((byte) session.startLevel);
+        buffer.put((byte) session.endLevel);
+        buffer.put((byte) 0);
+        for (int i = 0; i < steps; i++) {
+            buffer.putInt(i < session.stepMillis.length ? session.stepMillis[i] : ChargingSession.STEP_UNKNOWN);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int stepCount(int startLevel, int endLevel) {
+        return Math.max(0, endLevel - startLevel);
+    }
+
+    /**
+     * Reads whole records, keeping the newest {@code max} in {@code sessions}
+     * if it is not null, and returns where the last whole record ends.
+     */
+    private long read(List<ChargingSession> sessions, int max) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        long start = Metrics.start();
+        long end = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            while (true) {
+                ChargingSession session = new ChargingSession();
+                session.startTime = in.readLong();
+                session.endTime = in.readLong();
+                session.plugged = in.readUnsignedByte();
+                session.startLevel = in.readUnsignedByte();
+                session.endLevel = in.readUnsignedByte();
+                in.readByte();
+                if (session.startTime <= 0 || session.endTime < session.startTime
+                        || session.startLevel > 100 || session.endLevel > 100) {
+                    // Not a record, such as the zeros a crash can leave; nothing after it can be trusted
+                    break;
+                }
+                session.stepMillis = new int[stepCount(session.startLevel, session.endLevel)];
+                for (int i = 0; i < session.stepMillis.length; i++) {
+                    session.stepMillis[i] = in.readInt();
+                }
+                end += HEADER_SIZE + 4 * session.stepMillis.length;
+                if (sessions == null || max <= 0) {
+                    continue;
+                }
+                if (sessions.size() == max) {
+                    sessions.remove(0);
+                }
+                sessions.add(session);
+            }
+        } catch (EOFException e) {
+            // End of the log, possibly in a torn record
+        } finally {
+            in.close();
+            Metrics.stop(Metrics.TIMER_FILE_READ, start);
+        }
+        return end;
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.batterystats;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a task on an executor at most once per delay window, no matter how
+ * often it is requested. Requests that arrive while a run is pending are
+ * merged into that run; a request that arrives while the task is executing
+ * schedules one more run afterwards.
+ */
+public class CoalescingTask {
+    private final ScheduledExecutorService executor;
+    private final Runnable task;
+    private final long delayMillis;
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+
+    public CoalescingTask(ScheduledExecutorService executor, Runnable task, long delayMillis) {
+        this.executor = executor;
+        this.task = task;
+        this.delayMillis = delayMillis;
+    }
+
+    public void request() {
+        if (pending.compareAndSet(false, true)) {
+            executor.schedule(this::runPending, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Runs the task right away if a run is pending. Must be called on the executor thread. */
+    public void runNowIfPending() {
+        runPending();
+    }
+
+    private void runPending() {
+        if (pending.compareAndSet(true, false)) {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.batterystats;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Cycles as CSV, one line per cycle after a header line:
+ *
+ * <pre>
+ *   full_charge_timestamp,start_level,end_level,duration_millis
+ *   1700000000000,100,35,52200000
+ * </pre>
+ *
+ * The column names match the content provider's, so spreadsheets and
+ * analysis tools see the same data either way. Reading goes line by line and
+ * looks columns up by header name, so extra columns are ignored.
+ */
+public final class CsvCycleFormat {
+    static final String HEADER = "full_charge_timestamp,start_level,end_level,duration_millis";
+    private static final String[] COLUMNS = HEADER.split(",");
+
+    private CsvCycleFormat() {
+    }
+
+    public static final class Sink implements CycleSink {
+        private final Writer out;
+        private boolean started;
+
+        public Sink(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(ChargeCycle cycle) throws IOException {
+            if (!started) {
+                out.write(HEADER);
+                out.write('\n');
+                started = true;
+            }
+            out.write(Long.toString(cycle.fullChargeTimestamp));
+            out.write(',');
+            out.write(Integer.toString(cycle.startLevel));
+            out.write(',');
+            out.write(Integer.toString(cycle.endLevel));
+            out.write(',');
+            out.write(Long.toString(cycle.durationMillis));
+            out.write('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (!started) {
+                out.write(HEADER);
+                out.write('\n');
+                started = true;
+            }
+            out.flush();
+        }
+    }
+
+    public static final class Source implements CycleSource {
+        private final BufferedReader in;
+        // Position of each of COLUMNS in a line
+        private final int[] positions = new int[COLUMNS.length];
+        private int fieldCount;
+        private int lineNumber;
+
+        public Source(BufferedReader in) {
+            this.in = in;
+        }
+
+        @Override
+        public ChargeCycle next() throws IOException {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split(",", -1);
+                if (fieldCount == 0) {
+                    readHeader(fields);
+                    continue;
+                }
+                if (fields.length < fieldCount) {
+                    throw new IOException("Line " + lineNumber + ": expected " + fieldCount + " fields");
+                }
+                try {
+                    ChargeCycle cycle = new ChargeCycle();
+                    cycle.fullChargeTimestamp = Long.parseLong(fields[positions[0]].trim());
+                    cycle.startLevel = Integer.parseInt(fields[positions[1]].trim());
+                    cycle.endLevel = Integer.parseInt(fields[positions[2]].trim());
+                    cycle.durationMillis = Long.parseLong(fields[positions[3]].trim());
+                    return cycle;
+                } catch (NumberFormatException e) {
+                    throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+                }
+            }
+            return null;
+        }
+
+        private void readHeader(String[] fields) throws IOException {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                positions[i] = -1;
+                for (int j = 0; j < fields.length; j++) {
+                    if (COLUMNS[i].equals(fields[j].trim())) {
+                        positions[i] = j;
+                    }
+                }
+                if (positions[i] < 0) {
+                    throw new IOException("Missing column " + COLUMNS[i]);
+                }
+            }
+            fieldCount = fields.length;
+        }
+    }
+}
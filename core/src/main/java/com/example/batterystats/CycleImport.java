@@ -0,0 +1,73 @@
+package com.example.batterystats;
+
+import java.io.IOException;
+
+/**
+ * Streams cycles from a {@link CycleSource} into the repository in chunks,
+ * so other writes can run in between and the caller can checkpoint. Cycles
+ * already present, by full charge timestamp, are skipped, which makes an
+ * import safe to repeat; resuming after {@code n} records also skips the
+ * records a previous attempt got through without touching the repository.
+ *
+ * Runs on the repository's writer thread.
+ */
+public class CycleImport {
+    private final ChargeCycleRepository repository;
+    private final CycleSource source;
+    private final long resumeAfter;
+
+    private long recordsRead;
+    private int imported;
+    private int skipped;
+    private boolean finished;
+
+    public CycleImport(ChargeCycleRepository repository, CycleSource source, long resumeAfter) {
+        this.repository = repository;
+        this.source = source;
+        this.resumeAfter = resumeAfter;
+    }
+
+    /**
+     * Reads up to {@code maxRecords} records, imports those past the resume
+     * point and writes them out. Returns false once the source is exhausted.
+     */
+    public boolean step(int maxRecords) throws IOException {
+        for (int i = 0; i < maxRecords && !finished; i++) {
+            ChargeCycle cycle = source.next();
+            if (cycle == null) {
+                finished = true;
+                break;
+            }
+            recordsRead++;
+            if (recordsRead <= resumeAfter) {
+                continue;
+            }
+            if (repository.applyImport(cycle)) {
+                imported++;
+            } else {
+                skipped++;
+            }
+        }
+        // Written before the caller checkpoints, so a resume never skips unsaved records
+        repository.flush();
+        return !finished;
+    }
+
+    /** Records read so far, including those skipped on resume; the checkpoint for a later resume. */
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    /** Records not imported: already present, or newer than the running cycle or older than the retained ones. */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+}
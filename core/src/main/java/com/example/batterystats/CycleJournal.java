@@ -0,0 +1,274 @@
+package com.example.batterystats;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary journal of {@link ChargeCycle} records.
+ *
+ * The file is a 16 byte header followed by fixed-width 32 byte records. Each
+ * record is an upsert keyed by {@code fullChargeTimestamp} and ends with a
+ * CRC32 of its first 28 bytes:
+ *
+ * <pre>
+ *   0  short  record mark
+ *   2  byte   record type
+ *   3  byte   reserved
+ *   4  long   fullChargeTimestamp
+ *  12  int    startLevel
+ *  16  long   durationMillis
+ *  24  int    endLevel
+ *  28  int    crc32
+ * </pre>
+ *
+ * Replaying the records in order rebuilds the cycle list. A torn or corrupt
+ * tail is cut off at the last valid record, so a crash only loses the write
+ * that was in flight. Compaction writes the live cycles to a temporary file
+ * and renames it over the journal.
+ */
+public class CycleJournal {
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 32;
+
+    private static final int FILE_MAGIC = 0x48424a31; // "HBJ1"
+    private static final int FILE_VERSION = 1;
+    private static final short RECORD_MARK = 0x4343;
+    private static final byte TYPE_UPSERT = 1;
+
+    private final File file;
+    private final File tempFile;
+    private final CRC32 crc = new CRC32();
+
+    private RandomAccessFile raf;
+    private int recordCount;
+
+    public CycleJournal(File file) {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+    }
+
+    public boolean exists() {
+        return file.exists();
+    }
+
+    /** Number of records currently in the journal, including superseded ones. */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Replays the journal and returns the cycles sorted by timestamp. Anything
+     * after the last valid record is truncated so new appends follow good data.
+     */
+    public List<ChargeCycle> load() throws IOException {
+        close();
+        if (tempFile.exists()) {
+            // Leftover from an interrupted compaction, the journal itself is intact
+            tempFile.delete();
+        }
+
+        List<ChargeCycle> cycles = new ArrayList<>();
+        recordCount = 0;
+        if (!file.exists()) {
+            return cycles;
+        }
+
+        raf = new RandomAccessFile(file, "rw");
+        FileChannel channel = raf.getChannel();
+        long size = channel.size();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (size < HEADER_SIZE || readFully(channel, header, 0) < HEADER_SIZE
+                || header.getInt(0) != FILE_MAGIC || header.getInt(4) != FILE_VERSION) {
+            // Not a journal we can read. Keep it for inspection instead of overwriting it.
+            close();
+            File aside = new File(file.getPath() + ".corrupt");
+            aside.delete();
+            file.renameTo(aside);
+            return cycles;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+        long position = HEADER_SIZE;
+        long validEnd = HEADER_SIZE;
+        boolean corrupt = false;
+        while (!corrupt && position < size) {
+            buffer.clear();
+            int read = readFully(channel, buffer, position);
+            int records = read / RECORD_SIZE;
+            for (int i = 0; i < records; i++) {
+                int offset = i * RECORD_SIZE;
+                if (!isValid(buffer, offset)) {
+                    corrupt = true;
+                    break;
+                }
+                upsert(cycles, decode(buffer, offset));
+                recordCount++;
+                validEnd += RECORD_SIZE;
+            }
+            if (records == 0) {
+                break;
+            }
+            position += (long) records * RECORD_SIZE;
+        }
+
+        if (validEnd < size) {
+            channel.truncate(validEnd);
+            long syncStart = Metrics.start();
+            channel.force(true);
+            Metrics.stop(Metrics.TIMER_FSYNC, syncStart);
+        }
+        return cycles;
+    }
+
+    /** Appends one upsert record per cycle and forces them to storage. */
+    public void append(Collection<ChargeCycle> changed) throws IOException {
+        if (changed.isEmpty()) {
+            return;
+        }
+        if (raf == null) {
+            if (!file.exists()) {
+                compact(new ArrayList<ChargeCycle>());
+            }
+            raf = new RandomAccessFile(file, "rw");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(changed.size() * RECORD_SIZE);
+        for (ChargeCycle cycle : changed) {
+            encode(buffer, cycle);
+        }
+        buffer.flip();
+
+        FileChannel channel = raf.getChannel();
+        long position = channel.size();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        long syncStart = Metrics.start();
+        channel.force(false);
+        Metrics.stop(Metrics.TIMER_FSYNC, syncStart);
+        Metrics.add(Metrics.COUNTER_BYTES_WRITTEN, (long) changed.size() * RECORD_SIZE);
+        recordCount += changed.size();
+    }
+
+    /** Rewrites the journal so it holds exactly one record per cycle. */
+    public void compact(List<ChargeCycle> cycles) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + cycles.size() * RECORD_SIZE);
+        buffer.putInt(FILE_MAGIC);
+        buffer.putInt(FILE_VERSION);
+        buffer.putLong(0);
+        for (ChargeCycle cycle : cycles) {
+            encode(buffer, cycle);
+        }
+        buffer.flip();
+
+        long size = buffer.remaining();
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            long syncStart = Metrics.start();
+            channel.force(true);
+            Metrics.stop(Metrics.TIMER_FSYNC, syncStart);
+        } finally {
+            out.close();
+        }
+
+        close();
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+        Metrics.add(Metrics.COUNTER_BYTES_WRITTEN, size);
+        recordCount = cycles.size();
+    }
+
+    public void close() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            raf = null;
+        }
+    }
+
+    private void encode(ByteBuffer buffer, ChargeCycle cycle) {
+        int start = buffer.position();
+        buffer.putShort(RECORD_MARK);
+        buffer.put(TYPE_UPSERT);
+        buffer.put((byte) 0);
+        buffer.putLong(cycle.fullChargeTimestamp);
+        buffer.putInt(cycle.startLevel);
+        buffer.putLong(cycle.durationMillis);
+        buffer.putInt(cycle.endLevel);
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, RECORD_SIZE - 4);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    private boolean isValid(ByteBuffer buffer, int offset) {
+        if (buffer.getShort(offset) != RECORD_MARK || buffer.get(offset + 2) != TYPE_UPSERT) {
+            return false;
+        }
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + offset, RECORD_SIZE - 4);
+        return (int) crc.getValue() == buffer.getInt(offset + RECORD_SIZE - 4);
+    }
+
+    private static ChargeCycle decode(ByteBuffer buffer, int offset) {
+        ChargeCycle cycle = new ChargeCycle();
+        cycle.fullChargeTimestamp = buffer.getLong(offset + 4);
+        cycle.startLevel = buffer.getInt(offset + 12);
+        cycle.durationMillis = buffer.getLong(offset + 16);
+        cycle.endLevel = buffer.getInt(offset + 24);
+        return cycle;
+    }
+
+    /** Replaces the cycle with the same timestamp, or inserts it in timestamp order. */
+    public static void upsert(List<ChargeCycle> cycles, ChargeCycle cycle) {
+        int size = cycles.size();
+        // Almost every record touches the newest cycle, so check the tail first
+        if (size == 0 || cycles.get(size - 1).fullChargeTimestamp < cycle.fullChargeTimestamp) {
+            cycles.add(cycle);
+            return;
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long timestamp = cycles.get(mid).fullChargeTimestamp;
+            if (timestamp < cycle.fullChargeTimestamp) {
+                low = mid + 1;
+            } else if (timestamp > cycle.fullChargeTimestamp) {
+                high = mid - 1;
+            } else {
+                cycles.set(mid, cycle);
+                return;
+            }
+        }
+        cycles.add(low, cycle);
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.batterystats;
+
+import java.io.IOException;
+
+/** Cycles written to an export document, one record at a time. */
+public interface CycleSink {
+    void write(ChargeCycle cycle) throws IOException;
+
+    /** Completes the document and flushes it. The underlying stream stays open. */
+    void finish() throws IOException;
+}
@@ -0,0 +1,59 @@
+package com.example.batterystats;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Immutable view of the repository's cycles at one point in time.
+ *
+ * Views share the repository's backing array instead of copying it. The
+ * repository only ever writes past the end of a published view or replaces
+ * the newest cycle, and every view keeps its own newest cycle, so a view never
+ * changes after it is published and creating one is O(1).
+ */
+public final class CycleSnapshot extends AbstractList<ChargeCycle> implements RandomAccess {
+    static final CycleSnapshot EMPTY = new CycleSnapshot(new ChargeCycle[0], 0, 0, null);
+
+    private final ChargeCycle[] array;
+    private final int start;
+    private final int size;
+    private final ChargeCycle last;
+
+    CycleSnapshot(ChargeCycle[] array, int start, int size, ChargeCycle last) {
+        this.array = array;
+        this.start = start;
+        this.size = size;
+        this.last = last;
+    }
+
+    @Override
+    public ChargeCycle get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return index == size - 1 ? last : array[start + index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** Index of the cycle with this timestamp, or -(insertion point) - 1 if there is none. */
+    public int indexOf(long fullChargeTimestamp) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long timestamp = get(mid).fullChargeTimestamp;
+            if (timestamp < fullChargeTimestamp) {
+                low = mid + 1;
+            } else if (timestamp > fullChargeTimestamp) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.batterystats;
+
+import java.io.IOException;
+
+/** Cycles read from an exported document, one record at a time. */
+public interface CycleSource {
+    /** Returns the next cycle, or null at the end of the document. */
+    ChargeCycle next() throws IOException;
+}
@@ -0,0 +1,246 @@
+package com.example.batterystats;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Streaming drain rate statistics over completed charge cycles.
+ *
+ * Keeps an exponentially weighted mean and P-square estimates of the 10th,
+ * 50th and 90th percentile of the drain rate in %/hour. Each completed cycle
+ * is folded in once, in constant time and space. Once enough cycles have
+ * been seen, new rates are clamped to the current p10..p90 band before they
+ * reach the mean, so a single odd cycle cannot drag the estimate around.
+ *
+ * Updates happen on the writer thread; readers take the published
+ * {@link Summary} without locking.
+ */
+public class DrainStatistics {
+    private static final int MAGIC = 0x48424431; // "HBD1"
+    private static final double EWMA_ALPHA = 0.2;
+    private static final int MIN_CYCLES_FOR_CLAMPING = 5;
+    private static final double MAX_PLAUSIBLE_RATE = 100; // Whole battery in under an hour
+
+    /** Immutable view of the statistics at one point in time. */
+    public static final class Summary {
+        public final long cycleCount;
+        public final double averageRate;
+        public final double p10;
+        public final double median;
+        public final double p90;
+
+        Summary(long cycleCount, double averageRate, double p10, double median, double p90) {
+            this.cycleCount = cycleCount;
+            this.averageRate = averageRate;
+            this.p10 = p10;
+            this.median = median;
+            this.p90 = p90;
+        }
+    }
+
+    private P2Quantile p10 = new P2Quantile(0.1);
+    private P2Quantile p50 = new P2Quantile(0.5);
+    private P2Quantile p90 = new P2Quantile(0.9);
+    private long cycleCount;
+    private double ewma;
+    private long lastCycleTimestamp = Long.MIN_VALUE;
+
+    private volatile Summary summary = new Summary(0, 0, 0, 0, 0);
+
+    public Summary getSummary() {
+        return summary;
+    }
+
+    /** Timestamp of the newest cycle folded in, so a cycle is never counted twice. */
+    public long getLastCycleTimestamp() {
+        return lastCycleTimestamp;
+    }
+
+    /**
+     * Folds a completed cycle into the statistics. Returns false if it was
+     * already counted or its rate is not usable.
+     */
+    public boolean addCycle(ChargeCycle cycle) {
+        if (cycle.fullChargeTimestamp <= lastCycleTimestamp) {
+            return false;
+        }
+        lastCycleTimestamp = cycle.fullChargeTimestamp;
+
+        double rate = cycle.getDrainRatePerHour();
+        if (!(rate > 0) || rate > MAX_PLAUSIBLE_RATE) {
+            return false;
+        }
+
+        p10.add(rate);
+        p50.add(rate);
+        p90.add(rate);
+
+        double clamped = rate;
+        if (cycleCount >= MIN_CYCLES_FOR_CLAMPING) {
+            clamped = Math.max(p10.get(), Math.min(p90.get(), rate));
+        }
+        ewma = cycleCount == 0 ? clamped : ewma + EWMA_ALPHA * (clamped - ewma);
+        cycleCount++;
+
+        publish();
+        return true;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeLong(cycleCount);
+        out.writeDouble(ewma);
+        out.writeLong(lastCycleTimestamp);
+        p10.writeTo(out);
+        p50.writeTo(out);
+        p90.writeTo(out);
+    }
+
+    /** Restores what {@link #writeTo} saved. On failure the statistics are left as they were. */
+    public void readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a drain statistics file");
+        }
+        long newCycleCount = in.readLong();
+        double newEwma = in.readDouble();
+        long newLastCycleTimestamp = in.readLong();
+        P2Quantile newP10 = new P2Quantile(0.1);
+        P2Quantile newP50 = new P2Quantile(0.5);
+        P2Quantile newP90 = new P2Quantile(0.9);
+        newP10.readFrom(in);
+        newP50.readFrom(in);
+        newP90.readFrom(in);
+
+        cycleCount = newCycleCount;
+        ewma = newEwma;
+        lastCycleTimestamp = newLastCycleTimestamp;
+        p10 = newP10;
+        p50 = newP50;
+        p90 = newP90;
+        publish();
+    }
+
+    private void publish() {
+        summary = new Summary(cycleCount, ewma, p10.get(), p50.get(), p90.get());
+    }
+
+    /**
+     * P-square single quantile estimator (Jain and Chlamtac, 1985). Tracks
+     * five markers whose heights converge on the min, p/2, p, (1+p)/2 and max
+     * quantiles without storing the observations.
+     */
+    static final class P2Quantile {
+        private final double p;
+        private final double[] heights = new double[5];
+        private final double[] positions = new double[5];
+        private final double[] desired = new double[5];
+        private final double[] increments = new double[5];
+        private int count;
+
+        P2Quantile(double p) {
+            this.p = p;
+            increments[1] = p / 2;
+            increments[2] = p;
+            increments[3] = (1 + p) / 2;
+            increments[4] = 1;
+        }
+
+        void add(double x) {
+            if (count < 5) {
+                heights[count++] = x;
+                if (count == 5) {
+                    Arrays.sort(heights);
+                    for (int i = 0; i < 5; i++) {
+                        positions[i] = i + 1;
+                    }
+                    desired[0] = 1;
+                    desired[1] = 1 + 2 * p;
+                    desired[2] = 1 + 4 * p;
+                    desired[3] = 3 + 2 * p;
+                    desired[4] = 5;
+                }
+                return;
+            }
+
+            int k;
+            if (x < heights[0]) {
+                heights[0] = x;
+                k = 0;
+            } else if (x >= heights[4]) {
+                heights[4] = x;
+                k = 3;
+            } else {
+                k = 0;
+                while (x >= heights[k + 1]) {
+                    k++;
+                }
+            }
+            for (int i = k + 1; i < 5; i++) {
+                positions[i]++;
+            }
+            for (int i = 0; i < 5; i++) {
+                desired[i] += increments[i];
+            }
+            count++;
+
+            for (int i = 1; i <= 3; i++) {
+                double d = desired[i] - positions[i];
+                if ((d >= 1 && positions[i + 1] - positions[i] > 1)
+                        || (d <= -1 && positions[i - 1] - positions[i] < -1)) {
+                    int step = d >= 0 ? 1 : -1;
+                    double candidate = parabolic(i, step);
+                    if (heights[i - 1] < candidate && candidate < heights[i + 1]) {
+                        heights[i] = candidate;
+                    } else {
+                        heights[i] = linear(i, step);
+                    }
+                    positions[i] += step;
+                }
+            }
+        }
+
+        double get() {
+            if (count == 0) {
+                return 0;
+            }
+            if (count < 5) {
+                double[] sorted = Arrays.copyOf(heights, count);
+                Arrays.sort(sorted);
+                return sorted[(int) Math.min(count - 1, Math.round(p * (count - 1)))];
+            }
+            return heights[2];
+        }
+
+        private double parabolic(int i, int step) {
+            double below = positions[i] - positions[i - 1];
+            double above = positions[i + 1] - positions[i];
+            return heights[i] + step / (positions[i + 1] - positions[i - 1])
+                * ((below + step) * (heights[i + 1] - heights[i]) / above
+                + (above - step) * (heights[i] - heights[i - 1]) / below);
+        }
+
+        private double linear(int i, int step) {
+            return heights[i] + step * (heights[i + step] - heights[i]) / (positions[i + step] - positions[i]);
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(count);
+            for (int i = 0; i < 5; i++) {
+                out.writeDouble(heights[i]);
+                out.writeDouble(positions[i]);
+                out.writeDouble(desired[i]);
+            }
+        }
+
+        void readFrom(DataInputStream in) throws IOException {
+            count = in.readInt();
+            for (int i = 0; i < 5; i++) {
+                heights[i] = in.readDouble();
+                positions[i] = in.readDouble();
+                desired[i] = in.readDouble();
+            }
+        }
+    }
+}
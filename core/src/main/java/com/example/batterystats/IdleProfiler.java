@@ -0,0 +1,281 @@
+package com.example.batterystats;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Measures how the battery drains while the device is left alone.
+ *
+ * Every stretch with the screen off and no charger is an idle interval. At
+ * its end the interval's length in elapsed realtime is compared with the
+ * uptime that passed in it: uptime stops while the CPU is in deep sleep, so
+ * the difference is the time spent asleep. Doze idle mode is tracked the same
+ * way, from its broadcasts. Both clocks are read only when a broadcast
+ * arrives anyway, so nothing is kept awake to measure.
+ *
+ * Each interval is folded into running totals for the current charge cycle,
+ * and the longer ones are kept in a short list for the dump. A cycle whose
+ * deep sleep share drops, or whose idle drain rises, against earlier cycles
+ * points at something holding the device awake.
+ *
+ * Not thread-safe; the pipeline calls it from the main thread.
+ */
+public class IdleProfiler {
+    private static final int MAGIC = 0x48424931; // "HBI1"
+    private static final int MAX_CYCLES = ChargeCycleRepository.DEFAULT_MAX_CYCLES;
+    private static final int MAX_INTERVALS = 48;
+    // Shorter intervals count towards the cycle but are not listed, nor saved on their own
+    private static final long MIN_LISTED_INTERVAL_MS = 15 * 60 * 1000L;
+    private static final int DUMPED_INTERVALS = 10;
+
+    // Per cycle totals, a ring of the newest MAX_CYCLES, oldest first
+    private final long[] cycleStarts = new long[MAX_CYCLES];
+    private final long[] cycleIdleMillis = new long[MAX_CYCLES];
+    private final long[] cycleAwakeMillis = new long[MAX_CYCLES];
+    private final long[] cycleDozeMillis = new long[MAX_CYCLES];
+    private final int[] cycleDrops = new int[MAX_CYCLES];
+    private final int[] cycleIntervals = new int[MAX_CYCLES];
+    private int cycleFirst;
+    private int cycleCount;
+
+    // The longer recent intervals, a ring of the newest MAX_INTERVALS, oldest first
+    private final long[] intervalEnds = new long[MAX_INTERVALS];
+    private final long[] intervalMillis = new long[MAX_INTERVALS];
+    private final long[] intervalAwakeMillis = new long[MAX_INTERVALS];
+    private final long[] intervalDozeMillis = new long[MAX_INTERVALS];
+    private final int[] intervalDrops = new int[MAX_INTERVALS];
+    private int intervalFirst;
+    private int intervalCount;
+
+    // Device state as last reported
+    private boolean screenOn = true;
+    private boolean plugged = true;
+    private boolean dozing;
+    private int level = -1;
+
+    // The interval in progress; not kept across processes
+    private long openElapsed = -1;
+    private long openUptime;
+    private int openLevel;
+    private long openDozeMillis;
+    private long dozeSince = -1;
+
+    /** @return true if an interval was recorded that is worth saving */
+    public boolean onBatteryChanged(long now, long elapsed, long uptime, int level, boolean plugged) {
+        this.level = level;
+        if (plugged == this.plugged) {
+            return false;
+        }
+        this.plugged = plugged;
+        return update(now, elapsed, uptime);
+    }
+
+    /** @return true if an interval was recorded that is worth saving */
+    public boolean onScreenChanged(long now, long elapsed, long uptime, boolean on) {
+        if (on == screenOn) {
+            return false;
+        }
+        screenOn = on;
+        return update(now, elapsed, uptime);
+    }
+
+    public void onIdleModeChanged(long elapsed, boolean idle) {
+        if (idle == dozing) {
+            return;
+        }
+        dozing = idle;
+        if (openElapsed < 0) {
+            return;
+        }
+        if (idle) {
+            dozeSince = elapsed;
+        } else if (dozeSince >= 0) {
+            openDozeMillis += Math.max(0, elapsed - dozeSince);
+            dozeSince = -1;
+        }
+    }
+
+    /** Starts the totals of a new cycle. Always worth saving. */
+    public boolean onCycleStart(long fullChargeTimestamp) {
+        if (cycleCount == MAX_CYCLES) {
+            cycleFirst = (cycleFirst + 1) % MAX_CYCLES;
+            cycleCount--;
+        }
+        int slot = (cycleFirst + cycleCount++) % MAX_CYCLES;
+        cycleStarts[slot] = fullChargeTimestamp;
+        cycleIdleMillis[slot] = 0;
+        cycleAwakeMillis[slot] = 0;
+        cycleDozeMillis[slot] = 0;
+        cycleDrops[slot] = 0;
+        cycleIntervals[slot] = 0;
+        return true;
+    }
+
+    private boolean update(long now, long elapsed, long uptime) {
+        boolean idle = !screenOn && !plugged && level >= 0;
+        if (idle && openElapsed < 0) {
+            openElapsed = elapsed;
+            openUptime = uptime;
+            openLevel = level;
+            openDozeMillis = 0;
+            dozeSince = dozing ? elapsed : -1;
+            return false;
+        }
+        if (!idle && openElapsed >= 0) {
+            return close(now, elapsed, uptime);
+        }
+        return false;
+    }
+
+    private boolean close(long now, long elapsed, long uptime) {
+        long millis = elapsed - openElapsed;
+        long awake = Math.min(millis, uptime - openUptime);
+        long doze = openDozeMillis + (dozeSince >= 0 ? elapsed - dozeSince : 0);
+        int drop = openLevel - level;
+        openElapsed = -1;
+        dozeSince = -1;
+        if (millis <= 0 || awake < 0) {
+            return false;
+        }
+        if (cycleCount == 0) {
+            // Intervals before the first full charge
+            onCycleStart(0);
+        }
+        int cycle = (cycleFirst + cycleCount - 1) % MAX_CYCLES;
+        cycleIdleMillis[cycle] += millis;
+        cycleAwakeMillis[cycle] += awake;
+        cycleDozeMillis[cycle] += Math.min(doze, millis);
+        cycleDrops[cycle] += drop;
+        cycleIntervals[cycle]++;
+        if (millis < MIN_LISTED_INTERVAL_MS) {
+            return false;
+        }
+
+        if (intervalCount == MAX_INTERVALS) {
+            intervalFirst = (intervalFirst + 1) % MAX_INTERVALS;
+            intervalCount--;
+        }
+        int slot = (intervalFirst + intervalCount++) % MAX_INTERVALS;
+        intervalEnds[slot] = now;
+        intervalMillis[slot] = millis;
+        intervalAwakeMillis[slot] = awake;
+        intervalDozeMillis[slot] = Math.min(doze, millis);
+        intervalDrops[slot] = drop;
+        return true;
+    }
+
+    /** Share of the current cycle's idle time spent in deep sleep, or -1 before any idle time. */
+    public float getDeepSleepPercent() {
+        if (cycleCount == 0) {
+            return -1;
+        }
+        int cycle = (cycleFirst + cycleCount - 1) % MAX_CYCLES;
+        return percent(cycleIdleMillis[cycle] - cycleAwakeMillis[cycle], cycleIdleMillis[cycle]);
+    }
+
+    /** Drain per hour of idle time in the current cycle, or -1 before any idle time. */
+    public double getIdleDrainPerHour() {
+        if (cycleCount == 0) {
+            return -1;
+        }
+        int cycle = (cycleFirst + cycleCount - 1) % MAX_CYCLES;
+        return drainPerHour(cycleDrops[cycle], cycleIdleMillis[cycle]);
+    }
+
+    private static float percent(long part, long whole) {
+        return whole > 0 ? part * 100f / whole : -1;
+    }
+
+    private static double drainPerHour(int drop, long millis) {
+        return millis > 0 ? drop * 3600000.0 / millis : -1;
+    }
+
+    public void dump(PrintWriter writer) {
+        if (cycleCount == 0) {
+            writer.println("Idle drain: no idle time yet");
+            return;
+        }
+        writer.println("Idle drain by cycle (deep sleep, doze, drain while idle):");
+        for (int i = 0; i < cycleCount; i++) {
+            int slot = (cycleFirst + i) % MAX_CYCLES;
+            long idle = cycleIdleMillis[slot];
+            writer.println(String.format(Locale.US, "  %d  idle %s in %d intervals, sleep %.1f%%, doze %.1f%%, %.2f%%/h",
+                cycleStarts[slot], BatteryFormat.formatTimeDuration(idle), cycleIntervals[slot],
+                percent(idle - cycleAwakeMillis[slot], idle), percent(cycleDozeMillis[slot], idle),
+                drainPerHour(cycleDrops[slot], idle)));
+        }
+        if (intervalCount > 0) {
+            writer.println("Recent idle intervals:");
+        }
+        for (int i = Math.max(0, intervalCount - DUMPED_INTERVALS); i < intervalCount; i++) {
+            int slot = (intervalFirst + i) % MAX_INTERVALS;
+            long millis = intervalMillis[slot];
+            writer.println(String.format(Locale.US, "  %d  %s, sleep %.1f%%, doze %.1f%%, -%d%%",
+                intervalEnds[slot], BatteryFormat.formatTimeDuration(millis),
+                percent(millis - intervalAwakeMillis[slot], millis), percent(intervalDozeMillis[slot], millis),
+                intervalDrops[slot]));
+        }
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(cycleCount);
+        for (int i = 0; i < cycleCount; i++) {
+            int slot = (cycleFirst + i) % MAX_CYCLES;
+            out.writeLong(cycleStarts[slot]);
+            out.writeLong(cycleIdleMillis[slot]);
+            out.writeLong(cycleAwakeMillis[slot]);
+            out.writeLong(cycleDozeMillis[slot]);
+            out.writeInt(cycleDrops[slot]);
+            out.writeInt(cycleIntervals[slot]);
+        }
+        out.writeInt(intervalCount);
+        for (int i = 0; i < intervalCount; i++) {
+            int slot = (intervalFirst + i) % MAX_INTERVALS;
+            out.writeLong(intervalEnds[slot]);
+            out.writeLong(intervalMillis[slot]);
+            out.writeLong(intervalAwakeMillis[slot]);
+            out.writeLong(intervalDozeMillis[slot]);
+            out.writeInt(intervalDrops[slot]);
+        }
+    }
+
+    /** Restores what {@link #writeTo} saved. The interval in progress is not kept across processes. */
+    public void readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an idle profile file");
+        }
+        int cycles = in.readInt();
+        if (cycles < 0 || cycles > MAX_CYCLES) {
+            throw new IOException("Bad cycle count " + cycles);
+        }
+        for (int i = 0; i < cycles; i++) {
+            cycleStarts[i] = in.readLong();
+            cycleIdleMillis[i] = in.readLong();
+            cycleAwakeMillis[i] = in.readLong();
+            cycleDozeMillis[i] = in.readLong();
+            cycleDrops[i] = in.readInt();
+            cycleIntervals[i] = in.readInt();
+        }
+        int intervals = in.readInt();
+        if (intervals < 0 || intervals > MAX_INTERVALS) {
+            throw new IOException("Bad interval count " + intervals);
+        }
+        for (int i = 0; i < intervals; i++) {
+            intervalEnds[i] = in.readLong();
+            intervalMillis[i] = in.readLong();
+            intervalAwakeMillis[i] = in.readLong();
+            intervalDozeMillis[i] = in.readLong();
+            intervalDrops[i] = in.readInt();
+        }
+        cycleFirst = 0;
+        cycleCount = cycles;
+        intervalFirst = 0;
+        intervalCount = intervals;
+        openElapsed = -1;
+        dozeSince = -1;
+    }
+}
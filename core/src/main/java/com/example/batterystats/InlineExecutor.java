@@ -0,0 +1,142 @@
+package com.example.batterystats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs submitted work on the calling thread and holds delayed work until
+ * {@link #runScheduled} or {@link #advanceTo} is called, so benchmarks and
+ * replays exercise the stores without thread hand-offs and decide themselves
+ * when coalesced flushes happen. Delays count on a virtual clock that only
+ * moves through {@link #advanceTo}.
+ */
+final class InlineExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+    private final List<Task<?>> scheduled = new ArrayList<>();
+    private long now;
+    private long tasksRun;
+
+    /** How many tasks have run, each one a wakeup of the writer thread on a device. */
+    long getTasksRun() {
+        return tasksRun;
+    }
+
+    /** Runs all delayed work, due or not. */
+    void runScheduled() {
+        while (!scheduled.isEmpty()) {
+            List<Task<?>> tasks = new ArrayList<>(scheduled);
+            scheduled.clear();
+            for (Task<?> task : tasks) {
+                run(task);
+            }
+        }
+    }
+
+    /** Moves the virtual clock and runs the delayed work that has come due, in order. */
+    void advanceTo(long nowMillis) {
+        now = Math.max(now, nowMillis);
+        while (true) {
+            Task<?> next = null;
+            for (Task<?> task : scheduled) {
+                if (task.dueMillis <= now && (next == null || task.dueMillis < next.dueMillis)) {
+                    next = task;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            scheduled.remove(next);
+            run(next);
+        }
+    }
+
+    private void run(Task<?> task) {
+        if (!task.isCancelled()) {
+            tasksRun++;
+            task.run();
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        tasksRun++;
+        command.run();
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        Task<Object> task = new Task<>(Executors.callable(command), now + unit.toMillis(delay));
+        scheduled.add(task);
+        return task;
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        Task<V> task = new Task<>(callable, now + unit.toMillis(delay));
+        scheduled.add(task);
+        return task;
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void shutdown() {
+        scheduled.clear();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = new ArrayList<Runnable>(scheduled);
+        scheduled.clear();
+        return tasks;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return true;
+    }
+
+    private final class Task<V> extends FutureTask<V> implements ScheduledFuture<V> {
+        final long dueMillis;
+
+        Task(Callable<V> callable, long dueMillis) {
+            super(callable);
+            this.dueMillis = dueMillis;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueMillis - now, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.batterystats;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads cycles from the JSON file used before the journal existed. The
+ * format needs the platform JSON parser, so the app supplies the reader.
+ */
+public interface LegacyCycleReader {
+    /**
+     * Returns every cycle that could be read, sorted by timestamp. A damaged
+     * file should yield the cycles before the damage rather than fail.
+     */
+    List<ChargeCycle> read(File file) throws IOException;
+}
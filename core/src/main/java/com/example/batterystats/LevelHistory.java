@@ -0,0 +1,150 @@
+package com.example.batterystats;
+
+import java.util.List;
+
+/**
+ * Battery level over time, read out of the {@link SampleRing} into
+ * primitive arrays together with a pyramid of coarser levels of detail.
+ * Every level is the one below downsampled to half its points with
+ * {@link Lttb}, down to a few hundred points, so a chart can draw any
+ * zoom from the coarsest level that still has a point per pixel without
+ * downsampling per frame.
+ *
+ * Built off the main thread and immutable afterwards. The cycle starts that
+ * fall inside the samples are kept for the chart's markers.
+ */
+public final class LevelHistory {
+    private static final int MIN_POINTS = 256;
+
+    private final long[][] times;
+    private final float[][] levels;
+    private final int[] sizes;
+    private final long[] cycleStarts;
+
+    private LevelHistory(long[][] times, float[][] levels, int[] sizes, long[] cycleStarts) {
+        this.times = times;
+        this.levels = levels;
+        this.sizes = sizes;
+        this.cycleStarts = cycleStarts;
+    }
+
+    /** Reads every retained sample of {@code ring}; returns null if it holds fewer than two. */
+    public static LevelHistory load(SampleRing ring, List<ChargeCycle> cycles) {
+        int size = ring.size();
+        if (size < 2) {
+            return null;
+        }
+        long[] rawTimes = new long[size];
+        float[] rawLevels = new float[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            int slot = ring.slotAt(i);
+            long time = ring.timestamp(slot);
+            // A clock set backwards would fold the line over itself
+            if (n > 0 && time < rawTimes[n - 1]) {
+                continue;
+            }
+            rawTimes[n] = time;
+            rawLevels[n++] = ring.level(slot);
+        }
+        return build(rawTimes, rawLevels, n, cycles);
+    }
+
+    /** Builds the pyramid over the first {@code size} points, which must be sorted by time. */
+    public static LevelHistory build(long[] rawTimes, float[] rawLevels, int size, List<ChargeCycle> cycles) {
+        int levelCount = 1;
+        for (int points = size; points / 2 >= MIN_POINTS; points /= 2) {
+            levelCount++;
+        }
+        long[][] times = new long[levelCount][];
+        float[][] levels = new float[levelCount][];
+        int[] sizes = new int[levelCount];
+        times[0] = rawTimes;
+        levels[0] = rawLevels;
+        sizes[0] = size;
+        for (int lod = 1; lod < levelCount; lod++) {
+            int target = sizes[lod - 1] / 2;
+            times[lod] = new long[target];
+            levels[lod] = new float[target];
+            sizes[lod] = Lttb.downsample(times[lod - 1], levels[lod - 1], 0, sizes[lod - 1], target,
+                times[lod], levels[lod]);
+        }
+
+        long first = rawTimes[0];
+        long last = rawTimes[size - 1];
+        int markers = 0;
+        for (int i = 0; i < cycles.size(); i++) {
+            long start = cycles.get(i).fullChargeTimestamp;
+            if (start >= first && start <= last) {
+                markers++;
+            }
+        }
+        long[] cycleStarts = new long[markers];
+        markers = 0;
+        for (int i = 0; i < cycles.size(); i++) {
+            long start = cycles.get(i).fullChargeTimestamp;
+            if (start >= first && start <= last) {
+                cycleStarts[markers++] = start;
+            }
+        }
+        return new LevelHistory(times, levels, sizes, cycleStarts);
+    }
+
+    public long getStart() {
+        return times[0][0];
+    }
+
+    public long getEnd() {
+        return times[0][sizes[0] - 1];
+    }
+
+    public int getLevelCount() {
+        return sizes.length;
+    }
+
+    public int size(int lod) {
+        return sizes[lod];
+    }
+
+    public long[] times(int lod) {
+        return times[lod];
+    }
+
+    public float[] levels(int lod) {
+        return levels[lod];
+    }
+
+    /** Wall clock starts of the cycles inside the samples, oldest first. */
+    public long[] getCycleStarts() {
+        return cycleStarts;
+    }
+
+    /**
+     * The coarsest level with at least {@code pixels} points between
+     * {@code from} and {@code to}, or the finest if none has that many.
+     */
+    public int levelFor(long from, long to, int pixels) {
+        for (int lod = sizes.length - 1; lod > 0; lod--) {
+            int visible = lowerBound(times[lod], sizes[lod], to) - lowerBound(times[lod], sizes[lod], from);
+            if (visible >= pixels) {
+                return lod;
+            }
+        }
+        return 0;
+    }
+
+    /** Index of the first of the {@code size} times at or after {@code time}. */
+    public static int lowerBound(long[] times, int size, long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.batterystats;
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling: keeps the first and last
+ * point and, from each bucket in between, the point that forms the largest
+ * triangle with the point kept before it and the average of the next
+ * bucket. Peaks and drops survive, unlike with plain averaging or striding.
+ *
+ * Works on primitive arrays and allocates nothing.
+ */
+public final class Lttb {
+    private Lttb() {
+    }
+
+    /**
+     * Downsamples {@code count} points starting at {@code from} into at most
+     * {@code threshold} points written to the start of {@code outX} and
+     * {@code outY}, and returns how many were written. The input must be
+     * sorted by x and must not overlap the output.
+     */
+    public static int downsample(long[] x, float[] y, int from, int count, int threshold,
+                                 long[] outX, float[] outY) {
+        if (threshold >= count || threshold < 3) {
+            int n = Math.min(count, Math.max(threshold, 0));
+            if (n == count) {
+                System.arraycopy(x, from, outX, 0, n);
+                System.arraycopy(y, from, outY, 0, n);
+                return n;
+            }
+            // Too few buckets for triangles: keep the ends
+            outX[0] = x[from];
+            outY[0] = y[from];
+            if (n > 1) {
+                outX[1] = x[from + count - 1];
+                outY[1] = y[from + count - 1];
+            }
+            return n;
+        }
+
+        // x is made relative to the first point so the areas stay in double precision
+        long origin = x[from];
+        double bucketSize = (double) (count - 2) / (threshold - 2);
+        int kept = from;
+        int written = 0;
+        outX[written] = x[from];
+        outY[written++] = y[from];
+
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int start = from + 1 + (int) (bucket * bucketSize);
+            int end = from + 1 + (int) ((bucket + 1) * bucketSize);
+
+            // Average of the next bucket, or the last point for the final bucket
+            int nextStart = end;
+            int nextEnd = Math.min(from + 1 + (int) ((bucket + 2) * bucketSize), from + count);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += x[i] - origin;
+                avgY += y[i];
+            }
+            int nextCount = nextEnd - nextStart;
+            avgX /= nextCount;
+            avgY /= nextCount;
+
+            double keptX = x[kept] - origin;
+            double keptY = y[kept];
+            double maxArea = -1;
+            int chosen = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((keptX - avgX) * (y[i] - keptY)
+                    - (keptX - (x[i] - origin)) * (avgY - keptY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = i;
+                }
+            }
+            outX[written] = x[chosen];
+            outY[written++] = y[chosen];
+            kept = chosen;
+        }
+
+        outX[written] = x[from + count - 1];
+        outY[written++] = y[from + count - 1];
+        return written;
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.batterystats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide counters and latency histograms for the hot paths.
+ *
+ * Every metric is a fixed slot in an {@link AtomicLongArray}, so recording
+ * takes no lock and allocates nothing and is safe from any thread. Latencies
+ * go into fixed buckets from 10 microseconds to one second; percentiles are
+ * reported as the upper bound of the bucket they fall in.
+ *
+ * <pre>
+ *   long start = Metrics.start();
+ *   ...
+ *   Metrics.stop(Metrics.TIMER_CYCLES_SAVE, start);
+ * </pre>
+ */
+public final class Metrics {
+    public static final int TIMER_BROADCAST = 0;
+    public static final int TIMER_STATE_APPLY = 1;
+    public static final int TIMER_CYCLES_LOAD = 2;
+    public static final int TIMER_CYCLES_SAVE = 3;
+    public static final int TIMER_LEGACY_PARSE = 4;
+    public static final int TIMER_FILE_READ = 5;
+    public static final int TIMER_FILE_WRITE = 6;
+    public static final int TIMER_FSYNC = 7;
+    public static final int TIMER_UI_UPDATE = 8;
+    public static final int TIMER_FIRST_FRAME = 9;
+    public static final int TIMER_FULLY_DRAWN = 10;
+
+    public static final int COUNTER_SAMPLES_RECORDED = 0;
+    public static final int COUNTER_SNAPSHOTS_PUBLISHED = 1;
+    public static final int COUNTER_SNAPSHOTS_DELIVERED = 2;
+    public static final int COUNTER_BYTES_WRITTEN = 3;
+
+    private static final String[] TIMER_NAMES = {
+        "broadcast", "state_apply", "cycles_load", "cycles_save", "legacy_parse",
+        "file_read", "file_write", "fsync", "ui_update", "first_frame", "fully_drawn"
+    };
+    private static final String[] COUNTER_NAMES = {
+        "samples_recorded", "snapshots_published", "snapshots_delivered", "bytes_written"
+    };
+
+    // Upper bounds of every bucket but the last, which is unbounded
+    private static final long[] BUCKET_BOUNDS_NANOS = {
+        10_000L, 30_000L, 100_000L, 300_000L, 1_000_000L, 3_000_000L,
+        10_000_000L, 30_000_000L, 100_000_000L, 300_000_000L, 1_000_000_000L
+    };
+    private static final int BUCKETS = BUCKET_BOUNDS_NANOS.length + 1;
+
+    // Per timer: count, total nanos, max nanos, then the buckets
+    private static final int COUNT = 0;
+    private static final int TOTAL = 1;
+    private static final int MAX = 2;
+    private static final int FIRST_BUCKET = 3;
+    private static final int TIMER_STRIDE = FIRST_BUCKET + BUCKETS;
+
+    private static final AtomicLongArray timers = new AtomicLongArray(TIMER_NAMES.length * TIMER_STRIDE);
+    private static final AtomicLongArray counters = new AtomicLongArray(COUNTER_NAMES.length);
+    private static volatile long resetAt = System.currentTimeMillis();
+
+    private Metrics() {
+    }
+
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /** Records the time since {@code startNanos}, as returned by {@link #start}. */
+    public static void stop(int timer, long startNanos) {
+        record(timer, System.nanoTime() - startNanos);
+    }
+
+    public static void record(int timer, long nanos) {
+        int base = timer * TIMER_STRIDE;
+        timers.incrementAndGet(base + COUNT);
+        timers.addAndGet(base + TOTAL, nanos);
+        long max = timers.get(base + MAX);
+        while (nanos > max && !timers.compareAndSet(base + MAX, max, nanos)) {
+            max = timers.get(base + MAX);
+        }
+        timers.incrementAndGet(base + FIRST_BUCKET + bucketOf(nanos));
+    }
+
+    public static void increment(int counter) {
+        counters.incrementAndGet(counter);
+    }
+
+    public static void add(int counter, long delta) {
+        counters.addAndGet(counter, delta);
+    }
+
+    public static long getCount(int timer) {
+        return timers.get(timer * TIMER_STRIDE + COUNT);
+    }
+
+    public static long getCounter(int counter) {
+        return counters.get(counter);
+    }
+
+    public static void reset() {
+        for (int i = 0; i < timers.length(); i++) {
+            timers.set(i, 0);
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        resetAt = System.currentTimeMillis();
+    }
+
+    /** Prints every metric in a human readable form, for dumpsys. */
+    public static void dump(PrintWriter writer) {
+        writer.println("Metrics since " + resetAt + " ("
+            + (System.currentTimeMillis() - resetAt) / 1000 + "s):");
+        writer.println("  Timers (ms):");
+        for (int timer = 0; timer < TIMER_NAMES.length; timer++) {
+            int base = timer * TIMER_STRIDE;
+            long count = timers.get(base + COUNT);
+            if (count == 0) {
+                continue;
+            }
+            writer.println(String.format(Locale.US,
+                "    %-14s count=%d mean=%.3f max=%.3f p50<=%s p90<=%s p99<=%s",
+                TIMER_NAMES[timer], count,
+                timers.get(base + TOTAL) / (double) count / 1e6,
+                timers.get(base + MAX) / 1e6,
+                percentileBound(base, count, 0.50),
+                percentileBound(base, count, 0.90),
+                percentileBound(base, count, 0.99)));
+            StringBuilder buckets = new StringBuilder("      buckets=");
+            for (int i = 0; i < BUCKETS; i++) {
+                if (i > 0) {
+                    buckets.append(',');
+                }
+                buckets.append(timers.get(base + FIRST_BUCKET + i));
+            }
+            writer.println(buckets);
+        }
+        writer.println("  Counters:");
+        for (int counter = 0; counter < COUNTER_NAMES.length; counter++) {
+            writer.println(String.format(Locale.US, "    %-20s %d",
+                COUNTER_NAMES[counter], counters.get(counter)));
+        }
+    }
+
+    /** Writes the {@link #dump} output to a file, replacing it atomically. */
+    public static void export(File file) throws IOException {
+        StringWriter text = new StringWriter();
+        PrintWriter writer = new PrintWriter(text);
+        dump(writer);
+        writer.flush();
+        StateFiles.writeAtomically(file, text.toString().getBytes("UTF-8"));
+    }
+
+    private static int bucketOf(long nanos) {
+        for (int i = 0; i < BUCKET_BOUNDS_NANOS.length; i++) {
+            if (nanos < BUCKET_BOUNDS_NANOS[i]) {
+                return i;
+            }
+        }
+        return BUCKETS - 1;
+    }
+
+    private static String percentileBound(int base, long count, double quantile) {
+        long rank = (long) Math.ceil(count * quantile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += timers.get(base + FIRST_BUCKET + i);
+            if (seen >= rank) {
+                return i < BUCKET_BOUNDS_NANOS.length
+                    ? String.format(Locale.US, "%.2f", BUCKET_BOUNDS_NANOS[i] / 1e6)
+                    : "inf";
+            }
+        }
+        return "inf";
+    }
+}
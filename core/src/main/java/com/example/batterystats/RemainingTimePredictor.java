@@ -0,0 +1,204 @@
+package com.example.batterystats;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Predicts remaining battery time from separate screen-on and screen-off
+ * drain rates.
+ *
+ * Discharge time is split into segments at every screen and level change.
+ * Each closed segment updates an exponentially weighted mean and variance of
+ * the drain rate for its screen state, and an exponentially weighted share
+ * of screen-on time. The projected rate is the mix of the two rates by that
+ * share, and the bounds come from the per-state standard deviations. Every
+ * update is O(1), and the result is cached until the next event.
+ *
+ * Not thread-safe; the service drives it from the main thread.
+ */
+public class RemainingTimePredictor {
+    private static final int MAGIC = 0x48425031; // "HBP1"
+    private static final double RATE_ALPHA = 0.1;
+    // Weighted per hour of discharge, so the screen mix follows the last day or so
+    private static final double MIX_ALPHA_PER_HOUR = 0.05;
+    private static final long MIN_SEGMENT_MS = 60 * 1000;
+    private static final long MAX_SEGMENT_MS = 12 * 3600 * 1000L;
+    private static final double MIN_RATE = 0.05; // %/hour, below this we cannot project
+
+    /** Result of the last update. Values are -1 when there is not enough data yet. */
+    public static final class Prediction {
+        public final long remainingMillis;
+        public final long lowerMillis;
+        public final long upperMillis;
+        public final double ratePerHour;
+
+        Prediction(long remainingMillis, long lowerMillis, long upperMillis, double ratePerHour) {
+            this.remainingMillis = remainingMillis;
+            this.lowerMillis = lowerMillis;
+            this.upperMillis = upperMillis;
+            this.ratePerHour = ratePerHour;
+        }
+    }
+
+    private static final Prediction UNKNOWN = new Prediction(-1, -1, -1, 0);
+
+    private final RateModel screenOn = new RateModel();
+    private final RateModel screenOff = new RateModel();
+    private double screenOnShare = 0.3;
+
+    // Current open segment
+    private boolean discharging;
+    private boolean screenIsOn = true;
+    private long segmentStart;
+    private int segmentStartLevel = -1;
+    private int level = -1;
+
+    private Prediction prediction = UNKNOWN;
+
+    public Prediction getPrediction() {
+        return prediction;
+    }
+
+    /** Returns true if a segment was folded into the model, meaning the state is worth saving. */
+    public boolean onScreenChanged(long elapsedRealtime, boolean on) {
+        if (on == screenIsOn) {
+            return false;
+        }
+        boolean learned = closeSegment(elapsedRealtime);
+        screenIsOn = on;
+        recompute();
+        return learned;
+    }
+
+    /** Returns true if a segment was folded into the model, meaning the state is worth saving. */
+    public boolean onBatteryChanged(long elapsedRealtime, int newLevel, boolean charging) {
+        boolean learned = false;
+        if (charging) {
+            discharging = false;
+            segmentStartLevel = -1;
+        } else if (!discharging) {
+            discharging = true;
+            segmentStart = elapsedRealtime;
+            segmentStartLevel = newLevel;
+        } else if (newLevel != level) {
+            // The segment ends at the new level
+            level = newLevel;
+            learned = closeSegment(elapsedRealtime);
+        }
+        level = newLevel;
+        recompute();
+        return learned;
+    }
+
+    private boolean closeSegment(long now) {
+        if (!discharging) {
+            return false;
+        }
+        long duration = now - segmentStart;
+        boolean learned = false;
+        if (segmentStartLevel >= 0 && duration >= MIN_SEGMENT_MS && duration <= MAX_SEGMENT_MS) {
+            learned = true;
+            double hours = duration / 3600000.0;
+            double rate = Math.max(0, segmentStartLevel - level) / hours;
+            (screenIsOn ? screenOn : screenOff).add(rate, hours);
+
+            double weight = 1 - Math.pow(1 - MIX_ALPHA_PER_HOUR, hours);
+            screenOnShare += weight * ((screenIsOn ? 1 : 0) - screenOnShare);
+        }
+        if (duration >= MIN_SEGMENT_MS || level != segmentStartLevel) {
+            segmentStart = now;
+            segmentStartLevel = level;
+        }
+        return learned;
+    }
+
+    private void recompute() {
+        if (!discharging || level <= 0 || (!screenOn.ready() && !screenOff.ready())) {
+            prediction = UNKNOWN;
+            return;
+        }
+        // Fall back to the other state's rate until both have been observed
+        double onRate = screenOn.ready() ? screenOn.mean : screenOff.mean;
+        double offRate = screenOff.ready() ? screenOff.mean : screenOn.mean;
+        double onDev = screenOn.ready() ? screenOn.deviation() : screenOff.deviation();
+        double offDev = screenOff.ready() ? screenOff.deviation() : screenOn.deviation();
+
+        double share = screenOnShare;
+        double rate = share * onRate + (1 - share) * offRate;
+        double deviation = Math.sqrt(share * onDev * onDev + (1 - share) * offDev * offDev);
+        if (rate < MIN_RATE) {
+            prediction = UNKNOWN;
+            return;
+        }
+        double fastRate = rate + deviation;
+        double slowRate = Math.max(MIN_RATE, rate - deviation);
+        prediction = new Prediction(
+            hoursToMillis(level / rate),
+            hoursToMillis(level / fastRate),
+            hoursToMillis(level / slowRate),
+            rate);
+    }
+
+    private static long hoursToMillis(double hours) {
+        return (long) (hours * 3600000);
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeDouble(screenOnShare);
+        screenOn.writeTo(out);
+        screenOff.writeTo(out);
+    }
+
+    public void readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a predictor state file");
+        }
+        screenOnShare = in.readDouble();
+        screenOn.readFrom(in);
+        screenOff.readFrom(in);
+        recompute();
+    }
+
+    /** Exponentially weighted mean and variance of one screen state's drain rate. */
+    static final class RateModel {
+        double mean;
+        double variance;
+        double hours;
+
+        void add(double rate, double segmentHours) {
+            // Longer segments carry more evidence than a minute-long blip
+            double alpha = Math.min(1, RATE_ALPHA * Math.max(0.25, segmentHours));
+            if (hours == 0) {
+                mean = rate;
+                variance = 0;
+            } else {
+                double delta = rate - mean;
+                mean += alpha * delta;
+                variance = (1 - alpha) * (variance + alpha * delta * delta);
+            }
+            hours += segmentHours;
+        }
+
+        boolean ready() {
+            return hours > 0.25;
+        }
+
+        double deviation() {
+            return Math.sqrt(variance);
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeDouble(mean);
+            out.writeDouble(variance);
+            out.writeDouble(hours);
+        }
+
+        void readFrom(DataInputStream in) throws IOException {
+            mean = in.readDouble();
+            variance = in.readDouble();
+            hours = in.readDouble();
+        }
+    }
+}
@@ -0,0 +1,735 @@
+package com.example.batterystats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Minute, hour and day aggregates of the battery samples, kept up to date as
+ * samples arrive.
+ *
+ * Each tier holds its buckets in parallel primitive arrays sorted by start
+ * time and drops buckets that fall out of its retention window. Besides the
+ * per-bucket level range, every bucket stores running totals of everything
+ * before it, so the drain, charge and discharge time of any range come from
+ * two binary searches and a subtraction.
+ *
+ * A bucket is closed once a later one starts, and never changes after that.
+ * Closed buckets are appended to a journal of fixed-width records, each with
+ * the totals before and after it and a CRC32, so a save writes only the
+ * buckets closed since the last one. The open bucket of each tier and the
+ * running totals go to a small tail file that is replaced on every save.
+ * The journal is rewritten only once expired records outnumber live ones.
+ *
+ * <pre>
+ *   0  short  record mark
+ *   2  byte   tier
+ *   3  byte   min level
+ *   4  byte   max level
+ *   5  3 bytes reserved
+ *   8  long   bucket start
+ *  16  long[5] samples, drain, charge, discharge millis, cycles before the bucket
+ *  56  long[5] the same totals after it
+ *  96  int    crc32
+ * </pre>
+ *
+ * Samples are added on the writer thread the store was created with, which
+ * is also where it loads and persists itself. Queries may come from any
+ * thread and hold the store's lock.
+ */
+public class RollupStore {
+    public static final int TIER_MINUTE = 0;
+    public static final int TIER_HOUR = 1;
+    public static final int TIER_DAY = 2;
+
+    public static final String FILENAME = "battery_rollups.bin";
+
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 100;
+
+    private static final int FILE_MAGIC = 0x48424131; // "HBA1"
+    private static final int FILE_VERSION = 1;
+    private static final int TAIL_MAGIC = 0x48424154; // "HBAT"
+    private static final short RECORD_MARK = 0x4152;
+    private static final int TOTALS = 5;
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+    private static final long SAVE_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /** The totals of one bucket, as read by {@link #readBucket}. */
+    public static class Bucket {
+        public long start;
+        public int minLevel;
+        public int maxLevel;
+        public long samples;
+        public long drainPercent;
+        public long chargePercent;
+        public long dischargeMillis;
+        public long cyclesStarted;
+    }
+
+    /** Totals over a queried time range. */
+    public static class Range {
+        public int tier;
+        public long from;
+        public long to;
+        public long samples;
+        public long drainPercent;
+        public long chargePercent;
+        public long dischargeMillis;
+        public long cyclesStarted;
+
+        public double getDrainRatePerHour() {
+            if (dischargeMillis <= 0) return 0;
+            return drainPercent / (dischargeMillis / 3600000.0);
+        }
+    }
+
+    private final File file;
+    private final File tailFile;
+    private final File tempFile;
+    private final ScheduledExecutorService writer;
+    private final CoalescingTask saveTask;
+    private final CRC32 crc = new CRC32();
+    private final Tier[] tiers = {
+        new Tier(TimeUnit.MINUTES.toMillis(1), TimeUnit.DAYS.toMillis(7)),
+        new Tier(TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(90)),
+        new Tier(TimeUnit.DAYS.toMillis(1), 0)
+    };
+
+    private long lastTimestamp;
+    private int lastLevel = -1;
+    private boolean lastCharging;
+
+    // Records in the journal, expired ones included, and where the last valid one ends
+    private int recordCount;
+    private long journalEnd = -1;
+
+    public RollupStore(File file, ScheduledExecutorService writer) {
+        this.file = file;
+        this.tailFile = new File(file.getPath() + ".tail");
+        this.tempFile = new File(file.getPath() + ".tmp");
+        this.writer = writer;
+        this.saveTask = new CoalescingTask(writer, this::save, SAVE_DELAY_MS);
+        writer.execute(this::load);
+    }
+
+    /** Writes pending changes now instead of waiting for the save delay. */
+    public void flushNow() {
+        writer.execute(saveTask::runNowIfPending);
+    }
+
+    /**
+     * Folds one reading into every tier. Readings that change neither the
+     * level nor charging are skipped, so the pipeline's state transitions and
+     * a backfill from the raw samples build the same buckets.
+     */
+    public synchronized void addSample(long timestamp, int level, boolean charging) {
+        if (level == lastLevel && charging == lastCharging) {
+            return;
+        }
+        long drain = 0;
+        long charge = 0;
+        long dischargeMillis = 0;
+        if (lastLevel >= 0) {
+            long gap = timestamp - lastTimestamp;
+            if (level < lastLevel) {
+                drain = lastLevel - level;
+            } else if (level > lastLevel) {
+                charge = level - lastLevel;
+            }
+            // Transitions are hours apart on a slow drain. Only a level that went up
+            // without a charging reading means we missed a charge and cannot tell the time.
+            if (!lastCharging && gap > 0 && level <= lastLevel) {
+                dischargeMillis = gap;
+            }
+        }
+        for (Tier tier : tiers) {
+            tier.add(timestamp, level, 1, drain, charge, dischargeMillis, 0);
+        }
+        lastTimestamp = timestamp;
+        lastLevel = level;
+        lastCharging = charging;
+        saveTask.request();
+    }
+
+    public synchronized void addCycleStart(long timestamp, int level) {
+        for (Tier tier : tiers) {
+            tier.add(timestamp, level, 0, 0, 0, 0, 1);
+        }
+        saveTask.request();
+    }
+
+    /**
+     * Replays the retained samples of a ring and the starts of {@code cycles},
+     * in the order the pipeline would have added them, used once when no
+     * rollups exist yet.
+     */
+    public synchronized void backfill(SampleRing ring, List<ChargeCycle> cycles) {
+        if (!tiers[TIER_DAY].isEmpty()) {
+            return;
+        }
+        int cycle = 0;
+        int size = ring.size();
+        for (int i = 0; i < size; i++) {
+            int slot = ring.slotAt(i);
+            long timestamp = ring.timestamp(slot);
+            // A cycle starts on the transition that carries its timestamp, right after the sample
+            for (; cycle < cycles.size() && cycles.get(cycle).fullChargeTimestamp < timestamp; cycle++) {
+                addCycleStart(cycles.get(cycle).fullChargeTimestamp, cycles.get(cycle).startLevel);
+            }
+            addSample(timestamp, ring.level(slot), BatteryStatus.isCharging(ring.status(slot)));
+            for (; cycle < cycles.size() && cycles.get(cycle).fullChargeTimestamp == timestamp; cycle++) {
+                addCycleStart(timestamp, cycles.get(cycle).startLevel);
+            }
+        }
+        for (; cycle < cycles.size(); cycle++) {
+            addCycleStart(cycles.get(cycle).fullChargeTimestamp, cycles.get(cycle).startLevel);
+        }
+    }
+
+    /**
+     * Sums the range {@code [from, to)} from the finest tier that still covers
+     * {@code from}. Results are aligned to that tier's bucket boundaries.
+     */
+    public synchronized Range query(long from, long to, Range out) {
+        int tierIndex = TIER_DAY;
+        for (int i = 0; i < tiers.length; i++) {
+            if (!tiers[i].isEmpty() && tiers[i].firstStart() <= from) {
+                tierIndex = i;
+                break;
+            }
+        }
+        tiers[tierIndex].sum(from, to, out);
+        out.tier = tierIndex;
+        return out;
+    }
+
+    public synchronized int getBucketCount(int tier) {
+        return tiers[tier].size - tiers[tier].head;
+    }
+
+    /** Number of live buckets of {@code tier} that start before {@code time}. */
+    public synchronized int bucketsBefore(int tier, long time) {
+        Tier t = tiers[tier];
+        return t.lowerBound(time) - t.head;
+    }
+
+    /**
+     * Copies the {@code index}-th oldest live bucket of {@code tier} into
+     * {@code out}; returns false if there is no such bucket.
+     */
+    public synchronized boolean readBucket(int tier, int index, Bucket out) {
+        Tier t = tiers[tier];
+        int i = t.head + index;
+        if (index < 0 || i >= t.size) {
+            return false;
+        }
+        out.start = t.start[i];
+        out.minLevel = t.minLevel[i];
+        out.maxLevel = t.maxLevel[i];
+        out.samples = t.totalBefore(t.samplesBefore, t.samples, i + 1) - t.samplesBefore[i];
+        out.drainPercent = t.totalBefore(t.drainBefore, t.drain, i + 1) - t.drainBefore[i];
+        out.chargePercent = t.totalBefore(t.chargeBefore, t.charge, i + 1) - t.chargeBefore[i];
+        out.dischargeMillis = t.totalBefore(t.dischargeBefore, t.dischargeMillis, i + 1) - t.dischargeBefore[i];
+        out.cyclesStarted = t.totalBefore(t.cyclesBefore, t.cycles, i + 1) - t.cyclesBefore[i];
+        return true;
+    }
+
+    private synchronized void load() {
+        try {
+            long[] lastAfter = loadJournal();
+            loadTail(lastAfter);
+        } catch (IOException e) {
+            e.printStackTrace();
+            for (int i = 0; i < tiers.length; i++) {
+                tiers[i] = new Tier(tiers[i].width, tiers[i].retention);
+            }
+            lastLevel = -1;
+            recordCount = 0;
+            journalEnd = -1;
+        }
+    }
+
+    /**
+     * Rebuilds the closed buckets from the journal, cutting off a torn or
+     * corrupt tail, and returns each tier's totals after its last bucket.
+     */
+    private long[] loadJournal() throws IOException {
+        long[] lastAfter = new long[tiers.length * TOTALS];
+        if (tempFile.exists()) {
+            // Leftover from an interrupted compaction, the journal itself is intact
+            tempFile.delete();
+        }
+        if (!file.exists()) {
+            return lastAfter;
+        }
+        long start = Metrics.start();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (readFully(channel, header, 0) < HEADER_SIZE
+                    || header.getInt(0) != FILE_MAGIC || header.getInt(4) != FILE_VERSION) {
+                // Not a journal we can read; the next save starts a new one
+                return lastAfter;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+            long[] before = new long[TOTALS];
+            long position = HEADER_SIZE;
+            boolean corrupt = false;
+            while (!corrupt && position < size) {
+                buffer.clear();
+                int records = readFully(channel, buffer, position) / RECORD_SIZE;
+                for (int i = 0; i < records; i++) {
+                    int offset = i * RECORD_SIZE;
+                    int tier = isValid(buffer, offset) ? buffer.get(offset + 2) : -1;
+                    if (tier < 0 || tier >= tiers.length) {
+                        corrupt = true;
+                        break;
+                    }
+                    for (int j = 0; j < TOTALS; j++) {
+                        before[j] = buffer.getLong(offset + 16 + j * 8);
+                        lastAfter[tier * TOTALS + j] = buffer.getLong(offset + 56 + j * 8);
+                    }
+                    tiers[tier].restore(buffer.getLong(offset + 8), before,
+                        buffer.get(offset + 3), buffer.get(offset + 4));
+                    recordCount++;
+                    position += RECORD_SIZE;
+                }
+                if (records == 0) {
+                    break;
+                }
+            }
+            if (position < size) {
+                channel.truncate(position);
+            }
+            journalEnd = position;
+        } finally {
+            raf.close();
+            Metrics.stop(Metrics.TIMER_FILE_READ, start);
+        }
+        for (Tier tier : tiers) {
+            tier.expire();
+        }
+        return lastAfter;
+    }
+
+    /**
+     * Restores the open buckets and running totals. A tail that does not
+     * follow the journal's last bucket, left by a crash between the two
+     * writes, is ignored, and so is the last sample it remembers.
+     */
+    private void loadTail(long[] lastAfter) throws IOException {
+        for (int i = 0; i < tiers.length; i++) {
+            tiers[i].setTotals(lastAfter, i * TOTALS);
+        }
+        byte[] data = StateFiles.read(tailFile);
+        if (data == null) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != TAIL_MAGIC) {
+            return;
+        }
+        long timestamp = in.readLong();
+        int level = in.readInt();
+        boolean charging = in.readBoolean();
+        long[] totals = new long[TOTALS];
+        long[] before = new long[TOTALS];
+        boolean consistent = true;
+        for (int i = 0; i < tiers.length; i++) {
+            Tier tier = tiers[i];
+            for (int j = 0; j < TOTALS; j++) {
+                totals[j] = in.readLong();
+            }
+            if (!in.readBoolean()) {
+                continue;
+            }
+            long start = in.readLong();
+            for (int j = 0; j < TOTALS; j++) {
+                before[j] = in.readLong();
+            }
+            byte minLevel = in.readByte();
+            byte maxLevel = in.readByte();
+            // A tier with no closed bucket left in the journal has nothing to check against
+            boolean follows = tier.size == 0 || start > tier.start[tier.size - 1];
+            for (int j = 0; j < TOTALS && follows && tier.size > 0; j++) {
+                follows = before[j] == lastAfter[i * TOTALS + j];
+            }
+            if (!follows) {
+                consistent = false;
+                continue;
+            }
+            tier.restore(start, before, minLevel, maxLevel);
+            tier.setTotals(totals, 0);
+            tier.expire();
+        }
+        if (consistent) {
+            lastTimestamp = timestamp;
+            lastLevel = level;
+            lastCharging = charging;
+        }
+    }
+
+    private synchronized void save() {
+        int closed = 0;
+        int unsaved = 0;
+        for (Tier tier : tiers) {
+            closed += tier.closedCount();
+            unsaved += tier.unsavedCount();
+        }
+        try {
+            if (unsaved > 0) {
+                if (journalEnd < 0 || recordCount + unsaved > Math.max(MIN_COMPACTION_RECORDS, closed * 2)) {
+                    compact(closed);
+                } else {
+                    append(unsaved);
+                }
+                for (Tier tier : tiers) {
+                    tier.unsaved = 0;
+                }
+            }
+            StateFiles.writeAtomically(tailFile, encodeTail());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Appends the buckets closed since the last save and forces them to storage. */
+    private void append(int unsaved) throws IOException {
+        long start = Metrics.start();
+        ByteBuffer buffer = ByteBuffer.allocate(unsaved * RECORD_SIZE);
+        for (int i = 0; i < tiers.length; i++) {
+            Tier tier = tiers[i];
+            for (int b = tier.size - 1 - tier.unsavedCount(); b < tier.size - 1; b++) {
+                encode(buffer, i, tier, b);
+            }
+        }
+        buffer.flip();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            long position = journalEnd;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            long syncStart = Metrics.start();
+            channel.force(false);
+            Metrics.stop(Metrics.TIMER_FSYNC, syncStart);
+            journalEnd = position;
+        } finally {
+            raf.close();
+        }
+        recordCount += unsaved;
+        Metrics.add(Metrics.COUNTER_BYTES_WRITTEN, (long) unsaved * RECORD_SIZE);
+        Metrics.stop(Metrics.TIMER_FILE_WRITE, start);
+    }
+
+    /** Rewrites the journal with only the live closed buckets. */
+    private void compact(int closed) throws IOException {
+        long start = Metrics.start();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + closed * RECORD_SIZE);
+        buffer.putInt(FILE_MAGIC);
+        buffer.putInt(FILE_VERSION);
+        buffer.putLong(0);
+        for (int i = 0; i < tiers.length; i++) {
+            Tier tier = tiers[i];
+            for (int b = tier.head; b < tier.size - 1; b++) {
+                encode(buffer, i, tier, b);
+            }
+        }
+        buffer.flip();
+        long size = buffer.remaining();
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            long syncStart = Metrics.start();
+            channel.force(true);
+            Metrics.stop(Metrics.TIMER_FSYNC, syncStart);
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+        recordCount = closed;
+        journalEnd = size;
+        Metrics.add(Metrics.COUNTER_BYTES_WRITTEN, size);
+        Metrics.stop(Metrics.TIMER_FILE_WRITE, start);
+    }
+
+    /** Encodes the closed bucket {@code index}; the totals after it are the next bucket's before. */
+    private void encode(ByteBuffer buffer, int tierIndex, Tier tier, int index) {
+        int start = buffer.position();
+        buffer.putShort(RECORD_MARK);
+        buffer.put((byte) tierIndex);
+        buffer.put(tier.minLevel[index]);
+        buffer.put(tier.maxLevel[index]);
+        buffer.put((byte) 0);
+        buffer.putShort((short) 0);
+        buffer.putLong(tier.start[index]);
+        tier.putTotalsBefore(buffer, index);
+        tier.putTotalsBefore(buffer, index + 1);
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, RECORD_SIZE - 4);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    private boolean isValid(ByteBuffer buffer, int offset) {
+        if (buffer.getShort(offset) != RECORD_MARK) {
+            return false;
+        }
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + offset, RECORD_SIZE - 4);
+        return (int) crc.getValue() == buffer.getInt(offset + RECORD_SIZE - 4);
+    }
+
+    private byte[] encodeTail() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(TAIL_MAGIC);
+        out.writeLong(lastTimestamp);
+        out.writeInt(lastLevel);
+        out.writeBoolean(lastCharging);
+        for (Tier tier : tiers) {
+            out.writeLong(tier.samples);
+            out.writeLong(tier.drain);
+            out.writeLong(tier.charge);
+            out.writeLong(tier.dischargeMillis);
+            out.writeLong(tier.cycles);
+            out.writeBoolean(!tier.isEmpty());
+            if (!tier.isEmpty()) {
+                int open = tier.size - 1;
+                out.writeLong(tier.start[open]);
+                out.writeLong(tier.samplesBefore[open]);
+                out.writeLong(tier.drainBefore[open]);
+                out.writeLong(tier.chargeBefore[open]);
+                out.writeLong(tier.dischargeBefore[open]);
+                out.writeLong(tier.cyclesBefore[open]);
+                out.writeByte(tier.minLevel[open]);
+                out.writeByte(tier.maxLevel[open]);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * One resolution of rollups. Live buckets are {@code [head, size)}; the
+     * cumulative arrays hold the totals of all buckets before each index.
+     */
+    static final class Tier {
+        final long width;
+        final long retention;
+
+        int head;
+        int size;
+        // Closed buckets not yet in the journal, the newest ones before the open bucket
+        int unsaved;
+        long[] start = new long[16];
+        long[] samplesBefore = new long[16];
+        long[] drainBefore = new long[16];
+        long[] chargeBefore = new long[16];
+        long[] dischargeBefore = new long[16];
+        long[] cyclesBefore = new long[16];
+        byte[] minLevel = new byte[16];
+        byte[] maxLevel = new byte[16];
+
+        long samples;
+        long drain;
+        long charge;
+        long dischargeMillis;
+        long cycles;
+
+        Tier(long width, long retention) {
+            this.width = width;
+            this.retention = retention;
+        }
+
+        boolean isEmpty() {
+            return head == size;
+        }
+
+        long firstStart() {
+            return start[head];
+        }
+
+        void add(long timestamp, int level, long sampleCount, long drainDelta, long chargeDelta,
+                 long dischargeDelta, long cycleDelta) {
+            long bucket = timestamp - Math.floorMod(timestamp, width);
+            if (isEmpty() || bucket > start[size - 1]) {
+                append(bucket, level);
+            } else {
+                // Late or clock-skewed samples are folded into the newest bucket
+                int last = size - 1;
+                if (level < minLevel[last]) minLevel[last] = (byte) level;
+                if (level > maxLevel[last]) maxLevel[last] = (byte) level;
+            }
+            samples += sampleCount;
+            drain += drainDelta;
+            charge += chargeDelta;
+            dischargeMillis += dischargeDelta;
+            cycles += cycleDelta;
+        }
+
+        void sum(long from, long to, Range out) {
+            int first = lowerBound(from - Math.floorMod(from, width));
+            int end = lowerBound(to);
+            out.from = first < size ? start[first] : to;
+            out.to = to;
+            out.samples = totalBefore(samplesBefore, samples, end) - totalBefore(samplesBefore, samples, first);
+            out.drainPercent = totalBefore(drainBefore, drain, end) - totalBefore(drainBefore, drain, first);
+            out.chargePercent = totalBefore(chargeBefore, charge, end) - totalBefore(chargeBefore, charge, first);
+            out.dischargeMillis = totalBefore(dischargeBefore, dischargeMillis, end)
+                - totalBefore(dischargeBefore, dischargeMillis, first);
+            out.cyclesStarted = totalBefore(cyclesBefore, cycles, end) - totalBefore(cyclesBefore, cycles, first);
+        }
+
+        private long totalBefore(long[] before, long total, int index) {
+            return index < size ? before[index] : total;
+        }
+
+        /** First live bucket index with a start at or after {@code time}. */
+        int lowerBound(long time) {
+            int low = head;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (start[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private void append(long bucket, int level) {
+            if (!isEmpty()) {
+                unsaved++;
+            }
+            if (retention > 0) {
+                int expired = lowerBound(bucket - retention);
+                head = expired;
+            }
+            if (size == start.length) {
+                grow();
+            }
+            start[size] = bucket;
+            samplesBefore[size] = samples;
+            drainBefore[size] = drain;
+            chargeBefore[size] = charge;
+            dischargeBefore[size] = dischargeMillis;
+            cyclesBefore[size] = cycles;
+            minLevel[size] = (byte) level;
+            maxLevel[size] = (byte) level;
+            size++;
+        }
+
+        /** Compacts away expired buckets, growing the arrays only if still full. */
+        private void grow() {
+            int live = size - head;
+            int capacity = live * 2 > start.length ? start.length * 2 : start.length;
+            start = shift(start, capacity);
+            samplesBefore = shift(samplesBefore, capacity);
+            drainBefore = shift(drainBefore, capacity);
+            chargeBefore = shift(chargeBefore, capacity);
+            dischargeBefore = shift(dischargeBefore, capacity);
+            cyclesBefore = shift(cyclesBefore, capacity);
+            minLevel = shift(minLevel, capacity);
+            maxLevel = shift(maxLevel, capacity);
+            size = live;
+            head = 0;
+        }
+
+        private long[] shift(long[] array, int capacity) {
+            long[] result = capacity == array.length ? array : new long[capacity];
+            System.arraycopy(array, head, result, 0, size - head);
+            return result;
+        }
+
+        private byte[] shift(byte[] array, int capacity) {
+            byte[] result = capacity == array.length ? array : new byte[capacity];
+            System.arraycopy(array, head, result, 0, size - head);
+            return result;
+        }
+
+        /** Live buckets that a later bucket has closed. */
+        int closedCount() {
+            return Math.max(0, size - head - 1);
+        }
+
+        int unsavedCount() {
+            return Math.min(unsaved, closedCount());
+        }
+
+        /** Writes the totals before bucket {@code index}, or the running totals past the last one. */
+        void putTotalsBefore(ByteBuffer buffer, int index) {
+            buffer.putLong(totalBefore(samplesBefore, samples, index));
+            buffer.putLong(totalBefore(drainBefore, drain, index));
+            buffer.putLong(totalBefore(chargeBefore, charge, index));
+            buffer.putLong(totalBefore(dischargeBefore, dischargeMillis, index));
+            buffer.putLong(totalBefore(cyclesBefore, cycles, index));
+        }
+
+        void setTotals(long[] totals, int offset) {
+            samples = totals[offset];
+            drain = totals[offset + 1];
+            charge = totals[offset + 2];
+            dischargeMillis = totals[offset + 3];
+            cycles = totals[offset + 4];
+        }
+
+        /** Appends a bucket read back from disk; out of order ones are skipped. */
+        void restore(long bucket, long[] before, byte min, byte max) {
+            if (size > 0 && bucket <= start[size - 1]) {
+                return;
+            }
+            if (size == start.length) {
+                grow();
+            }
+            start[size] = bucket;
+            samplesBefore[size] = before[0];
+            drainBefore[size] = before[1];
+            chargeBefore[size] = before[2];
+            dischargeBefore[size] = before[3];
+            cyclesBefore[size] = before[4];
+            minLevel[size] = min;
+            maxLevel[size] = max;
+            size++;
+        }
+
+        /** Drops the buckets outside the retention window of the newest one. */
+        void expire() {
+            if (retention > 0 && !isEmpty()) {
+                head = lowerBound(start[size - 1] - retention);
+            }
+        }
+    }
+}
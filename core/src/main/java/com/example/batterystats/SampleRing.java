@@ -0,0 +1,210 @@
+package com.example.batterystats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed-size ring of raw battery samples in a memory-mapped file.
+ *
+ * Every record is 32 bytes of primitives, so appending is a handful of
+ * absolute puts into the mapping with no allocation and no system call.
+ * Once the ring is full the oldest sample is overwritten. Readers walk the
+ * mapping in place through {@link #scan} and the per-slot accessors.
+ *
+ * <pre>
+ *   0  long   timestamp (wall clock millis)
+ *   8  int    current now (microamps, negative while discharging)
+ *  12  int    charge counter (microamp hours)
+ *  16  int    voltage (millivolts)
+ *  20  int    temperature (tenths of a degree Celsius)
+ *  24  short  level (percent)
+ *  26  byte   status (BatteryStatus, mirrors BatteryManager.BATTERY_STATUS_*)
+ *  27  byte   plugged (BatteryManager.BATTERY_PLUGGED_*)
+ *  28  byte   health (BatteryManager.BATTERY_HEALTH_*)
+ *  29  3 bytes reserved
+ * </pre>
+ *
+ * The header stores the total number of samples ever written. It is bumped
+ * after the record itself, so a sample torn by a crash is never visible.
+ *
+ * Samples are in append order, which is wall clock order only until the
+ * user sets the clock back. The time searches assume sorted timestamps, so
+ * after such a change a window near the times that repeat can start or end
+ * at the wrong sample. Append order itself never breaks: walk by index or
+ * sequence number where every sample matters.
+ */
+public class SampleRing {
+    public static final int DEFAULT_CAPACITY = 128 * 1024; // ~3 months at one sample a minute
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+    public static final String FILENAME = "battery_samples.ring";
+
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 32;
+
+    private static final int MAGIC = 0x48425231; // "HBR1"
+    private static final int VERSION = 1;
+    private static final int OFFSET_COUNT = 16;
+
+    /** Receives the slots of a {@link #scan}. Read the sample through the ring's accessors. */
+    public interface Visitor {
+        void visit(SampleRing ring, int slot);
+    }
+
+    private final int capacity;
+    private final MappedByteBuffer buffer;
+    private volatile long count;
+
+    public SampleRing(File file, int capacity) throws IOException {
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            boolean fresh = raf.length() != size;
+            if (fresh) {
+                raf.setLength(0);
+                raf.setLength(size);
+            }
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            // The mapping stays valid after the channel is closed
+            raf.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getInt(8) != capacity || buffer.getInt(12) != RECORD_SIZE) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, capacity);
+            buffer.putInt(12, RECORD_SIZE);
+            buffer.putLong(OFFSET_COUNT, 0);
+        }
+        this.capacity = capacity;
+        this.count = buffer.getLong(OFFSET_COUNT);
+    }
+
+    /** Appends one sample. Only one thread may append. */
+    public void append(long timestamp, int level, int voltage, int temperature,
+                       int currentNow, int chargeCounter, int status, int plugged, int health) {
+        long next = count;
+        int offset = HEADER_SIZE + (int) (next % capacity) * RECORD_SIZE;
+        buffer.putLong(offset, timestamp);
+        buffer.putInt(offset + 8, currentNow);
+        buffer.putInt(offset + 12, chargeCounter);
+        buffer.putInt(offset + 16, voltage);
+        buffer.putInt(offset + 20, temperature);
+        buffer.putShort(offset + 24, (short) level);
+        buffer.put(offset + 26, (byte) status);
+        buffer.put(offset + 27, (byte) plugged);
+        buffer.put(offset + 28, (byte) health);
+        buffer.putLong(OFFSET_COUNT, next + 1);
+        count = next + 1;
+    }
+
+    /** Flushes dirty pages to storage. Not needed for durability across process death. */
+    public void force() {
+        long start = Metrics.start();
+        buffer.force();
+        Metrics.stop(Metrics.TIMER_FSYNC, start);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Number of samples currently held, at most the capacity. */
+    public int size() {
+        return (int) Math.min(count, capacity);
+    }
+
+    /** Total number of samples ever appended. */
+    public long getTotalCount() {
+        return count;
+    }
+
+    /** Returns the slot of the {@code index}-th oldest retained sample. */
+    public int slotAt(int index) {
+        long total = count;
+        long oldest = total - Math.min(total, capacity);
+        return (int) ((oldest + index) % capacity);
+    }
+
+    /**
+     * Visits every retained sample with {@code from <= timestamp < to}, oldest
+     * first, and returns how many were visited. The start is found by binary
+     * search, so the cost depends on the window, not on the ring size. After
+     * the clock was set back the window may be off; see the class comment.
+     */
+    public int scan(long from, long to, Visitor visitor) {
+        int size = size();
+        int index = lowerBound(from, size);
+        int visited = 0;
+        for (; index < size; index++) {
+            int slot = slotAt(index);
+            if (timestamp(slot) >= to) {
+                break;
+            }
+            visitor.visit(this, slot);
+            visited++;
+        }
+        return visited;
+    }
+
+    /**
+     * Index of the first retained sample with a timestamp at or after
+     * {@code time}, if timestamps are sorted. Otherwise some index where a
+     * sample before {@code time} is followed by one at or after it.
+     */
+    public int lowerBound(long time, int size) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamp(slotAt(mid)) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public long timestamp(int slot) {
+        return buffer.getLong(HEADER_SIZE + slot * RECORD_SIZE);
+    }
+
+    public int currentNow(int slot) {
+        return buffer.getInt(HEADER_SIZE + slot * RECORD_SIZE + 8);
+    }
+
+    public int chargeCounter(int slot) {
+        return buffer.getInt(HEADER_SIZE + slot * RECORD_SIZE + 12);
+    }
+
+    public int voltage(int slot) {
+        return buffer.getInt(HEADER_SIZE + slot * RECORD_SIZE + 16);
+    }
+
+    public int temperature(int slot) {
+        return buffer.getInt(HEADER_SIZE + slot * RECORD_SIZE + 20);
+    }
+
+    public int level(int slot) {
+        return buffer.getShort(HEADER_SIZE + slot * RECORD_SIZE + 24);
+    }
+
+    public int status(int slot) {
+        return buffer.get(HEADER_SIZE + slot * RECORD_SIZE + 26);
+    }
+
+    public int plugged(int slot) {
+        return buffer.get(HEADER_SIZE + slot * RECORD_SIZE + 27);
+    }
+
+    public int health(int slot) {
+        return buffer.get(HEADER_SIZE + slot * RECORD_SIZE + 28);
+    }
+}
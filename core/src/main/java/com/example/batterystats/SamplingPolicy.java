@@ -0,0 +1,47 @@
+package com.example.batterystats;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the delay until the next battery sample in scheduled mode.
+ *
+ * The aim is one sample per percent of change: the delay is the time the
+ * last observed rate needs to move the level by one percent, bounded so a
+ * fast drain is not over-sampled and an idle phone is still checked. While
+ * charging close to full it samples at the minimum, since the moment the
+ * charger is unplugged after a full charge starts a cycle.
+ */
+public final class SamplingPolicy {
+    public static final long MIN_DELAY_MS = TimeUnit.MINUTES.toMillis(5);
+    public static final long MAX_DELAY_MS = TimeUnit.HOURS.toMillis(2);
+    private static final long DEFAULT_DELAY_MS = TimeUnit.MINUTES.toMillis(15);
+    private static final int NEAR_FULL_LEVEL = 95;
+
+    private SamplingPolicy() {
+    }
+
+    /**
+     * @param previousTimestamp time of the sample before this one, or 0 if there is none
+     * @param previousLevel     level of the sample before this one
+     */
+    public static long nextDelayMillis(long previousTimestamp, int previousLevel,
+                                       long timestamp, int level, boolean charging) {
+        if (charging && level >= NEAR_FULL_LEVEL) {
+            return MIN_DELAY_MS;
+        }
+        long elapsed = timestamp - previousTimestamp;
+        if (previousTimestamp <= 0 || elapsed <= 0) {
+            return DEFAULT_DELAY_MS;
+        }
+        int change = Math.abs(level - previousLevel);
+        if (change == 0) {
+            // Nothing moved: back off, doubling up to the maximum
+            return clamp(Math.max(elapsed, DEFAULT_DELAY_MS) * 2);
+        }
+        return clamp(elapsed / change);
+    }
+
+    private static long clamp(long delay) {
+        return Math.max(MIN_DELAY_MS, Math.min(MAX_DELAY_MS, delay));
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.batterystats;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The last {@link BatterySnapshot} on disk, so the activity can draw its
+ * first frame before the service has loaded anything.
+ *
+ * The file is a fixed 64 bytes no matter how long the history is:
+ *
+ * <pre>
+ *   0  int    magic "HBS1"
+ *   4  int    version
+ *   8  long   timestamp
+ *  16  long   last full charge
+ *  24  long   remaining millis
+ *  32  long   remaining lower bound
+ *  40  long   remaining upper bound
+ *  48  int    level
+ *  52  int    health
+ *  56  byte   charging
+ *  57  byte   wear percent, -1 if not known
+ *  58  short  capacity in mAh, -1 if not known
+ *  60  int    seconds until full, -1 if not known
+ * </pre>
+ */
+public final class SnapshotFile {
+    public static final String FILENAME = "display_snapshot.bin";
+
+    private static final int SIZE = 64;
+    private static final int MAGIC = 0x48425331; // "HBS1"
+    private static final int VERSION = 1;
+
+    private SnapshotFile() {
+    }
+
+    public static byte[] encode(BatterySnapshot snapshot) {
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(snapshot.timestamp);
+        buffer.putLong(snapshot.lastFullCharge);
+        buffer.putLong(snapshot.remainingMillis);
+        buffer.putLong(snapshot.remainingLowerMillis);
+        buffer.putLong(snapshot.remainingUpperMillis);
+        buffer.putInt(snapshot.level);
+        buffer.putInt(snapshot.health);
+        buffer.put((byte) (snapshot.charging ? 1 : 0));
+        buffer.put((byte) snapshot.wearPercent);
+        buffer.putShort((short) Math.min(Short.MAX_VALUE, snapshot.capacityMah));
+        buffer.putInt(snapshot.fullMillis >= 0 ? (int) Math.min(Integer.MAX_VALUE, snapshot.fullMillis / 1000) : -1);
+        return buffer.array();
+    }
+
+    /**
+     * Rebuilds the snapshot as of {@code now}: the time since the full charge
+     * keeps counting, everything else is shown as it was saved. Returns null
+     * if the data is not a snapshot this version understands.
+     */
+    public static BatterySnapshot decode(byte[] data, long now) {
+        if (data == null || data.length != SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt() != MAGIC) {
+            return null;
+        }
+        if (buffer.getInt() != VERSION) {
+            return null;
+        }
+        long timestamp = buffer.getLong();
+        long lastFullCharge = buffer.getLong();
+        long remaining = buffer.getLong();
+        long lower = buffer.getLong();
+        long upper = buffer.getLong();
+        int level = buffer.getInt();
+        int health = buffer.getInt();
+        boolean charging = buffer.get() != 0;
+        int wear = buffer.get();
+        int capacity = buffer.getShort();
+        int fullSeconds = buffer.getInt();
+        return new BatterySnapshot(Math.max(now, timestamp), level, charging, health,
+            lastFullCharge, remaining, lower, upper, fullSeconds >= 0 ? fullSeconds * 1000L : -1,
+            capacity, wear);
+    }
+
+    public static void write(File file, BatterySnapshot snapshot) throws IOException {
+        StateFiles.writeAtomically(file, encode(snapshot));
+    }
+
+    /** Returns the saved snapshot as of {@code now}, or null if there is none. */
+    public static BatterySnapshot read(File file, long now) {
+        try {
+            return decode(StateFiles.read(file), now);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.batterystats;
+
+/**
+ * The four lines of text the main screen shows for a snapshot, each kept in
+ * a {@link TextBuffer} so an update formats without allocating and only
+ * touches the views whose text changed.
+ */
+public final class SnapshotText {
+    public static final int LEVEL = 0;
+    public static final int SINCE_FULL = 1;
+    public static final int REMAINING = 2;
+    public static final int HEALTH = 3;
+
+    /** Receives the lines that changed. */
+    public interface Views {
+        /**
+         * Shows {@code length} chars of {@code text} in the view for {@code line}.
+         * The array is reused: it is rewritten only by a later update that
+         * hands it out again, so a view may keep it until then.
+         */
+        void show(int line, char[] text, int length);
+    }
+
+    private final TextBuffer level = new TextBuffer();
+    private final TextBuffer sinceFull = new TextBuffer();
+    private final TextBuffer remaining = new TextBuffer();
+    private final TextBuffer health = new TextBuffer();
+
+    /** Formats {@code snapshot} and passes each changed line to {@code views}. Returns how many changed. */
+    public int render(BatterySnapshot snapshot, Views views) {
+        int changed = 0;
+        if (level.commit(BatteryFormat.writeLevel(level.scratch(), snapshot))) {
+            views.show(LEVEL, level.chars(), level.length());
+            changed++;
+        }
+        if (sinceFull.commit(BatteryFormat.writeSinceFull(sinceFull.scratch(), snapshot))) {
+            views.show(SINCE_FULL, sinceFull.chars(), sinceFull.length());
+            changed++;
+        }
+        if (remaining.commit(BatteryFormat.writeRemaining(remaining.scratch(), snapshot))) {
+            views.show(REMAINING, remaining.chars(), remaining.length());
+            changed++;
+        }
+        if (health.commit(BatteryFormat.writeHealth(health.scratch(), snapshot))) {
+            views.show(HEALTH, health.chars(), health.length());
+            changed++;
+        }
+        return changed;
+    }
+}
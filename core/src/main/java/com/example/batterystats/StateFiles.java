@@ -0,0 +1,60 @@
+package com.example.batterystats;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Small whole-file state blobs, written through a temporary file and a rename
+ * so readers see either the old or the new contents, never a torn mix.
+ */
+public final class StateFiles {
+
+    private StateFiles() {
+    }
+
+    public static void writeAtomically(File file, byte[] data) throws IOException {
+        long start = Metrics.start();
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+            out.flush();
+            long syncStart = Metrics.start();
+            out.getFD().sync();
+            Metrics.stop(Metrics.TIMER_FSYNC, syncStart);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+        Metrics.add(Metrics.COUNTER_BYTES_WRITTEN, data.length);
+        Metrics.stop(Metrics.TIMER_FILE_WRITE, start);
+    }
+
+    /** Returns the file's contents, or null if it does not exist. */
+    public static byte[] read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        long start = Metrics.start();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                offset += read;
+            }
+            return data;
+        } finally {
+            in.close();
+            Metrics.stop(Metrics.TIMER_FILE_READ, start);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.batterystats;
+
+/**
+ * The text currently shown in one view, kept as chars so a redraw can tell
+ * whether anything changed without building a String.
+ *
+ * Format into {@link #scratch()}, then call {@link #commit}. When it returns
+ * true, hand {@link #chars()} and {@link #length()} to the view; the array is
+ * only written again by the next {@code commit} that reports a change.
+ */
+public final class TextBuffer {
+    private final char[] scratch = new char[BatteryFormat.MAX_LENGTH];
+    private final char[] shown = new char[BatteryFormat.MAX_LENGTH];
+    private int length = -1;
+
+    public char[] scratch() {
+        return scratch;
+    }
+
+    /** Takes the first {@code newLength} scratch chars as the new text. Returns false if it is unchanged. */
+    public boolean commit(int newLength) {
+        if (newLength == length) {
+            boolean same = true;
+            for (int i = 0; i < newLength; i++) {
+                if (scratch[i] != shown[i]) {
+                    same = false;
+                    break;
+                }
+            }
+            if (same) {
+                return false;
+            }
+        }
+        System.arraycopy(scratch, 0, shown, 0, newLength);
+        length = newLength;
+        return true;
+    }
+
+    public char[] chars() {
+        return shown;
+    }
+
+    public int length() {
+        return Math.max(length, 0);
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.batterystats;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Predicts the time until the battery is full from learned per-level charge
+ * curves, one for each plug source.
+ *
+ * A curve holds the time each one-percent step takes. Steps not observed yet
+ * come from a prior that slows down above 80%, where charging switches to
+ * constant voltage, scaled by how fast this device has charged so far on
+ * that source. The sums of the learned and the prior steps from the current
+ * level up to full are kept incrementally: a level change drops the steps
+ * left behind and learns the one just taken, both O(1), and the estimate is
+ * cached so reading it costs nothing. Only starting a session sums a whole
+ * curve.
+ *
+ * Not thread-safe; the engine drives it from the main thread.
+ */
+public class TimeToFullEstimator {
+    private static final int MAGIC = 0x48424631; // "HBF1"
+    private static final int SOURCE_AC = 0;
+    private static final int SOURCE_USB = 1;
+    private static final int SOURCE_WIRELESS = 2;
+    private static final int SOURCES = 3;
+    private static final int STEPS = 100;
+
+    private static final int TAPER_LEVEL = 80;
+    private static final double TAPER_PER_LEVEL = 0.15;
+    // Typical time per percent below the taper, by source
+    private static final double[] PRIOR_STEP_MS = {60_000, 180_000, 120_000};
+    private static final double STEP_ALPHA = 0.3;
+    private static final double SCALE_ALPHA = 0.1;
+    private static final long MIN_STEP_MS = 5_000;
+    private static final long MAX_STEP_MS = 2 * 3600 * 1000L;
+
+    // Learned time per step, 0 while a step has not been observed
+    private final double[][] stepMillis = new double[SOURCES][STEPS];
+    // Observed speed relative to the prior, applied to steps not learned yet
+    private final double[] priorScale = {1, 1, 1};
+
+    private int source = -1;
+    private int level = -1;
+    private double learnedSum;
+    private double priorSum;
+    private long timeToFullMillis = -1;
+
+    /** Time until full as of the last level change, or -1 when not charging. */
+    public long getTimeToFullMillis() {
+        return timeToFullMillis;
+    }
+
+    /** Starts serving estimates for a session on the given plug source. */
+    public void begin(int plugged, int newLevel) {
+        source = sourceOf(plugged);
+        level = Math.max(0, Math.min(STEPS, newLevel));
+        learnedSum = 0;
+        priorSum = 0;
+        double[] curve = stepMillis[source];
+        for (int step = level; step < STEPS; step++) {
+            if (curve[step] > 0) {
+                learnedSum += curve[step];
+            } else {
+                priorSum += prior(source, step);
+            }
+        }
+        recompute();
+    }
+
+    /** Moves up to {@code newLevel}, dropping the steps left behind from the sums. */
+    public void advanceTo(int newLevel) {
+        if (source < 0) {
+            return;
+        }
+        if (newLevel < level) {
+            begin(plugged(source), newLevel);
+            return;
+        }
+        double[] curve = stepMillis[source];
+        for (; level < newLevel && level < STEPS; level++) {
+            if (curve[level] > 0) {
+                learnedSum -= curve[level];
+            } else {
+                priorSum -= prior(source, level);
+            }
+        }
+        recompute();
+    }
+
+    /**
+     * Learns how long the step up from {@code step} took. The step must be
+     * below the current level, so the sums are not affected.
+     */
+    public void learn(int step, long millis) {
+        if (source < 0 || step < 0 || step >= level || millis < MIN_STEP_MS || millis > MAX_STEP_MS) {
+            return;
+        }
+        double[] curve = stepMillis[source];
+        curve[step] = curve[step] > 0 ? curve[step] + STEP_ALPHA * (millis - curve[step]) : millis;
+        double ratio = millis / prior(source, step);
+        priorScale[source] = Math.max(0.2, Math.min(10,
+            priorScale[source] + SCALE_ALPHA * (ratio - priorScale[source])));
+        recompute();
+    }
+
+    public void end() {
+        source = -1;
+        level = -1;
+        timeToFullMillis = -1;
+    }
+
+    private void recompute() {
+        if (source < 0) {
+            timeToFullMillis = -1;
+            return;
+        }
+        timeToFullMillis = Math.max(0, (long) (learnedSum + priorScale[source] * priorSum));
+    }
+
+    private static double prior(int source, int step) {
+        double millis = PRIOR_STEP_MS[source];
+        return step < TAPER_LEVEL ? millis : millis * (1 + (step - TAPER_LEVEL + 1) * TAPER_PER_LEVEL);
+    }
+
+    static int sourceOf(int plugged) {
+        if (plugged == BatteryStatus.PLUGGED_USB) {
+            return SOURCE_USB;
+        }
+        if (plugged == BatteryStatus.PLUGGED_WIRELESS) {
+            return SOURCE_WIRELESS;
+        }
+        return SOURCE_AC;
+    }
+
+    private static int plugged(int source) {
+        if (source == SOURCE_USB) {
+            return BatteryStatus.PLUGGED_USB;
+        }
+        return source == SOURCE_WIRELESS ? BatteryStatus.PLUGGED_WIRELESS : BatteryStatus.PLUGGED_AC;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        for (int source = 0; source < SOURCES; source++) {
+            out.writeDouble(priorScale[source]);
+            for (int step = 0; step < STEPS; step++) {
+                out.writeFloat((float) stepMillis[source][step]);
+            }
+        }
+    }
+
+    public void readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a charge curve state");
+        }
+        for (int source = 0; source < SOURCES; source++) {
+            priorScale[source] = in.readDouble();
+            for (int step = 0; step < STEPS; step++) {
+                stepMillis[source][step] = in.readFloat();
+            }
+        }
+    }
+}
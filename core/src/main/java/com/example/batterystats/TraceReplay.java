@@ -0,0 +1,391 @@
+package com.example.batterystats;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a battery trace through the real {@link BatteryPipeline} and stores
+ * on a virtual clock, as fast as the CPU and the disk allow, and reports the
+ * cycles that come out together with write counts and timing.
+ *
+ * A trace is text, one event per line, fields separated by spaces or commas
+ * and {@code #} starting a comment:
+ *
+ * <pre>
+ *   1600000000000 87 3 0   wall clock millis, level, BatteryStatus, plug source
+ *   screen off             screen turned on or off
+ *   idle on                Doze idle mode turned on or off
+ *   awake 5                from now on the CPU is awake 5% of the time, the rest in deep sleep
+ *   restart                the process dies and every store is reloaded from disk
+ *   reboot                 as restart, and elapsed realtime starts over on a new boot
+ *   clock -3600000         the user sets the wall clock by that many millis
+ * </pre>
+ *
+ * Elapsed realtime advances by the same amount as the trace timestamps, so
+ * a {@code clock} line shifts only the wall clock. Uptime advances by the
+ * awake share of that, 100% until an {@code awake} line says otherwise. Transitions are applied
+ * after the service's coalescing delay and delayed writes run when they are
+ * due, so the write counts match what a device would do.
+ *
+ * <pre>
+ *   java com.example.batterystats.TraceReplay trace.txt
+ *   java com.example.batterystats.TraceReplay --synthetic 90
+ * </pre>
+ */
+public class TraceReplay {
+    private static final long COALESCE_DELAY_MS = 1000;
+    static final int SAMPLE_CAPACITY = 16 * 1024;
+    private static final long BOOT_ELAPSED_MS = 30_000;
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    private static final BatteryPropertySource NO_PROPERTIES = new BatteryPropertySource() {
+        @Override
+        public int getChargeCounter() {
+            return UNKNOWN;
+        }
+
+        @Override
+        public int getCurrentNow() {
+            return UNKNOWN;
+        }
+
+        @Override
+        public int getDesignCapacityMah() {
+            return UNKNOWN;
+        }
+    };
+
+    /** What a replay produced. */
+    public static final class Result {
+        public long events;
+        public long transitions;
+        public long restarts;
+        public long snapshots;
+        public List<ChargeCycle> cycles;
+        public long fileWrites;
+        public long bytesWritten;
+        public long fsyncs;
+        public long writerWakeups;
+        public long cycleSaves;
+        public float deepSleepPercent;
+        public double idleDrainPerHour;
+        public long simulatedMillis;
+        public long replayNanos;
+
+        public void print(PrintStream out) {
+            out.println("Cycles (" + cycles.size() + "):");
+            for (ChargeCycle cycle : cycles) {
+                out.println(String.format(Locale.US, "  %d  %3d%% -> %3d%%  %s",
+                    cycle.fullChargeTimestamp, cycle.startLevel, cycle.endLevel,
+                    BatteryFormat.formatTimeDuration(cycle.durationMillis)));
+            }
+            double seconds = replayNanos / 1e9;
+            out.println(String.format(Locale.US,
+                "Events: %d, transitions %d, snapshots %d, restarts %d", events, transitions, snapshots, restarts));
+            out.println(String.format(Locale.US,
+                "Writes: %d files, %d bytes, %d fsyncs, %d cycle saves, %d writer wakeups",
+                fileWrites, bytesWritten, fsyncs, cycleSaves, writerWakeups));
+            if (deepSleepPercent >= 0) {
+                out.println(String.format(Locale.US,
+                    "Idle in the last cycle: %.1f%% deep sleep, %.2f%%/h", deepSleepPercent, idleDrainPerHour));
+            }
+            out.println(String.format(Locale.US,
+                "Time: %.3f s for %.1f simulated days, %.0f events/s, %.0fx real time",
+                seconds, simulatedMillis / (double) DAY_MS, events / seconds,
+                simulatedMillis / 1000.0 / seconds));
+        }
+    }
+
+    /** Both clocks of the simulated device. */
+    private static final class VirtualClock implements BatteryPipeline.Clock {
+        long wall;
+        long elapsed;
+        long uptime;
+        int awakePercent = 100;
+
+        @Override
+        public long currentTimeMillis() {
+            return wall;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return elapsed;
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return uptime;
+        }
+
+        void advance(long millis) {
+            elapsed += millis;
+            wall += millis;
+            uptime += millis * awakePercent / 100;
+        }
+    }
+
+    private final File directory;
+    private final VirtualClock clock = new VirtualClock();
+    private final Result result = new Result();
+
+    private InlineExecutor executor;
+    private BatteryPipeline pipeline;
+    private int bootCount = 1;
+    private long pendingSince = -1;
+
+    /** Replays into {@code directory}, which should be empty unless the replay continues an earlier one. */
+    public TraceReplay(File directory) {
+        this.directory = directory;
+    }
+
+    public Result replay(Reader trace) throws IOException {
+        Metrics.reset();
+        long start = System.nanoTime();
+        clock.elapsed = BOOT_ELAPSED_MS;
+        clock.uptime = BOOT_ELAPSED_MS;
+        long traceStart = -1;
+        long lastTraceTime = -1;
+
+        BufferedReader reader = new BufferedReader(trace);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            String[] fields = line.trim().split("[\\s,]+");
+            if (fields[0].isEmpty()) {
+                continue;
+            }
+            switch (fields[0]) {
+                case "screen":
+                    open();
+                    pipeline.onScreenChanged("on".equals(fields[1]));
+                    break;
+                case "idle":
+                    open();
+                    pipeline.onIdleModeChanged("on".equals(fields[1]));
+                    break;
+                case "awake":
+                    clock.awakePercent = Integer.parseInt(fields[1]);
+                    break;
+                case "restart":
+                    close();
+                    break;
+                case "reboot":
+                    close();
+                    bootCount++;
+                    clock.elapsed = BOOT_ELAPSED_MS;
+                    clock.uptime = BOOT_ELAPSED_MS;
+                    break;
+                case "clock":
+                    clock.wall += Long.parseLong(fields[1]);
+                    break;
+                default:
+                    long time = Long.parseLong(fields[0]);
+                    if (lastTraceTime < 0) {
+                        traceStart = time;
+                        clock.wall = time;
+                    } else if (time > lastTraceTime) {
+                        advance(time - lastTraceTime);
+                    }
+                    lastTraceTime = Math.max(lastTraceTime, time);
+                    open();
+                    boolean pending = pipeline.onBatteryChanged(
+                        Integer.parseInt(fields[1]),
+                        Integer.parseInt(fields[2]),
+                        BatteryHealth.GOOD,
+                        fields.length > 3 ? Integer.parseInt(fields[3]) : 0,
+                        SampleRing.UNKNOWN, SampleRing.UNKNOWN);
+                    result.events++;
+                    if (pending) {
+                        pendingSince = clock.elapsed;
+                    }
+                    break;
+            }
+        }
+        if (pipeline != null) {
+            applyPending();
+            pipeline.flush();
+            executor.runScheduled();
+            result.writerWakeups += executor.getTasksRun();
+            result.cycles = new ArrayList<>(pipeline.getRepository().getCycles());
+            result.deepSleepPercent = pipeline.getIdleProfiler().getDeepSleepPercent();
+            result.idleDrainPerHour = pipeline.getIdleProfiler().getIdleDrainPerHour();
+        } else {
+            result.cycles = new ArrayList<>();
+            result.deepSleepPercent = -1;
+        }
+        result.simulatedMillis = lastTraceTime - traceStart;
+        result.replayNanos = System.nanoTime() - start;
+        result.fileWrites = Metrics.getCount(Metrics.TIMER_FILE_WRITE);
+        result.bytesWritten = Metrics.getCounter(Metrics.COUNTER_BYTES_WRITTEN);
+        result.fsyncs = Metrics.getCount(Metrics.TIMER_FSYNC);
+        result.cycleSaves = Metrics.getCount(Metrics.TIMER_CYCLES_SAVE);
+        return result;
+    }
+
+    /** Moves both clocks, applying the pending transition and running writes as they come due. */
+    private void advance(long millis) {
+        if (pendingSince >= 0 && clock.elapsed + millis >= pendingSince + COALESCE_DELAY_MS) {
+            long toApply = pendingSince + COALESCE_DELAY_MS - clock.elapsed;
+            clock.advance(toApply);
+            millis -= toApply;
+            applyPending();
+        }
+        clock.advance(millis);
+        if (executor != null) {
+            executor.advanceTo(clock.elapsed);
+        }
+    }
+
+    private void applyPending() {
+        if (executor != null) {
+            executor.advanceTo(clock.elapsed);
+        }
+        if (pipeline != null && pipeline.applyPending()) {
+            result.transitions++;
+        }
+        pendingSince = -1;
+    }
+
+    /** Starts the process: every store is loaded from the directory. */
+    private void open() throws IOException {
+        if (pipeline != null) {
+            return;
+        }
+        executor = new InlineExecutor();
+        executor.advanceTo(clock.elapsed);
+        ChargeCycleRepository repository = new ChargeCycleRepository(
+            new BatteryDataManager(directory, null), executor, ChargeCycleRepository.DEFAULT_MAX_CYCLES);
+        RollupStore rollups = new RollupStore(new File(directory, RollupStore.FILENAME), executor);
+        SampleRing samples = new SampleRing(new File(directory, SampleRing.FILENAME), SAMPLE_CAPACITY);
+        pipeline = new BatteryPipeline(directory, executor, clock, bootCount, NO_PROPERTIES,
+            repository, rollups, samples, (snapshot, changed) -> result.snapshots++);
+    }
+
+    /** Kills the process after the writes a clean shutdown would do; a pending transition is lost. */
+    private void close() {
+        if (pipeline == null) {
+            return;
+        }
+        pipeline.getRepository().flushNow();
+        pipeline.getRollups().flushNow();
+        pipeline.getSampleRing().force();
+        executor.runScheduled();
+        result.writerWakeups += executor.getTasksRun();
+        pipeline = null;
+        executor = null;
+        pendingSince = -1;
+        result.restarts++;
+    }
+
+    /**
+     * Builds a trace of {@code days} of ordinary use: a reading every minute
+     * or so, drain that is faster with the screen on, and a charge to full
+     * whenever the level gets low, sometimes left on the charger overnight.
+     * With the screen off the CPU mostly sleeps, and Doze sets in after half
+     * an hour.
+     */
+    public static String synthetic(int days, long seed) {
+        Random random = new Random(seed);
+        StringBuilder trace = new StringBuilder(days * 1500 * 16);
+        long time = 1_600_000_000_000L;
+        long end = time + days * DAY_MS;
+        double level = 100;
+        boolean charging = false;
+        boolean screenOn = false;
+        int plugged = 0;
+        long screenOffSince = time;
+        boolean dozing = false;
+        while (time < end) {
+            time += 30_000 + random.nextInt(60_000);
+            if (random.nextInt(30) == 0) {
+                screenOn = !screenOn;
+                trace.append("screen ").append(screenOn ? "on" : "off").append('\n');
+                trace.append("awake ").append(screenOn ? 100 : 4).append('\n');
+                screenOffSince = time;
+                if (screenOn && dozing) {
+                    dozing = false;
+                    trace.append("idle off\n");
+                }
+            }
+            if (!screenOn && !charging && !dozing && time - screenOffSince > DAY_MS / 48) {
+                dozing = true;
+                trace.append("idle on\n");
+            } else if (dozing && charging) {
+                dozing = false;
+                trace.append("idle off\n");
+            }
+            if (charging) {
+                level += plugged == BatteryStatus.PLUGGED_USB ? 0.4 : level < 80 ? 1.5 : 0.5;
+                if (level >= 100 && random.nextInt(level > 100.5 ? 20 : 200) == 0) {
+                    charging = false;
+                    plugged = 0;
+                }
+            } else {
+                level -= screenOn ? 0.2 + random.nextDouble() * 0.2 : 0.01 + random.nextDouble() * 0.03;
+                if (level < 15 + random.nextInt(25) && random.nextInt(20) == 0) {
+                    charging = true;
+                    plugged = random.nextInt(4) == 0 ? BatteryStatus.PLUGGED_USB : BatteryStatus.PLUGGED_AC;
+                }
+            }
+            level = Math.max(1, Math.min(100.9, level));
+            int shown = (int) Math.min(100, level);
+            int status = !charging ? BatteryStatus.DISCHARGING
+                : shown >= 100 ? BatteryStatus.FULL : BatteryStatus.CHARGING;
+            trace.append(time).append(' ').append(shown).append(' ').append(status).append(' ')
+                .append(plugged).append('\n');
+        }
+        return trace.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: TraceReplay <trace file> | --synthetic <days> [seed]");
+            System.exit(2);
+        }
+        File directory = Files.createTempDirectory("replay").toFile();
+        try {
+            TraceReplay replay = new TraceReplay(directory);
+            Result result;
+            if ("--synthetic".equals(args[0])) {
+                int days = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+                long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+                result = replay.replay(new StringReader(synthetic(days, seed)));
+            } else {
+                Reader reader = new FileReader(args[0]);
+                try {
+                    result = replay.replay(reader);
+                } finally {
+                    reader.close();
+                }
+            }
+            result.print(System.out);
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.batterystats;
+
+/**
+ * App usage events, as reported by {@code UsageStatsManager} on the device.
+ * Kept behind an interface so {@link UsageIngestor} runs on the JVM too.
+ */
+public interface UsageEventSource {
+    /** An app came to the foreground. */
+    int FOREGROUND = 1;
+    /** An app left the foreground. */
+    int BACKGROUND = 2;
+    /** The screen went off or the device shut down; nothing is in the foreground. */
+    int SCREEN_OFF = 3;
+
+    interface Visitor {
+        void onEvent(long timestamp, String packageName, int type);
+    }
+
+    /** Whether events can be read at all, for example whether access was granted. */
+    boolean isAvailable();
+
+    /** Visits the events with {@code begin <= timestamp < end} in time order. */
+    void query(long begin, long end, Visitor visitor);
+}
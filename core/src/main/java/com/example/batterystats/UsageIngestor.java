@@ -0,0 +1,183 @@
+package com.example.batterystats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Turns app usage events into foreground time per app and charge cycle.
+ *
+ * Events are read from a persisted cursor, so each run only pays for events
+ * that arrived since the last one. The app in the foreground when a run ends
+ * is credited up to that moment and carried over, together with the cursor,
+ * to the next run.
+ */
+public class UsageIngestor {
+    private static final int MAGIC = 0x48425543; // "HBUC"
+
+    private final UsageEventSource source;
+    private final File file;
+    private final AppUsageStore store = new AppUsageStore();
+    private final UsageEventSource.Visitor visitor = this::onEvent;
+
+    private long cursor;
+    private String openPackage;
+    private long openSince;
+
+    // Only valid during ingest
+    private List<ChargeCycle> cycles;
+    private int events;
+
+    public UsageIngestor(UsageEventSource source, File file) {
+        this.source = source;
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Folds in the events between the cursor and {@code now} and saves the
+     * result. Returns the number of events read.
+     */
+    public synchronized int ingest(long now, List<ChargeCycle> cycles) {
+        if (cycles.isEmpty() || !source.isAvailable()) {
+            return 0;
+        }
+        long oldestCycle = cycles.get(0).fullChargeTimestamp;
+        if (cursor < oldestCycle) {
+            // Nothing before the oldest kept cycle can be attributed
+            cursor = oldestCycle;
+            openPackage = null;
+        }
+        if (now <= cursor) {
+            return 0;
+        }
+
+        this.cycles = cycles;
+        this.events = 0;
+        source.query(cursor, now, visitor);
+        if (openPackage != null) {
+            credit(openPackage, openSince, now);
+            openSince = now;
+        }
+        cursor = now;
+        this.cycles = null;
+
+        store.prune(oldestCycle);
+        save();
+        return events;
+    }
+
+    public synchronized List<AppUsageStore.AppShare> getAttribution(ChargeCycle cycle) {
+        return store.getAttribution(cycle);
+    }
+
+    public synchronized long getCursor() {
+        return cursor;
+    }
+
+    private void onEvent(long timestamp, String packageName, int type) {
+        events++;
+        switch (type) {
+            case UsageEventSource.FOREGROUND:
+                if (openPackage != null) {
+                    credit(openPackage, openSince, timestamp);
+                }
+                openPackage = packageName;
+                openSince = timestamp;
+                break;
+            case UsageEventSource.BACKGROUND:
+                if (packageName.equals(openPackage)) {
+                    credit(openPackage, openSince, timestamp);
+                    openPackage = null;
+                }
+                break;
+            case UsageEventSource.SCREEN_OFF:
+                if (openPackage != null) {
+                    credit(openPackage, openSince, timestamp);
+                    openPackage = null;
+                }
+                break;
+        }
+    }
+
+    /** Splits {@code [start, end)} over the cycles it overlaps. Time while charging between cycles is dropped. */
+    private void credit(String packageName, long start, long end) {
+        int index = cycleAt(start);
+        if (index < 0) {
+            index = 0;
+            start = Math.max(start, cycles.get(0).fullChargeTimestamp);
+        }
+        for (; index < cycles.size() && start < end; index++) {
+            ChargeCycle cycle = cycles.get(index);
+            boolean newest = index == cycles.size() - 1;
+            long next = newest ? Long.MAX_VALUE : cycles.get(index + 1).fullChargeTimestamp;
+            long cycleEnd = newest ? Long.MAX_VALUE : cycle.fullChargeTimestamp + cycle.durationMillis;
+            long creditEnd = Math.min(end, cycleEnd);
+            if (creditEnd > start) {
+                store.add(cycle.fullChargeTimestamp, packageName, creditEnd - start);
+            }
+            start = Math.max(start, Math.min(end, next));
+        }
+    }
+
+    /** Index of the newest cycle starting at or before {@code time}, or -1. */
+    private int cycleAt(long time) {
+        int low = 0;
+        int high = cycles.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (cycles.get(mid).fullChargeTimestamp <= time) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private void load() {
+        try {
+            byte[] data = StateFiles.read(file);
+            if (data == null) {
+                return;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            cursor = in.readLong();
+            openPackage = in.readBoolean() ? in.readUTF() : null;
+            openSince = in.readLong();
+            store.readFrom(in);
+        } catch (IOException e) {
+            e.printStackTrace();
+            cursor = 0;
+            openPackage = null;
+            store.prune(Long.MAX_VALUE);
+        }
+    }
+
+    private void save() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeLong(cursor);
+            out.writeBoolean(openPackage != null);
+            if (openPackage != null) {
+                out.writeUTF(openPackage);
+            }
+            out.writeLong(openSince);
+            store.writeTo(out);
+            StateFiles.writeAtomically(file, bytes.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
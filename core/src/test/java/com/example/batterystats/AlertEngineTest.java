@@ -0,0 +1,90 @@
+package com.example.batterystats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AlertEngineTest {
+    private static final long SECOND = TimeUnit.SECONDS.toMillis(1);
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private final List<String> events = new ArrayList<>();
+
+    private AlertEngine engine(String rules) {
+        return new AlertEngine(AlertRule.parseAll(rules), null, new AlertEngine.Listener() {
+            @Override
+            public void onAlert(int index, AlertRule rule, float value) {
+                events.add("fire " + index);
+            }
+
+            @Override
+            public void onRearm(int index, AlertRule rule) {
+                events.add("rearm " + index);
+            }
+        });
+    }
+
+    @Test
+    public void levelFiresOnceUntilRearmed() {
+        AlertEngine engine = engine("level below 20");
+        int[] levels = {25, 21, 20, 19, 20, 21, 22, 23, 19};
+        for (int i = 0; i < levels.length; i++) {
+            engine.onSample(i * MINUTE, levels[i], false, 300, 3800);
+        }
+        // Fires at 20, re-arms past 20 + 2 hysteresis, fires again at 19
+        assertEquals("[fire 0, rearm 0, fire 0]", events.toString());
+    }
+
+    @Test
+    public void chargingConditionChecksOnPlugChange() {
+        AlertEngine engine = engine("level above 80 when charging");
+        engine.onSample(0, 85, false, 300, 4100);
+        assertTrue(events.isEmpty());
+        engine.onSample(MINUTE, 85, true, 300, 4100);
+        assertEquals("[fire 0]", events.toString());
+        assertFalse(engine.isArmed(0));
+    }
+
+    @Test
+    public void longDrainWindowSurvivesFrequentBroadcasts() {
+        AlertEngine engine = engine("drain above 15 over 2h");
+        // A broadcast every 5 seconds for voltage and temperature, the level down 1% every 3 minutes
+        long elapsed = 0;
+        int level = 100;
+        for (int i = 0; i < 3 * 60 * 12; i++) {
+            elapsed = i * 5 * SECOND;
+            level = 100 - (int) (elapsed / (3 * MINUTE));
+            engine.onSample(elapsed, level, false, 300 + i % 7, 4000 - i % 11);
+        }
+        // 20%/h over the last two hours
+        assertEquals("[fire 0]", events.toString());
+    }
+
+    @Test
+    public void drainNeedsTheWholeWindow() {
+        AlertEngine engine = engine("drain above 15 over 2h");
+        for (int i = 0; i < 90; i++) {
+            engine.onSample(i * MINUTE, 100 - i / 2, false, 300, 4000);
+        }
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void drainStartsOverAfterCharging() {
+        AlertEngine engine = engine("drain above 15 over 30m");
+        for (int i = 0; i <= 40; i++) {
+            engine.onSample(i * MINUTE, 100 - i / 2, i < 20, 300, 4000);
+        }
+        // Only twenty unplugged minutes so far
+        assertTrue(events.isEmpty());
+        for (int i = 41; i <= 60; i++) {
+            engine.onSample(i * MINUTE, 100 - i / 2, false, 300, 4000);
+        }
+        assertEquals("[fire 0]", events.toString());
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.batterystats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatteryDataManagerTest {
+    private static final long T0 = 1_600_000_000_000L;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private File directory;
+    private File legacy;
+    private File journal;
+    private boolean legacyReadable;
+    private int legacyReads;
+
+    private final LegacyCycleReader reader = new LegacyCycleReader() {
+        @Override
+        public List<ChargeCycle> read(File file) throws IOException {
+            legacyReads++;
+            if (!legacyReadable) {
+                throw new IOException("Storage not ready");
+            }
+            return new ArrayList<>(Arrays.asList(cycle(0, 40), cycle(1, 35)));
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        directory = temp.getRoot();
+        legacy = new File(directory, "charge_cycles.json");
+        journal = new File(directory, "charge_cycles.journal");
+        FileOutputStream out = new FileOutputStream(legacy);
+        out.write("[]".getBytes("US-ASCII"));
+        out.close();
+    }
+
+    private static ChargeCycle cycle(int day, int endLevel) {
+        ChargeCycle cycle = new ChargeCycle(T0 + day * 86_400_000L, 100);
+        cycle.updateEndData(cycle.fullChargeTimestamp + 3_600_000L, endLevel);
+        return cycle;
+    }
+
+    @Test
+    public void migratesOnFirstLoad() {
+        legacyReadable = true;
+        BatteryDataManager manager = new BatteryDataManager(directory, reader);
+        assertEquals(2, manager.loadChargeCycles().size());
+        assertTrue(journal.exists());
+        assertFalse(legacy.exists());
+        assertTrue(new File(directory, "charge_cycles.json.migrated").exists());
+
+        manager.saveChargeCycles(Collections.singletonList(cycle(2, 50)), Collections.<ChargeCycle>emptyList());
+        assertEquals(1, legacyReads);
+        assertEquals(3, new BatteryDataManager(directory, reader).loadChargeCycles().size());
+    }
+
+    @Test
+    public void failedMigrationIsRetriedBeforeTheJournalIsCreated() {
+        BatteryDataManager manager = new BatteryDataManager(directory, reader);
+        assertTrue(manager.loadChargeCycles().isEmpty());
+
+        // Saving while the legacy file still cannot be read writes nothing
+        List<ChargeCycle> all = new ArrayList<>();
+        all.add(cycle(2, 60));
+        manager.saveChargeCycles(all, all);
+        assertEquals(2, legacyReads);
+        assertFalse(journal.exists());
+        assertTrue(legacy.exists());
+
+        // The next save migrates, then writes everything held back
+        legacyReadable = true;
+        ChargeCycle newest = cycle(3, 70);
+        all.add(newest);
+        manager.saveChargeCycles(Collections.singletonList(newest), all);
+        assertTrue(journal.exists());
+        assertFalse(legacy.exists());
+
+        List<ChargeCycle> loaded = new BatteryDataManager(directory, reader).loadChargeCycles();
+        assertEquals(4, loaded.size());
+        assertEquals(T0, loaded.get(0).fullChargeTimestamp);
+        assertEquals(60, loaded.get(2).endLevel);
+        assertEquals(70, loaded.get(3).endLevel);
+        assertEquals(3, legacyReads);
+    }
+}
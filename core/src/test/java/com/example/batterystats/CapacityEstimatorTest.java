@@ -0,0 +1,136 @@
+package com.example.batterystats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs a synthetic battery whose capacity fades by a fixed amount a day
+ * through the pipeline, with its charge counter behind the
+ * {@link BatteryPropertySource} seam, and checks what the snapshot reports.
+ */
+public class CapacityEstimatorTest {
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final int DESIGN_MAH = 5000;
+    // The battery is already 4% down on design when the app is installed
+    private static final double INSTALL_MAH = 4800;
+    private static final double FADE_MAH_PER_DAY = 5;
+    private static final int DAYS = 60;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    /** A battery with the given capacity on each day, reporting an exact charge counter. */
+    private static final class FadingBattery implements BatteryPropertySource {
+        final int designMah;
+        double capacityMah = INSTALL_MAH;
+        int level = 100;
+
+        FadingBattery(int designMah) {
+            this.designMah = designMah;
+        }
+
+        @Override
+        public int getChargeCounter() {
+            return (int) Math.round(capacityMah * 1000 * level / 100);
+        }
+
+        @Override
+        public int getCurrentNow() {
+            return UNKNOWN;
+        }
+
+        @Override
+        public int getDesignCapacityMah() {
+            return designMah;
+        }
+    }
+
+    private static final class TestClock implements BatteryPipeline.Clock {
+        long wall = 1_600_000_000_000L;
+        long elapsed = 30_000;
+
+        @Override
+        public long currentTimeMillis() {
+            return wall;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return elapsed;
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return elapsed;
+        }
+    }
+
+    private BatterySnapshot last;
+
+    /** A discharge from 100% to 20% and a charge back every day, in 5% steps. */
+    private BatterySnapshot run(FadingBattery battery) throws IOException {
+        File directory = temp.newFolder();
+        InlineExecutor executor = new InlineExecutor();
+        TestClock clock = new TestClock();
+        ChargeCycleRepository repository = new ChargeCycleRepository(
+            new BatteryDataManager(directory, null), executor, ChargeCycleRepository.DEFAULT_MAX_CYCLES);
+        RollupStore rollups = new RollupStore(new File(directory, RollupStore.FILENAME), executor);
+        BatteryPipeline pipeline = new BatteryPipeline(directory, executor, clock, 1, battery,
+            repository, rollups, null, (snapshot, changed) -> last = snapshot);
+
+        for (int day = 0; day < DAYS; day++) {
+            battery.capacityMah = INSTALL_MAH - FADE_MAH_PER_DAY * day;
+            for (int level = 100; level >= 20; level -= 5) {
+                step(pipeline, executor, clock, battery, level, BatteryStatus.DISCHARGING, 0);
+            }
+            for (int level = 25; level <= 100; level += 5) {
+                step(pipeline, executor, clock, battery, level,
+                    level == 100 ? BatteryStatus.FULL : BatteryStatus.CHARGING, BatteryStatus.PLUGGED_AC);
+            }
+        }
+        pipeline.flush();
+        executor.runScheduled();
+        pipeline.publishSnapshot(false);
+        return last;
+    }
+
+    private static void step(BatteryPipeline pipeline, InlineExecutor executor, TestClock clock,
+                             FadingBattery battery, int level, int status, int plugged) {
+        clock.wall += 40 * MINUTE;
+        clock.elapsed += 40 * MINUTE;
+        executor.advanceTo(clock.elapsed);
+        battery.level = level;
+        pipeline.onBatteryChanged(level, status, BatteryHealth.GOOD, plugged,
+            SampleRing.UNKNOWN, SampleRing.UNKNOWN);
+        pipeline.applyPending();
+    }
+
+    @Test
+    public void wearIsMeasuredAgainstDesignCapacity() throws IOException {
+        BatterySnapshot snapshot = run(new FadingBattery(DESIGN_MAH));
+
+        double finalMah = INSTALL_MAH - FADE_MAH_PER_DAY * (DAYS - 1);
+        assertEquals(finalMah, snapshot.capacityMah, finalMah * 0.02);
+        // 4% before install and about 6% since
+        assertEquals(Math.round(100 * (1 - finalMah / DESIGN_MAH)), snapshot.wearPercent, 1);
+        assertTrue(snapshot.getHealthText(), snapshot.getHealthText().endsWith("% wear"));
+    }
+
+    @Test
+    public void wearIsHiddenWithoutDesignCapacity() throws IOException {
+        BatterySnapshot snapshot = run(new FadingBattery(BatteryPropertySource.UNKNOWN));
+
+        double finalMah = INSTALL_MAH - FADE_MAH_PER_DAY * (DAYS - 1);
+        assertEquals(finalMah, snapshot.capacityMah, finalMah * 0.02);
+        assertEquals(-1, snapshot.wearPercent);
+        assertTrue(snapshot.getHealthText(), snapshot.getHealthText().endsWith(" mAh"));
+    }
+}
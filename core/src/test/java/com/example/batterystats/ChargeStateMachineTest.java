@@ -0,0 +1,301 @@
+package com.example.batterystats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Replays fixed event sequences through {@link ChargeStateMachine} on a
+ * test clock and checks the cycles it starts, their durations and what it
+ * keeps in {@code charge_state.bin}.
+ */
+public class ChargeStateMachineTest {
+    private static final long START_WALL = 1_600_000_000_000L;
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private File stateFile;
+    private InlineExecutor writer;
+    private ChargeStateMachine machine;
+    private final List<ChargeCycle> cycles = new ArrayList<>();
+
+    // The test clock
+    private long wall;
+    private long elapsed;
+    private int boot;
+
+    @Before
+    public void setUp() {
+        stateFile = new File(temp.getRoot(), ChargeStateFile.FILENAME);
+        writer = new InlineExecutor();
+        wall = START_WALL;
+        elapsed = 10 * MINUTE;
+        boot = 1;
+        machine = open();
+    }
+
+    private ChargeStateMachine open() {
+        return new ChargeStateMachine(new ChargeStateFile(stateFile, writer));
+    }
+
+    private void advance(long millis) {
+        wall += millis;
+        elapsed += millis;
+    }
+
+    private void reboot(long millis) {
+        wall += millis;
+        elapsed = MINUTE;
+        boot++;
+    }
+
+    private ChargeCycle feed(int level, boolean charging) {
+        return feed(level, charging, false);
+    }
+
+    private ChargeCycle feed(int level, boolean charging, boolean reachedFull) {
+        ChargeCycle cycle = machine.onBatteryState(wall, elapsed, boot, level, charging, reachedFull);
+        if (cycle != null) {
+            cycles.add(cycle);
+        }
+        return cycle;
+    }
+
+    private long cycleDuration() {
+        return machine.getCycleDurationMillis(wall, elapsed, boot);
+    }
+
+    /** Discharges from 60%, charges to full and unplugs. */
+    private ChargeCycle chargeToFullAndUnplug() {
+        feed(60, false);
+        advance(MINUTE);
+        feed(61, true);
+        for (int level = 62; level <= 100; level++) {
+            advance(MINUTE);
+            feed(level, true);
+        }
+        advance(MINUTE);
+        return feed(100, false);
+    }
+
+    @Test
+    public void startsInUnknownWithNothingSaved() {
+        assertFalse(machine.isRestored());
+        assertEquals(ChargeStateMachine.STATE_UNKNOWN, machine.getState());
+        assertEquals(0, machine.getLastFullCharge());
+        assertEquals(0, cycleDuration());
+        assertFalse(stateFile.exists());
+    }
+
+    @Test
+    public void plugAndUnplugBelowFullStartsNoCycle() {
+        feed(50, false);
+        assertEquals(ChargeStateMachine.STATE_DISCHARGING, machine.getState());
+        advance(MINUTE);
+        feed(51, true);
+        assertEquals(ChargeStateMachine.STATE_CHARGING, machine.getState());
+        advance(30 * MINUTE);
+        feed(80, true);
+        advance(MINUTE);
+        assertNull(feed(80, false));
+        assertEquals(ChargeStateMachine.STATE_DISCHARGING, machine.getState());
+        assertTrue(cycles.isEmpty());
+        assertEquals(0, machine.getLastFullCharge());
+    }
+
+    @Test
+    public void fullChargeThenUnplugStartsCycle() {
+        ChargeCycle cycle = chargeToFullAndUnplug();
+        assertNotNull(cycle);
+        assertEquals(1, cycles.size());
+        assertEquals(wall, cycle.fullChargeTimestamp);
+        assertEquals(100, cycle.startLevel);
+        assertEquals(ChargeStateMachine.STATE_DISCHARGING, machine.getState());
+        assertEquals(wall, machine.getLastFullCharge());
+        assertEquals(100, machine.getChargeStartLevel());
+
+        advance(3 * HOUR);
+        feed(70, false);
+        assertEquals(3 * HOUR, cycleDuration());
+        assertEquals(1, cycles.size());
+    }
+
+    @Test
+    public void fullWhileChargingIsNotYetACycle() {
+        feed(98, true);
+        advance(MINUTE);
+        assertNull(feed(100, true));
+        assertEquals(ChargeStateMachine.STATE_FULL, machine.getState());
+        assertEquals(0, machine.getLastFullCharge());
+    }
+
+    @Test
+    public void mergedBurstThatReachedFullStartsCycle() {
+        feed(95, true);
+        advance(10 * MINUTE);
+        // Full and unplugged within one coalesced burst; only the last reading is seen
+        ChargeCycle cycle = feed(100, false, true);
+        assertNotNull(cycle);
+        assertEquals(100, cycle.startLevel);
+    }
+
+    @Test
+    public void topUpContinuesCycle() {
+        ChargeCycle first = chargeToFullAndUnplug();
+        long cycleStart = wall;
+        advance(20 * MINUTE);
+        feed(99, false);
+        // Plugged back in before draining below full
+        advance(MINUTE);
+        feed(99, true);
+        advance(10 * MINUTE);
+        feed(100, true);
+        advance(MINUTE);
+        assertNull(feed(100, false));
+        assertEquals(1, cycles.size());
+        assertEquals(cycleStart, machine.getLastFullCharge());
+        assertEquals(32 * MINUTE, cycleDuration());
+
+        // Drained this time, so the next full charge is a new cycle
+        advance(2 * HOUR);
+        feed(80, false);
+        ChargeCycle second = chargeToFullAndUnplug();
+        assertNotNull(second);
+        assertEquals(2, cycles.size());
+        assertTrue(second.fullChargeTimestamp > first.fullChargeTimestamp);
+        assertEquals(wall, machine.getLastFullCharge());
+    }
+
+    @Test
+    public void clockChangeDoesNotChangeDuration() {
+        chargeToFullAndUnplug();
+        advance(2 * HOUR);
+        wall -= 5 * HOUR;
+        feed(80, false);
+        assertEquals(2 * HOUR, cycleDuration());
+    }
+
+    @Test
+    public void rebootFallsBackToWallClock() {
+        chargeToFullAndUnplug();
+        advance(2 * HOUR);
+        reboot(HOUR);
+        feed(70, false);
+        // Elapsed realtime started over; three hours passed on the wall clock
+        assertEquals(3 * HOUR, cycleDuration());
+        assertEquals(1, cycles.size());
+        assertEquals(ChargeStateMachine.STATE_DISCHARGING, machine.getState());
+
+        // A cycle started after the reboot is timed on this boot's elapsed realtime again
+        ChargeCycle cycle = chargeToFullAndUnplug();
+        assertNotNull(cycle);
+        advance(HOUR);
+        wall += HOUR;
+        assertEquals(HOUR, cycleDuration());
+    }
+
+    @Test
+    public void unknownBootCountStillDetectsReboot() {
+        boot = ChargeStateMachine.BOOT_UNKNOWN;
+        chargeToFullAndUnplug();
+        advance(5 * HOUR);
+        // Same unknown boot count, but elapsed realtime went backwards
+        wall += HOUR;
+        elapsed = MINUTE;
+        assertEquals(6 * HOUR, cycleDuration());
+    }
+
+    @Test
+    public void stateFileRoundTrip() {
+        chargeToFullAndUnplug();
+        long cycleStart = machine.getLastFullCharge();
+        advance(HOUR);
+        feed(90, false);
+        writer.runScheduled();
+        assertTrue(stateFile.exists());
+        assertEquals(64, stateFile.length());
+
+        // A restart on the same boot keeps timing on elapsed realtime, even if the clock moved
+        machine = open();
+        assertTrue(machine.isRestored());
+        assertEquals(ChargeStateMachine.STATE_DISCHARGING, machine.getState());
+        assertEquals(cycleStart, machine.getLastFullCharge());
+        assertEquals(100, machine.getChargeStartLevel());
+        wall += 2 * HOUR;
+        assertEquals(HOUR, cycleDuration());
+        wall -= 2 * HOUR;
+
+        // A restart after a reboot falls back to the saved wall clock
+        reboot(2 * HOUR);
+        machine = open();
+        assertEquals(3 * HOUR, cycleDuration());
+    }
+
+    @Test
+    public void restoredTopUpStateIsKept() {
+        chargeToFullAndUnplug();
+        long cycleStart = machine.getLastFullCharge();
+        writer.runScheduled();
+
+        machine = open();
+        advance(MINUTE);
+        feed(100, true);
+        advance(MINUTE);
+        assertNull(feed(100, false));
+        assertEquals(cycleStart, machine.getLastFullCharge());
+        assertEquals(1, cycles.size());
+    }
+
+    @Test
+    public void levelChangesAloneAreNotSaved() {
+        final int[] saves = {0};
+        machine = new ChargeStateMachine(new ChargeStateMachine.Store() {
+            @Override
+            public byte[] load() {
+                return null;
+            }
+
+            @Override
+            public void save(byte[] record) {
+                saves[0]++;
+            }
+        });
+        chargeToFullAndUnplug();
+        int afterCycle = saves[0];
+        advance(MINUTE);
+        // The first reading below full records that the cycle has drained
+        feed(98, false);
+        assertEquals(afterCycle + 1, saves[0]);
+        for (int level = 97; level > 50; level--) {
+            advance(MINUTE);
+            feed(level, false);
+        }
+        assertEquals(afterCycle + 1, saves[0]);
+    }
+
+    @Test
+    public void legacyImportUsesWallClock() {
+        machine.importLegacy(false, START_WALL - 4 * HOUR, 95, wall, elapsed, boot);
+        assertTrue(machine.isRestored());
+        assertEquals(START_WALL - 4 * HOUR, machine.getLastFullCharge());
+        assertEquals(95, machine.getChargeStartLevel());
+        assertEquals(4 * HOUR, cycleDuration());
+        writer.runScheduled();
+        machine = open();
+        assertEquals(4 * HOUR, cycleDuration());
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.batterystats;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChargingSessionLogTest {
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(temp.getRoot(), ChargingSessionLog.FILENAME);
+    }
+
+    private static ChargingSession session(long start, int startLevel, int endLevel) {
+        int[] steps = new int[endLevel - startLevel];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = 60_000 + i;
+        }
+        return new ChargingSession(start, start + steps.length * 60_000L, 2, startLevel, endLevel, steps);
+    }
+
+    private static void assertSession(ChargingSession expected, ChargingSession actual) {
+        assertEquals(expected.startTime, actual.startTime);
+        assertEquals(expected.endTime, actual.endTime);
+        assertEquals(expected.plugged, actual.plugged);
+        assertEquals(expected.startLevel, actual.startLevel);
+        assertEquals(expected.endLevel, actual.endLevel);
+        assertEquals(expected.stepMillis.length, actual.stepMillis.length);
+        for (int i = 0; i < expected.stepMillis.length; i++) {
+            assertEquals(expected.stepMillis[i], actual.stepMillis[i]);
+        }
+    }
+
+    @Test
+    public void keepsNewestSessions() throws IOException {
+        ChargingSessionLog log = new ChargingSessionLog(file);
+        for (int i = 0; i < 8; i++) {
+            log.append(session(1000L * (i + 1), 20 + i, 80));
+        }
+        List<ChargingSession> recent = log.readRecent(3);
+        assertEquals(3, recent.size());
+        assertSession(session(6000, 25, 80), recent.get(0));
+        assertSession(session(8000, 27, 80), recent.get(2));
+        assertEquals(0, log.readRecent(0).size());
+    }
+
+    @Test
+    public void appendAfterTornRecordStaysAligned() throws IOException {
+        ChargingSessionLog log = new ChargingSessionLog(file);
+        log.append(session(1000, 20, 30));
+        log.append(session(2000, 40, 90));
+        long whole = file.length();
+        // A crash in the middle of the second record
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(whole - 37);
+        raf.close();
+
+        // A new process appends after the last whole record
+        log = new ChargingSessionLog(file);
+        assertEquals(1, log.readRecent(10).size());
+        log.append(session(3000, 50, 60));
+        log.append(session(4000, 10, 100));
+        List<ChargingSession> sessions = log.readRecent(10);
+        assertEquals(3, sessions.size());
+        assertSession(session(1000, 20, 30), sessions.get(0));
+        assertSession(session(3000, 50, 60), sessions.get(1));
+        assertSession(session(4000, 10, 100), sessions.get(2));
+    }
+
+    @Test
+    public void appendAfterZeroFilledTailStaysAligned() throws IOException {
+        ChargingSessionLog log = new ChargingSessionLog(file);
+        log.append(session(1000, 20, 30));
+        // The zeros a crash can leave where an append's data never reached the disk
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[50]);
+        out.close();
+
+        log = new ChargingSessionLog(file);
+        log.append(session(3000, 50, 60));
+        List<ChargingSession> sessions = log.readRecent(10);
+        assertEquals(2, sessions.size());
+        assertSession(session(3000, 50, 60), sessions.get(1));
+    }
+
+    @Test
+    public void sessionWithoutStepsRoundTrips() throws IOException {
+        ChargingSessionLog log = new ChargingSessionLog(file);
+        ChargingSession empty = new ChargingSession(1000, 2000, 1, 80, 80, new int[0]);
+        log.append(empty);
+        log.append(session(3000, 50, 51));
+        List<ChargingSession> sessions = log.readRecent(10);
+        assertEquals(2, sessions.size());
+        assertSession(empty, sessions.get(0));
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.batterystats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The activity's per-update text work, {@link SnapshotText#render} with the
+ * views it hands changed lines to, must not allocate. Measured with the JVM's
+ * per-thread allocation counter around a loop of updates, after a warm-up so
+ * class loading and one-time setup are not counted.
+ */
+public class RenderAllocationTest {
+    private static final int SNAPSHOTS = 256;
+    private static final int UPDATES = 100_000;
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    // Room for the few bytes the VM may charge to the thread while it compiles; a
+    // single String or boxed value per update would cost more than a megabyte
+    private static final long ALLOWED_BYTES = 1024;
+
+    private final BatterySnapshot[] snapshots = new BatterySnapshot[SNAPSHOTS];
+    private final SnapshotText text = new SnapshotText();
+    // Stands in for the activity's TextViews: keeps what each line was last given
+    private final char[][] shown = new char[4][];
+    private final int[] shownLength = new int[4];
+    private final SnapshotText.Views views = (line, chars, length) -> {
+        shown[line] = chars;
+        shownLength[line] = length;
+    };
+    private com.sun.management.ThreadMXBean threads;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        long fullCharge = 1_600_000_000_000L;
+        for (int i = 0; i < SNAPSHOTS; i++) {
+            long now = fullCharge + i * 7 * 60_000L;
+            int health = i % 3 == 0 ? BatteryHealth.GOOD : BatteryHealth.OVERHEAT;
+            snapshots[i] = new BatterySnapshot(now, 100 - i * 100 / SNAPSHOTS, i % 5 == 0, health,
+                i % 7 == 0 ? 0 : fullCharge, 30 * HOUR - i * 7 * 60_000L, -1, -1, 2 * HOUR, 4200, 7);
+        }
+    }
+
+    private int render(int updates) {
+        int changed = 0;
+        for (int i = 0; i < updates; i++) {
+            changed += text.render(snapshots[i & (SNAPSHOTS - 1)], views);
+        }
+        return changed;
+    }
+
+    private String shown(int line) {
+        return new String(shown[line], 0, shownLength[line]);
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void updatesDoNotAllocate() {
+        // Warm up until the loop runs compiled
+        for (int i = 0; i < 5; i++) {
+            render(UPDATES);
+        }
+        allocatedBytes();
+
+        long before = allocatedBytes();
+        int changed = render(UPDATES);
+        long allocated = allocatedBytes() - before;
+
+        assertTrue("updates changed no text", changed > 0);
+        assertTrue(allocated + " bytes allocated in " + UPDATES + " updates", allocated <= ALLOWED_BYTES);
+    }
+
+    @Test
+    public void viewsGetTheFormattedText() {
+        for (BatterySnapshot snapshot : snapshots) {
+            text.render(snapshot, views);
+            assertEquals(snapshot.level + "%", shown(SnapshotText.LEVEL));
+            assertEquals(snapshot.getSinceFullText(), shown(SnapshotText.SINCE_FULL));
+            assertEquals(snapshot.getRemainingText(), shown(SnapshotText.REMAINING));
+            assertEquals(snapshot.getHealthText(), shown(SnapshotText.HEALTH));
+            assertTrue(shown(SnapshotText.HEALTH).startsWith(BatteryFormat.getBatteryHealthString(snapshot.health)));
+        }
+    }
+
+    @Test
+    public void unchangedLinesAreNotSetAgain() {
+        assertEquals(4, text.render(snapshots[0], views));
+        assertEquals(0, text.render(snapshots[0], views));
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.batterystats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RollupStoreTest {
+    private static final long T0 = 1_600_000_000_000L;
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private File file;
+    private InlineExecutor writer;
+    private RollupStore store;
+    private long time;
+    private int level;
+
+    @Before
+    public void setUp() {
+        file = new File(temp.getRoot(), RollupStore.FILENAME);
+        writer = new InlineExecutor();
+        store = new RollupStore(file, writer);
+        time = T0;
+        level = 100;
+    }
+
+    /** A level step every few minutes, a full charge at the start of each day. */
+    private void feed(long millis) {
+        long end = time + millis;
+        while (time < end) {
+            time += 3 * MINUTE;
+            boolean charging = Math.floorMod(time, DAY) < 2 * HOUR;
+            if (charging) {
+                level = Math.min(100, level + 2);
+            } else if (level > 5) {
+                level--;
+            }
+            store.addSample(time, level, charging);
+            if (Math.floorMod(time, DAY) == 2 * HOUR) {
+                store.addCycleStart(time, level);
+            }
+            writer.advanceTo(time - T0);
+        }
+    }
+
+    private long bytesWritten(long millis) {
+        Metrics.reset();
+        feed(millis);
+        return Metrics.getCounter(Metrics.COUNTER_BYTES_WRITTEN);
+    }
+
+    private static void assertSameBuckets(RollupStore expected, RollupStore actual) {
+        RollupStore.Bucket a = new RollupStore.Bucket();
+        RollupStore.Bucket b = new RollupStore.Bucket();
+        for (int tier = RollupStore.TIER_MINUTE; tier <= RollupStore.TIER_DAY; tier++) {
+            assertEquals("tier " + tier, expected.getBucketCount(tier), actual.getBucketCount(tier));
+            for (int i = 0; expected.readBucket(tier, i, a); i++) {
+                assertTrue(actual.readBucket(tier, i, b));
+                String where = "tier " + tier + " bucket " + i;
+                assertEquals(where, a.start, b.start);
+                assertEquals(where, a.minLevel, b.minLevel);
+                assertEquals(where, a.maxLevel, b.maxLevel);
+                assertEquals(where, a.samples, b.samples);
+                assertEquals(where, a.drainPercent, b.drainPercent);
+                assertEquals(where, a.chargePercent, b.chargePercent);
+                assertEquals(where, a.dischargeMillis, b.dischargeMillis);
+                assertEquals(where, a.cyclesStarted, b.cyclesStarted);
+            }
+        }
+    }
+
+    @Test
+    public void writesDoNotGrowWithHistory() {
+        long firstDay = bytesWritten(DAY);
+        feed(5 * DAY);
+        long seventhDay = bytesWritten(DAY);
+        assertTrue("nothing written", firstDay > 0);
+        // Same activity, a week of buckets behind it; compaction may add one rewrite
+        long history = (long) store.getBucketCount(RollupStore.TIER_MINUTE) * RollupStore.RECORD_SIZE;
+        assertTrue("seventh day wrote " + seventhDay + " bytes, first " + firstDay,
+            seventhDay <= firstDay + history);
+        assertTrue("a day of saves wrote " + firstDay + " bytes", firstDay < 300 * 1024);
+    }
+
+    @Test
+    public void reloadRestoresBucketsAndTotals() {
+        feed(3 * DAY);
+        store.flushNow();
+        writer.runScheduled();
+
+        RollupStore reloaded = new RollupStore(file, new InlineExecutor());
+        assertSameBuckets(store, reloaded);
+        RollupStore.Range a = store.query(T0, time + 1, new RollupStore.Range());
+        RollupStore.Range b = reloaded.query(T0, time + 1, new RollupStore.Range());
+        assertEquals(a.drainPercent, b.drainPercent);
+        assertEquals(a.dischargeMillis, b.dischargeMillis);
+
+        // Both carry on from the same last sample
+        store.addSample(time + MINUTE, level - 1, false);
+        reloaded.addSample(time + MINUTE, level - 1, false);
+        assertSameBuckets(store, reloaded);
+    }
+
+    @Test
+    public void tornJournalRecordIsCutOff() throws IOException {
+        feed(DAY);
+        store.flushNow();
+        writer.runScheduled();
+        long size = file.length();
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[RollupStore.RECORD_SIZE / 2]);
+        out.close();
+
+        writer = new InlineExecutor();
+        store = new RollupStore(file, writer);
+        assertEquals(size, file.length());
+        feed(DAY);
+        store.flushNow();
+        writer.runScheduled();
+        assertEquals(0, (file.length() - RollupStore.HEADER_SIZE) % RollupStore.RECORD_SIZE);
+        assertSameBuckets(store, new RollupStore(file, new InlineExecutor()));
+    }
+
+    @Test
+    public void slowDrainCountsAsDischarge() {
+        // Overnight, a percent every three hours
+        store.addSample(T0, 80, false);
+        store.addSample(T0 + 3 * HOUR, 79, false);
+        store.addSample(T0 + 6 * HOUR, 78, false);
+        RollupStore.Range range = store.query(T0, T0 + DAY, new RollupStore.Range());
+        assertEquals(6 * HOUR, range.dischargeMillis);
+        assertEquals(2, range.drainPercent);
+        assertEquals(1 / 3.0, range.getDrainRatePerHour(), 1e-9);
+    }
+
+    @Test
+    public void missedChargeIsNotDischarge() {
+        store.addSample(T0, 30, false);
+        store.addSample(T0 + HOUR, 29, false);
+        // Charged while nothing was recorded
+        store.addSample(T0 + 5 * HOUR, 90, false);
+        RollupStore.Range range = store.query(T0, T0 + DAY, new RollupStore.Range());
+        assertEquals(HOUR, range.dischargeMillis);
+        assertEquals(61, range.chargePercent);
+    }
+
+    @Test
+    public void unchangedReadingsAreSkipped() {
+        store.addSample(T0, 50, false);
+        store.addSample(T0 + MINUTE, 50, false);
+        store.addSample(T0 + 2 * MINUTE, 50, true);
+        RollupStore.Range range = store.query(T0, T0 + DAY, new RollupStore.Range());
+        assertEquals(2, range.samples);
+        assertEquals(2 * MINUTE, range.dischargeMillis);
+    }
+
+    @Test
+    public void backfillMatchesLiveFeeding() throws IOException {
+        // A trace with a slow night on top of ordinary days
+        StringBuilder trace = new StringBuilder(TraceReplay.synthetic(4, 7));
+        long night = T0 + 5 * DAY;
+        for (int i = 0; i <= 8; i++) {
+            trace.append(night + i * 90 * MINUTE).append(' ').append(60 - i).append(' ')
+                .append(BatteryStatus.DISCHARGING).append(" 0\n");
+        }
+        File directory = temp.newFolder();
+        List<ChargeCycle> cycles = new TraceReplay(directory).replay(new StringReader(trace.toString())).cycles;
+        assertTrue(cycles.size() > 1);
+
+        RollupStore live = new RollupStore(new File(directory, RollupStore.FILENAME), new InlineExecutor());
+        SampleRing ring = new SampleRing(new File(directory, SampleRing.FILENAME), TraceReplay.SAMPLE_CAPACITY);
+        assertTrue(ring.getTotalCount() < ring.getCapacity());
+        RollupStore backfilled = new RollupStore(new File(temp.newFolder(), RollupStore.FILENAME), new InlineExecutor());
+        backfilled.backfill(ring, cycles);
+        assertSameBuckets(live, backfilled);
+
+        // The first night reading also closes the day-long gap before it; count from the next one
+        RollupStore.Range range = live.query(night + MINUTE, night + DAY, new RollupStore.Range());
+        assertEquals(12 * HOUR, range.dischargeMillis);
+        assertEquals(8, range.drainPercent);
+    }
+}
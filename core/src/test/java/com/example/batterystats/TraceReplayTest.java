@@ -0,0 +1,62 @@
+package com.example.batterystats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TraceReplayTest {
+    // Two days of seed 1 write about 770 KB in 2,200 files with 2,800 writer
+    // wakeups; the bounds leave room for small format changes, not for a
+    // store that starts rewriting its history or saving on every reading.
+    private static final long MAX_BYTES_WRITTEN = 1_000_000;
+    private static final long MAX_FILE_WRITES = 2_800;
+    private static final long MAX_FSYNCS = 3_200;
+    private static final long MAX_WRITER_WAKEUPS = 3_600;
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private TraceReplay.Result replay(int days) throws IOException {
+        return new TraceReplay(temp.newFolder()).replay(new StringReader(TraceReplay.synthetic(days, 1)));
+    }
+
+    @Test
+    public void writesStayWithinBudget() throws IOException {
+        TraceReplay.Result result = replay(2);
+
+        assertFalse(result.cycles.isEmpty());
+        assertTrue("bytes written " + result.bytesWritten, result.bytesWritten <= MAX_BYTES_WRITTEN);
+        assertTrue("file writes " + result.fileWrites, result.fileWrites <= MAX_FILE_WRITES);
+        assertTrue("fsyncs " + result.fsyncs, result.fsyncs <= MAX_FSYNCS);
+        assertTrue("writer wakeups " + result.writerWakeups, result.writerWakeups <= MAX_WRITER_WAKEUPS);
+    }
+
+    @Test
+    public void writesGrowWithTraceLengthNotHistory() throws IOException {
+        TraceReplay.Result shortRun = replay(1);
+        TraceReplay.Result longRun = replay(4);
+
+        // Four times the trace may cost a little over four times the writes, never quadratically more
+        assertTrue(shortRun.bytesWritten + " then " + longRun.bytesWritten,
+            longRun.bytesWritten <= shortRun.bytesWritten * 6);
+        assertTrue(shortRun.writerWakeups + " then " + longRun.writerWakeups,
+            longRun.writerWakeups <= shortRun.writerWakeups * 6);
+    }
+
+    @Test
+    public void sameSeedReplaysTheSame() throws IOException {
+        TraceReplay.Result first = replay(2);
+        TraceReplay.Result second = replay(2);
+
+        assertEquals(first.cycles.size(), second.cycles.size());
+        assertEquals(first.transitions, second.transitions);
+        assertEquals(first.bytesWritten, second.bytesWritten);
+        assertEquals(first.writerWakeups, second.writerWakeups);
+    }
+}
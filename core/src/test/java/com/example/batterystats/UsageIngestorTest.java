@@ -0,0 +1,139 @@
+package com.example.batterystats;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs {@link UsageIngestor} over a fixed event list across a cycle
+ * boundary, with a restart between runs.
+ */
+public class UsageIngestorTest {
+    private static final long T0 = 1_600_000_000_000L;
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    /** Events in time order; remembers where each query began. */
+    private static class FakeSource implements UsageEventSource {
+        final List<long[]> events = new ArrayList<>();
+        final List<String> packages = new ArrayList<>();
+        final List<Long> queryBegins = new ArrayList<>();
+
+        void add(long timestamp, String packageName, int type) {
+            events.add(new long[] {timestamp, type});
+            packages.add(packageName);
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public void query(long begin, long end, Visitor visitor) {
+            queryBegins.add(begin);
+            for (int i = 0; i < events.size(); i++) {
+                long timestamp = events.get(i)[0];
+                if (timestamp >= begin && timestamp < end) {
+                    visitor.onEvent(timestamp, packages.get(i), (int) events.get(i)[1]);
+                }
+            }
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private File file;
+    private final FakeSource source = new FakeSource();
+
+    @Before
+    public void setUp() {
+        file = new File(temp.getRoot(), "app_usage.bin");
+    }
+
+    private static long foreground(UsageIngestor ingestor, ChargeCycle cycle, String packageName) {
+        for (AppUsageStore.AppShare share : ingestor.getAttribution(cycle)) {
+            if (share.packageName.equals(packageName)) {
+                return share.foregroundMillis;
+            }
+        }
+        return 0;
+    }
+
+    @Test
+    public void splitsAcrossCyclesAndCarriesOverRestart() {
+        // First cycle runs two hours, then an hour on the charger, then the second cycle
+        ChargeCycle first = new ChargeCycle(T0, 100);
+        ChargeCycle second = new ChargeCycle(T0 + 3 * HOUR, 100);
+
+        source.add(T0 + 30 * MINUTE, "com.mail", UsageEventSource.FOREGROUND);
+        source.add(T0 + HOUR, "com.maps", UsageEventSource.FOREGROUND);
+        source.add(T0 + 3 * HOUR + 30 * MINUTE, "com.maps", UsageEventSource.BACKGROUND);
+        source.add(T0 + 3 * HOUR + 30 * MINUTE, "com.chat", UsageEventSource.FOREGROUND);
+
+        UsageIngestor ingestor = new UsageIngestor(source, file);
+        assertEquals(2, ingestor.ingest(T0 + 90 * MINUTE, Arrays.asList(first)));
+        assertEquals(T0 + 90 * MINUTE, ingestor.getCursor());
+        assertEquals(30 * MINUTE, foreground(ingestor, first, "com.mail"));
+        // Still open, credited up to the end of the run
+        assertEquals(30 * MINUTE, foreground(ingestor, first, "com.maps"));
+
+        // The first cycle ends and the process restarts
+        first.updateEndData(T0 + 2 * HOUR, 60);
+        second.updateEndData(T0 + 4 * HOUR, 90);
+        ingestor = new UsageIngestor(source, file);
+        assertEquals(T0 + 90 * MINUTE, ingestor.getCursor());
+        assertEquals(2, ingestor.ingest(T0 + 4 * HOUR, Arrays.asList(first, second)));
+        assertEquals(Arrays.asList(T0, T0 + 90 * MINUTE), source.queryBegins);
+        assertEquals(T0 + 4 * HOUR, ingestor.getCursor());
+
+        // Maps stayed open over the boundary: up to the end of the first cycle,
+        // nothing while charging, then from the start of the second
+        assertEquals(HOUR, foreground(ingestor, first, "com.maps"));
+        assertEquals(30 * MINUTE, foreground(ingestor, second, "com.maps"));
+        assertEquals(30 * MINUTE, foreground(ingestor, second, "com.chat"));
+        assertEquals(0, foreground(ingestor, second, "com.mail"));
+
+        // Chat is still open after another restart
+        ingestor = new UsageIngestor(source, file);
+        second.updateEndData(T0 + 5 * HOUR, 80);
+        assertEquals(0, ingestor.ingest(T0 + 5 * HOUR, Arrays.asList(first, second)));
+        assertEquals(90 * MINUTE, foreground(ingestor, second, "com.chat"));
+        assertEquals(HOUR, foreground(ingestor, first, "com.maps"));
+    }
+
+    @Test
+    public void screenOffClosesTheOpenApp() {
+        ChargeCycle cycle = new ChargeCycle(T0, 100);
+        source.add(T0 + MINUTE, "com.mail", UsageEventSource.FOREGROUND);
+        source.add(T0 + 11 * MINUTE, null, UsageEventSource.SCREEN_OFF);
+
+        UsageIngestor ingestor = new UsageIngestor(source, file);
+        ingestor.ingest(T0 + HOUR, Arrays.asList(cycle));
+        ingestor = new UsageIngestor(source, file);
+        ingestor.ingest(T0 + 2 * HOUR, Arrays.asList(cycle));
+        assertEquals(10 * MINUTE, foreground(ingestor, cycle, "com.mail"));
+    }
+
+    @Test
+    public void eventsBeforeTheOldestCycleAreSkipped() {
+        ChargeCycle cycle = new ChargeCycle(T0, 100);
+        source.add(T0 - HOUR, "com.mail", UsageEventSource.FOREGROUND);
+        source.add(T0 + 10 * MINUTE, "com.mail", UsageEventSource.BACKGROUND);
+
+        UsageIngestor ingestor = new UsageIngestor(source, file);
+        assertEquals(1, ingestor.ingest(T0 + HOUR, Arrays.asList(cycle)));
+        assertEquals(Arrays.asList(T0), source.queryBegins);
+        // The foreground event was before the cursor, so the app was never seen open
+        assertEquals(0, foreground(ingestor, cycle, "com.mail"));
+    }
+}